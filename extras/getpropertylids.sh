@@ -22,9 +22,9 @@ curl https://raw.githubusercontent.com/Jmcleodfoss/pstreader/master/extras/prope
 		i\
 
 		i\
-	static final java.util.HashMap<Integer, String> lids = new java.util.HashMap<Integer, String>();
+	static final IntMap<String> lids = new IntMap<String>();
 		i\
-	static final java.util.HashMap<Integer, GUID> guids = new java.util.HashMap<Integer, GUID>();
+	static final IntMap<GUID> guids = new IntMap<GUID>();
 		i\
 	static {
 		g
@@ -69,18 +69,17 @@ cat << END_FOOTER >> PropertyLIDs.java
 
 	static String name(int lid, GUID guid)
 	{
-		if (lids.containsKey(lid) && guids.containsKey(lid) && guid.equals(guids.get(lid)))
-			return PropertyLIDs.lids.get(lid);
+		String name = lids.get(lid);
+		if (name != null && guid.equals(guids.get(lid)))
+			return name;
 		return String.format("LID-%08x (%s)", lid, GUID.name(guid));
 	}
 
 	public static void main(String[] args)
 	{
-		java.util.Iterator<java.util.Map.Entry<Integer, String>> iter = PropertyLIDs.lids.entrySet().iterator();
-		while (iter.hasNext()) {
-			java.util.Map.Entry<Integer, String> e = iter.next();
-			System.out.printf("0x%08x: %s%n", e.getKey(), e.getValue());
-		}
+		int[] keys = PropertyLIDs.lids.keys();
+		for (int i = 0; i < keys.length; ++i)
+			System.out.printf("0x%08x: %s%n", keys[i], PropertyLIDs.lids.get(keys[i]));
 	}
 }
 END_FOOTER
@@ -22,7 +22,7 @@ curl https://raw.githubusercontent.com/Jmcleodfoss/pstreader/master/extras/prope
 		i\
 
 		i\
-	static final java.util.HashMap<Integer, String> tags = new java.util.HashMap<Integer, String>();
+	static final IntMap<String> tags = new IntMap<String>();
 		i\
 	static {
 		g
@@ -45,11 +45,9 @@ cat << END_FOOTER >> PropertyTags.java
 
 	public static void main(String[] args)
 	{
-		java.util.Iterator<java.util.Map.Entry<Integer, String>> iter = PropertyTags.tags.entrySet().iterator();
-		while (iter.hasNext()) {
-			java.util.Map.Entry<Integer, String> e = iter.next();
-			System.out.printf("0x%08x: %s%n", e.getKey(), e.getValue());
-		}
+		int[] keys = PropertyTags.tags.keys();
+		for (int i = 0; i < keys.length; ++i)
+			System.out.printf("0x%08x: %s%n", keys[i], PropertyTags.tags.get(keys[i]));
 	}
 }
 END_FOOTER
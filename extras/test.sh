@@ -68,6 +68,7 @@ TestMSGFile() {
 	TestModule io.github.jmcleodfoss.msg.FAT "$msg"
 	TestModule io.github.jmcleodfoss.msg.Header "$msg"
 	TestModule io.github.jmcleodfoss.msg.MiniFAT "$msg"
+	TestModule io.github.jmcleodfoss.msg.MSG "$msg"
 	TestModule io.github.jmcleodfoss.msg.NamedProperties "$msg"
 	TestModule io.github.jmcleodfoss.msg.Property "$msg"
 }
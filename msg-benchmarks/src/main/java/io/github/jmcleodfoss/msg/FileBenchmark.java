@@ -0,0 +1,70 @@
+package io.github.jmcleodfoss.msg;
+
+/** Benchmarks for reading attachment data. Attachments smaller than the mini stream cutoff size (4096 bytes) are read
+*   from the mini stream, 64 bytes at a time, and larger ones from regular sectors, so the 4000 and 4096 byte cases
+*   compare the two for almost the same amount of data. Multiply the score by the size for the throughput in bytes.
+*   Each case is run with the streams in consecutive sectors, and fragmented into shuffled runs of 1 and 16 sectors,
+*   so that reading the data has to follow the sector chain rather than read one run of sectors.
+*	@see MSG#getFile
+*/
+@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@org.openjdk.jmh.annotations.Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Fork(1)
+public class FileBenchmark
+{
+	/** The size of the attachment data in bytes */
+	@org.openjdk.jmh.annotations.Param({"4000", "4096", "1048576"})
+	public int size;
+
+	/** The number of sectors in each fragment of the streams, or 0 if each stream is in consecutive sectors */
+	@org.openjdk.jmh.annotations.Param({"0", "1", "16"})
+	public int fragmentSize;
+
+	/** The opened file */
+	private MSG msg;
+
+	/** The entry holding the attachment data */
+	private DirectoryEntryData entry;
+
+	/** Open the file and find the attachment data.
+	*	@throws	Exception	The synthetic file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Setup
+	public void setup()
+	throws
+		Exception
+	{
+		msg = new MSG(SyntheticMSG.DEFAULT.withAttachments(1).withAttachmentSize(size).withFragmentSize(fragmentSize).build());
+		java.util.Iterator<DirectoryEntryData> iter = msg.getChildIterator(msg.attachments().next());
+		while (iter.hasNext()){
+			DirectoryEntryData ded = iter.next();
+			if (ded.propertyTag == PropertyTags.PidTagAttachDataBinary)
+				entry = ded;
+		}
+		if (entry == null)
+			throw new IllegalStateException("The attachment data was not found");
+	}
+
+	/** Close the file.
+	*	@throws	java.io.IOException	The file could not be closed.
+	*/
+	@org.openjdk.jmh.annotations.TearDown
+	public void tearDown()
+	throws
+		java.io.IOException
+	{
+		msg.close();
+	}
+
+	/** Read the attachment data into an array.
+	*	@return	The attachment data
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public byte[] getFile()
+	{
+		return msg.getFile(entry);
+	}
+}
@@ -0,0 +1,62 @@
+package io.github.jmcleodfoss.msg;
+
+/** Benchmarks for reading all the properties of the message, a recipient, or an attachment.
+*	@see MSG#getPropertiesAsHashMap(DirectoryEntryData)
+*/
+@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.NANOSECONDS)
+@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@org.openjdk.jmh.annotations.Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Fork(1)
+public class PropertiesBenchmark
+{
+	/** The object to read the properties of: "root", "recipient", or "attachment" */
+	@org.openjdk.jmh.annotations.Param({"root", "recipient", "attachment"})
+	public String object;
+
+	/** The opened file */
+	private MSG msg;
+
+	/** The entry to read the properties of */
+	private DirectoryEntryData entry;
+
+	/** Open the file and find the entry.
+	*	@throws	Exception	The synthetic file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Setup
+	public void setup()
+	throws
+		Exception
+	{
+		msg = new MSG(SyntheticMSG.DEFAULT.build());
+		if ("root".equals(object))
+			entry = msg.getDirectoryTree();
+		else if ("recipient".equals(object))
+			entry = msg.recipients().next();
+		else if ("attachment".equals(object))
+			entry = msg.attachments().next();
+		else
+			throw new IllegalArgumentException(String.format("Unknown object %s", object));
+	}
+
+	/** Close the file.
+	*	@throws	java.io.IOException	The file could not be closed.
+	*/
+	@org.openjdk.jmh.annotations.TearDown
+	public void tearDown()
+	throws
+		java.io.IOException
+	{
+		msg.close();
+	}
+
+	/** Read the entry's properties.
+	*	@return	The properties
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public java.util.Map<Integer, Property> getPropertiesAsHashMap()
+	{
+		return msg.getPropertiesAsHashMap(entry);
+	}
+}
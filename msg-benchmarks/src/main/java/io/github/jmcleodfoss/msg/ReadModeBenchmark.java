@@ -0,0 +1,132 @@
+package io.github.jmcleodfoss.msg;
+
+/** Benchmarks comparing the ways a file on disk can be read: mapped in its entirety (the default), mapped in windows
+*   as it is read, and read with positional reads. The synthetic file is written to a temporary file, so after the
+*   first iteration it is read from the page cache. The streams in the file are either in consecutive sectors or
+*   fragmented into shuffled runs of 16 sectors.
+*	@see OpenOptions#withMappingWindowSize
+*	@see OpenOptions#withPositionalRead
+*/
+@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@org.openjdk.jmh.annotations.Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Fork(1)
+public class ReadModeBenchmark
+{
+	/** The size of the windows used in windowed mode */
+	private static final int WINDOW_SIZE = 1 << 20;
+
+	/** How the file is read: "mapped", "windowed", or "positional" */
+	@org.openjdk.jmh.annotations.Param({"mapped", "windowed", "positional"})
+	public String mode;
+
+	/** The size of the attachment data in bytes */
+	@org.openjdk.jmh.annotations.Param({"20000", "16777216"})
+	public int attachmentSize;
+
+	/** The number of sectors in each fragment of the streams, or 0 if each stream is in consecutive sectors */
+	@org.openjdk.jmh.annotations.Param({"0", "16"})
+	public int fragmentSize;
+
+	/** The temporary file holding the synthetic msg file */
+	private java.nio.file.Path path;
+
+	/** The options for the read mode being measured */
+	private OpenOptions options;
+
+	/** The file, opened once for the benchmarks which read from it */
+	private MSG msg;
+
+	/** The entry holding the attachment data */
+	private DirectoryEntryData entry;
+
+	/** The buffer the attachment data is read into */
+	private java.nio.ByteBuffer buffer;
+
+	/** Write the file, and open it with the options for the read mode.
+	*	@throws	Exception	The synthetic file could not be written or read.
+	*/
+	@org.openjdk.jmh.annotations.Setup
+	public void setup()
+	throws
+		Exception
+	{
+		if ("mapped".equals(mode))
+			options = OpenOptions.DEFAULT;
+		else if ("windowed".equals(mode))
+			options = OpenOptions.DEFAULT.withMappingWindowSize(WINDOW_SIZE);
+		else if ("positional".equals(mode))
+			options = OpenOptions.DEFAULT.withPositionalRead(true);
+		else
+			throw new IllegalArgumentException(String.format("Unknown read mode %s", mode));
+
+		path = java.nio.file.Files.createTempFile("msg-benchmark", ".msg");
+		java.nio.channels.FileChannel fc = java.nio.channels.FileChannel.open(path, java.nio.file.StandardOpenOption.WRITE);
+		try {
+			SyntheticMSG.DEFAULT.withAttachments(1).withAttachmentSize(attachmentSize).withFragmentSize(fragmentSize).write(fc);
+		} finally {
+			fc.close();
+		}
+
+		msg = new MSG(path.toString(), options);
+		java.util.Iterator<DirectoryEntryData> iter = msg.getChildIterator(msg.attachments().next());
+		while (iter.hasNext()){
+			DirectoryEntryData ded = iter.next();
+			if (ded.propertyTag == PropertyTags.PidTagAttachDataBinary)
+				entry = ded;
+		}
+		if (entry == null)
+			throw new IllegalStateException("The attachment data was not found");
+		buffer = java.nio.ByteBuffer.allocateDirect(64 * 1024);
+	}
+
+	/** Close and delete the file.
+	*	@throws	java.io.IOException	The file could not be closed or deleted.
+	*/
+	@org.openjdk.jmh.annotations.TearDown
+	public void tearDown()
+	throws
+		java.io.IOException
+	{
+		msg.close();
+		java.nio.file.Files.delete(path);
+	}
+
+	/** Open the file, summarize it, and close it.
+	*	@return	The summary of the file
+	*	@throws	Exception	The file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public MessageSummary openAndSummarize()
+	throws
+		Exception
+	{
+		MSG m = new MSG(path.toString(), options);
+		try {
+			return m.summary();
+		} finally {
+			m.close();
+		}
+	}
+
+	/** Read the attachment data through a channel.
+	*	@return	The number of bytes read
+	*	@throws	java.io.IOException	The attachment data could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public long readAttachment()
+	throws
+		java.io.IOException
+	{
+		java.nio.channels.ReadableByteChannel channel = msg.getFileChannel(entry);
+		long total = 0;
+		int n;
+		while ((n = channel.read(buffer)) >= 0){
+			total += n;
+			buffer.clear();
+		}
+		return total;
+	}
+}
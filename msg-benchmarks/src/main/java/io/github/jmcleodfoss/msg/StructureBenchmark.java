@@ -0,0 +1,101 @@
+package io.github.jmcleodfoss.msg;
+
+/** Benchmarks for opening a file and for reading the file structures which are read when a file is opened. Each
+*   structure is read from the same in-memory synthetic file, with the structures it depends on read once in setup.
+*	@see SyntheticMSG
+*/
+@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@org.openjdk.jmh.annotations.Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Fork(1)
+public class StructureBenchmark
+{
+	/** The number of recipients and of attachments in the file */
+	@org.openjdk.jmh.annotations.Param({"2", "200"})
+	public int children;
+
+	/** The number of named properties in the file */
+	@org.openjdk.jmh.annotations.Param({"16", "1024"})
+	public int namedProperties;
+
+	/** The file contents */
+	private byte[] data;
+
+	/** The data source for the file contents */
+	private DataSource dataSource;
+
+	/** The file header */
+	private Header header;
+
+	/** The file allocation table */
+	private FAT fat;
+
+	/** The directory */
+	private Directory directory;
+
+	/** The mini file allocation table */
+	private MiniFAT miniFAT;
+
+	/** Build the file and read the structures the benchmarks depend on.
+	*	@throws	Exception	The synthetic file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Setup
+	public void setup()
+	throws
+		Exception
+	{
+		data = SyntheticMSG.DEFAULT.withRecipients(children).withAttachments(children).withNamedProperties(namedProperties).build();
+		dataSource = DataSource.wrap(data);
+		header = new Header(dataSource);
+		fat = new FAT(dataSource, header, new DIFAT(dataSource, header, OpenOptions.DEFAULT), OpenOptions.DEFAULT);
+		directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+		miniFAT = new MiniFAT(dataSource, header, fat, directory, OpenOptions.DEFAULT);
+	}
+
+	/** Open the file, reading every directory entry.
+	*	@return	The opened file
+	*	@throws	Exception	The file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public MSG openMSG()
+	throws
+		Exception
+	{
+		return new MSG(data);
+	}
+
+	/** Open the file in lazy directory mode.
+	*	@return	The opened file
+	*	@throws	Exception	The file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public MSG openMSGLazy()
+	throws
+		Exception
+	{
+		return new MSG(data, OpenOptions.DEFAULT.withLazyDirectory(true));
+	}
+
+	/** Read the directory, decoding every entry and building the tree.
+	*	@return	The directory
+	*	@throws	Exception	The directory could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public Directory directory()
+	throws
+		Exception
+	{
+		return new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+	}
+
+	/** Read the named properties mapping.
+	*	@return	The named properties
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public NamedProperties namedProperties()
+	{
+		return new NamedProperties(dataSource, header, fat, directory, miniFAT);
+	}
+}
@@ -0,0 +1,1108 @@
+package io.github.jmcleodfoss.msg;
+
+/** Generator for synthetic msg files, for use as benchmark input and test fixtures, so that no corpus of real
+*   messages is needed. The message has a subject, a body, a submit time, the given number of named properties,
+*   recipients, and attachments, optionally a chain of nested embedded messages, and the named properties mapping
+*   storage. The files may use 512-byte (version 3) or 4096-byte (version 4) sectors; when the FAT needs more sectors
+*   than the header can list, the rest are listed in a chain of DIFAT sectors.
+*   <p>
+*   Streams smaller than the mini stream cutoff size are stored in the mini stream, so the attachment size decides
+*   whether attachment data is read from the mini stream or from regular sectors. Attachment data is generated as it
+*   is written, so files with multi-gigabyte attachments can be written with {@link #write} without holding them in
+*   memory; {@link #build} returns the whole file as an array, and is limited to files smaller than 2GB.
+*   <p>
+*   Each stream is stored in consecutive sectors unless a fragment size is given with {@link #withFragmentSize}, in
+*   which case the streams are split into fragments which are shuffled, as in a file which has been edited many times.
+*   <p>
+*   SyntheticMSG objects are immutable; each "with" method returns a copy with the one parameter changed, e.g.
+*   {@code SyntheticMSG.DEFAULT.withAttachments(10).build()}.
+*/
+final class SyntheticMSG
+{
+	/** The mini sector size */
+	private static final int MINI_SECTOR_SIZE = 64;
+
+	/** Streams smaller than this are stored in the mini stream. */
+	private static final int MINI_STREAM_CUTOFF_SIZE = 4096;
+
+	/** The largest stream allowed in a version 3 file */
+	private static final long MAX_VERSION_3_STREAM_SIZE = 0x80000000L;
+
+	/** The number of FAT sector locations in the header */
+	private static final int HEADER_DIFAT_ENTRIES = 109;
+
+	/** Sector chain sentinel values */
+	private static final int DIFSECT = 0xfffffffc;
+	private static final int FATSECT = 0xfffffffd;
+	private static final int ENDOFCHAIN = 0xfffffffe;
+	private static final int FREESECT = 0xffffffff;
+
+	/** Directory entry sentinel value for no sibling or child */
+	private static final int NOSTREAM = 0xffffffff;
+
+	/** Directory entry object types */
+	private static final byte STORAGE = 1;
+	private static final byte STREAM = 2;
+	private static final byte ROOT_STORAGE = 5;
+
+	/** The property flags used for every property (readable and writable) */
+	private static final int PROPERTY_FLAGS = 6;
+
+	/** The size of the properties header for the message, for embedded messages, and for recipients and attachments */
+	private static final int MESSAGE_PROPERTIES_HEADER_SIZE = 32;
+	private static final int EMBEDDED_MESSAGE_PROPERTIES_HEADER_SIZE = 24;
+	private static final int CHILD_PROPERTIES_HEADER_SIZE = 8;
+
+	/** Attachment methods for attachments holding binary data and embedded messages */
+	private static final int ATTACH_BY_VALUE = 1;
+	private static final int ATTACH_EMBEDDED_MESSAGE = 5;
+
+	/** The size of the attachment in each embedded message */
+	private static final int EMBEDDED_ATTACHMENT_SIZE = 1000;
+
+	/** The index in the named property GUID list of the first GUID in the GUID stream */
+	private static final int FIRST_GUID_STREAM_INDEX = 3;
+
+	/** The submit time of every message, as a FILETIME */
+	private static final long SUBMIT_TIME = 132000000000000000L;
+
+	/** The size of the buffer generated attachment data is written from; a multiple of the 256-byte pattern period */
+	private static final int CHUNK_SIZE = 65536;
+
+	/** The seed for shuffling fragments, so that files built with the same parameters are the same */
+	private static final long FRAGMENT_SEED = 0x6d7367L;
+
+	/** The default parameters: 512-byte sectors, 2 recipients, 2 attachments of 20,000 bytes, 8 named properties, a
+	*   1,000 character body, no embedded messages, and each stream in consecutive sectors
+	*/
+	static final SyntheticMSG DEFAULT = new SyntheticMSG(512, 2, 2, 20000, 8, 1000, 0, 0);
+
+	/** The sector size, 512 or 4096 */
+	final int sectorSize;
+
+	/** The number of recipients */
+	final int recipients;
+
+	/** The number of attachments, not including the one holding the embedded message, if any */
+	final int attachments;
+
+	/** The size of each attachment's data, in bytes */
+	final long attachmentSize;
+
+	/** The number of named properties; even-numbered ones are numerical, odd-numbered ones are string named properties */
+	final int namedProperties;
+
+	/** The number of characters in the body */
+	final int bodySize;
+
+	/** The depth of the chain of embedded messages; each has one recipient, one small attachment, and an attachment
+	*   holding the next message in the chain
+	*/
+	final int embeddingDepth;
+
+	/** The number of sectors in each fragment of the regular streams and the mini stream, or 0 if each is stored in
+	*   consecutive sectors
+	*/
+	final int fragmentSize;
+
+	/** A directory entry in the file being built */
+	private static final class Node
+	{
+		/** The entry name */
+		final String name;
+
+		/** The entry's object type */
+		final byte objectType;
+
+		/** The stream contents, or null if they are generated as they are written */
+		final byte[] data;
+
+		/** The stream size */
+		final long size;
+
+		/** The value added to each byte of generated contents */
+		final int seed;
+
+		/** The entry's children */
+		final java.util.ArrayList<Node> children = new java.util.ArrayList<Node>();
+
+		/** The entry's index in the directory */
+		int id;
+
+		/** The entry's tree links */
+		int leftSiblingId = NOSTREAM;
+		int rightSiblingId = NOSTREAM;
+		int childId = NOSTREAM;
+
+		/** The first sector or mini sector of the stream */
+		int startingSectorLocation = ENDOFCHAIN;
+
+		/** Create a storage entry
+		*	@param	name	The entry name
+		*	@param	objectType	The entry's object type
+		*/
+		Node(String name, byte objectType)
+		{
+			this(name, objectType, new byte[0], 0, 0);
+		}
+
+		/** Create a stream entry with the given contents
+		*	@param	name	The entry name
+		*	@param	data	The stream contents
+		*/
+		Node(String name, byte[] data)
+		{
+			this(name, STREAM, data, data.length, 0);
+		}
+
+		/** Create a stream entry whose contents are generated as they are written: byte i is (i * 7 + seed) modulo 256.
+		*	@param	name	The entry name
+		*	@param	size	The stream size
+		*	@param	seed	The value added to each byte
+		*/
+		Node(String name, long size, int seed)
+		{
+			this(name, STREAM, null, size, seed);
+		}
+
+		/** Create an entry
+		*	@param	name	The entry name
+		*	@param	objectType	The entry's object type
+		*	@param	data	The stream contents, or null if they are generated
+		*	@param	size	The stream size
+		*	@param	seed	The value added to each byte of generated contents
+		*/
+		private Node(String name, byte objectType, byte[] data, long size, int seed)
+		{
+			this.name = name;
+			this.objectType = objectType;
+			this.data = data;
+			this.size = size;
+			this.seed = seed;
+		}
+
+		/** Add a child to a storage
+		*	@param	child	The child to add
+		*	@return	This node, so calls may be chained
+		*/
+		Node add(Node child)
+		{
+			children.add(child);
+			return this;
+		}
+
+		/** Copy part of the stream contents to an array
+		*	@param	offset	The offset in the stream to start at
+		*	@param	dest	The array to copy to
+		*	@param	destOffset	The offset in the array to start at
+		*	@param	length	The number of bytes to copy
+		*/
+		void get(long offset, byte[] dest, int destOffset, int length)
+		{
+			if (data != null){
+				System.arraycopy(data, (int)offset, dest, destOffset, length);
+				return;
+			}
+			for (int i = 0; i < length; ++i)
+				dest[destOffset + i] = (byte)((offset + i) * 7 + seed);
+		}
+
+		/** Is the entry a stream stored in the mini stream?
+		*	@return	true if the entry is a non-empty stream smaller than the mini stream cutoff size, false otherwise
+		*/
+		boolean isInMiniStream()
+		{
+			return objectType == STREAM && size > 0 && size < MINI_STREAM_CUTOFF_SIZE;
+		}
+
+		/** Is the entry a stream stored in regular sectors?
+		*	@return	true if the entry is a stream at least as large as the mini stream cutoff size, false otherwise
+		*/
+		boolean isInFAT()
+		{
+			return objectType == STREAM && size >= MINI_STREAM_CUTOFF_SIZE;
+		}
+	}
+
+	/** The sibling order required by the CFB directory: shorter names first, then by upper-case name */
+	private static final java.util.Comparator<Node> SIBLING_ORDER = new java.util.Comparator<Node>(){
+		@Override
+		public int compare(Node a, Node b)
+		{
+			if (a.name.length() != b.name.length())
+				return a.name.length() - b.name.length();
+			return a.name.toUpperCase(java.util.Locale.ROOT).compareTo(b.name.toUpperCase(java.util.Locale.ROOT));
+		}
+	};
+
+	/** The contents of a properties stream */
+	private static final class PropertiesStream
+	{
+		/** The stream contents */
+		private final java.nio.ByteBuffer bb;
+
+		/** Create a properties stream
+		*	@param	headerSize	The size of the header
+		*	@param	nProperties	The number of properties which will be added
+		*/
+		PropertiesStream(int headerSize, int nProperties)
+		{
+			bb = java.nio.ByteBuffer.allocate(headerSize + nProperties * Property.SIZE).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+			bb.position(headerSize);
+		}
+
+		/** Set the message header fields
+		*	@param	recipients	The number of recipients
+		*	@param	attachments	The number of attachments
+		*	@return	This stream, so calls may be chained
+		*/
+		PropertiesStream messageHeader(int recipients, int attachments)
+		{
+			bb.putInt(8, recipients);
+			bb.putInt(12, attachments);
+			bb.putInt(16, recipients);
+			bb.putInt(20, attachments);
+			return this;
+		}
+
+		/** Add a property whose value is stored in the properties stream
+		*	@param	propertyTag	The property tag
+		*	@param	value	The value
+		*	@return	This stream, so calls may be chained
+		*/
+		PropertiesStream fixed(int propertyTag, long value)
+		{
+			bb.putInt(propertyTag).putInt(PROPERTY_FLAGS).putLong(value);
+			return this;
+		}
+
+		/** Add a property whose value is stored in its own stream
+		*	@param	propertyTag	The property tag
+		*	@param	size	The size of the value
+		*	@return	This stream, so calls may be chained
+		*/
+		PropertiesStream variable(int propertyTag, long size)
+		{
+			bb.putInt(propertyTag).putInt(PROPERTY_FLAGS).putInt((int)size).putInt(0);
+			return this;
+		}
+
+		/** Get the stream contents
+		*	@return	The bytes of the stream
+		*/
+		byte[] bytes()
+		{
+			return bb.array();
+		}
+	}
+
+	/** The location of every structure in a file, and the allocation tables, worked out before anything is written */
+	private static final class Layout
+	{
+		/** The sector size */
+		final int sectorSize;
+
+		/** All the entries, in directory order */
+		final java.util.List<Node> entries;
+
+		/** The mini stream */
+		final byte[] miniStream;
+
+		/** The streams stored in regular sectors, in the order their sectors are allocated, ending with the mini
+		*   stream if there is one
+		*/
+		final java.util.List<Node> streams = new java.util.ArrayList<Node>();
+
+		/** The allocation index of the first sector of each stream, followed by the total number of stream sectors */
+		final int[] streamStarts;
+
+		/** The number of stream sectors in each block; blocks are moved as a unit when the streams are fragmented. */
+		final int blockSize;
+
+		/** The position in the file of each block, by allocation order */
+		final int[] blockLocation;
+
+		/** The allocation order of each block, by position in the file */
+		final int[] blockAt;
+
+		/** The mini FAT, padded to a whole number of sectors */
+		final int[] miniFAT;
+
+		/** The FAT, padded to a whole number of sectors */
+		final int[] fat;
+
+		/** The first sector and number of sectors of each structure */
+		final int firstMiniFATSector;
+		final int miniFATSectors;
+		final int firstDirectorySector;
+		final int directorySectors;
+		final int firstFATSector;
+		final int fatSectors;
+		final int firstDIFATSector;
+		final int difatSectors;
+
+		/** The number of sectors in the file, not including the header */
+		final int nSectors;
+
+		/** Allocate sectors for every structure. The regular streams and the mini stream are stored first, then the
+		*   mini FAT, directory, FAT, and DIFAT, each in consecutive sectors. If the fragment size is not 0, the
+		*   sectors of the streams are allocated in blocks of that size, and all but the last, partial, block are
+		*   shuffled.
+		*	@param	sectorSize	The sector size
+		*	@param	fragmentSize	The number of sectors in each fragment, or 0 to store each stream in consecutive
+		*			sectors
+		*	@param	root	The root entry
+		*	@param	entries	All the entries, in directory order
+		*/
+		Layout(int sectorSize, int fragmentSize, Node root, java.util.List<Node> entries)
+		{
+			this.sectorSize = sectorSize;
+			this.entries = entries;
+			final int entriesPerSector = sectorSize / 4;
+
+			long streamSectors = 0;
+			int miniSectors = 0;
+			for (java.util.Iterator<Node> iter = entries.iterator(); iter.hasNext(); ){
+				Node node = iter.next();
+				if (node.isInMiniStream())
+					miniSectors += sectors(node.size, MINI_SECTOR_SIZE);
+				else if (node.isInFAT())
+					streamSectors += sectors(node.size, sectorSize);
+			}
+			final int miniStreamSectors = sectors((long)miniSectors * MINI_SECTOR_SIZE, sectorSize);
+			miniFATSectors = sectors(4L * miniSectors, sectorSize);
+			directorySectors = sectors((long)DirectoryEntry.SIZE * entries.size(), sectorSize);
+			final long dataSectors = streamSectors + miniStreamSectors + miniFATSectors + directorySectors;
+
+			// Each FAT sector holds entriesPerSector locations, including its own and those of the DIFAT sectors; each
+			// DIFAT sector lists entriesPerSector - 1 FAT sectors and the location of the next DIFAT sector.
+			int nFAT = 1;
+			int nDIFAT = 0;
+			while (dataSectors + nFAT + nDIFAT > (long)nFAT * entriesPerSector){
+				++nFAT;
+				nDIFAT = nFAT <= HEADER_DIFAT_ENTRIES ? 0 : sectors(nFAT - HEADER_DIFAT_ENTRIES, entriesPerSector - 1);
+			}
+			if (dataSectors + nFAT + nDIFAT > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(String.format("The file needs %d sectors, which is too many", dataSectors + nFAT + nDIFAT));
+			fatSectors = nFAT;
+			difatSectors = nDIFAT;
+			nSectors = (int)dataSectors + fatSectors + difatSectors;
+
+			miniStream = new byte[miniSectors * MINI_SECTOR_SIZE];
+			miniFAT = new int[miniFATSectors * entriesPerSector];
+			java.util.Arrays.fill(miniFAT, FREESECT);
+			int nextMiniSector = 0;
+			for (java.util.Iterator<Node> iter = entries.iterator(); iter.hasNext(); ){
+				Node node = iter.next();
+				if (node.isInFAT())
+					streams.add(node);
+				else if (node.isInMiniStream()){
+					node.startingSectorLocation = nextMiniSector;
+					node.get(0, miniStream, nextMiniSector * MINI_SECTOR_SIZE, (int)node.size);
+					nextMiniSector = chain(miniFAT, nextMiniSector, sectors(node.size, MINI_SECTOR_SIZE));
+				}
+			}
+			final Node miniStreamNode = new Node(root.name, miniStream);
+			if (miniStreamSectors > 0)
+				streams.add(miniStreamNode);
+
+			final int totalStreamSectors = (int)streamSectors + miniStreamSectors;
+			blockSize = fragmentSize > 0 ? fragmentSize : Math.max(1, totalStreamSectors);
+			final int nBlocks = sectors(totalStreamSectors, blockSize);
+			blockLocation = new int[nBlocks];
+			for (int i = 0; i < nBlocks; ++i)
+				blockLocation[i] = i;
+			if (fragmentSize > 0){
+				// Fisher-Yates shuffle of the full blocks; the partial block, if any, stays at the end.
+				final java.util.Random random = new java.util.Random(FRAGMENT_SEED);
+				for (int i = totalStreamSectors / blockSize - 1; i > 0; --i){
+					final int j = random.nextInt(i + 1);
+					final int t = blockLocation[i];
+					blockLocation[i] = blockLocation[j];
+					blockLocation[j] = t;
+				}
+			}
+			blockAt = new int[nBlocks];
+			for (int i = 0; i < nBlocks; ++i)
+				blockAt[blockLocation[i]] = i;
+
+			fat = new int[fatSectors * entriesPerSector];
+			java.util.Arrays.fill(fat, FREESECT);
+			streamStarts = new int[streams.size() + 1];
+			int nextIndex = 0;
+			for (int s = 0; s < streams.size(); ++s){
+				Node node = streams.get(s);
+				streamStarts[s] = nextIndex;
+				final int n = sectors(node.size, sectorSize);
+				node.startingSectorLocation = sector(nextIndex);
+				for (int i = 0; i < n; ++i)
+					fat[sector(nextIndex + i)] = i < n - 1 ? sector(nextIndex + i + 1) : ENDOFCHAIN;
+				nextIndex += n;
+			}
+			streamStarts[streams.size()] = nextIndex;
+			if (miniStreamSectors > 0)
+				root.startingSectorLocation = miniStreamNode.startingSectorLocation;
+			int nextSector = totalStreamSectors;
+
+			firstMiniFATSector = miniFATSectors > 0 ? nextSector : ENDOFCHAIN;
+			nextSector = chain(fat, nextSector, miniFATSectors);
+
+			firstDirectorySector = nextSector;
+			nextSector = chain(fat, nextSector, directorySectors);
+
+			firstFATSector = nextSector;
+			for (int i = 0; i < fatSectors; ++i)
+				fat[nextSector++] = FATSECT;
+
+			firstDIFATSector = difatSectors > 0 ? nextSector : ENDOFCHAIN;
+			for (int i = 0; i < difatSectors; ++i)
+				fat[nextSector++] = DIFSECT;
+		}
+
+		/** Get the size of the file
+		*	@return	The size of the file in bytes
+		*/
+		long fileSize()
+		{
+			return (1L + nSectors) * sectorSize;
+		}
+
+		/** Get the sector holding a stream sector
+		*	@param	index	The allocation index of the stream sector
+		*	@return	The sector the stream sector is stored in
+		*/
+		int sector(int index)
+		{
+			return blockLocation[index / blockSize] * blockSize + index % blockSize;
+		}
+	}
+
+	/** Create a generator
+	*	@param	sectorSize	The sector size, 512 or 4096
+	*	@param	recipients	The number of recipients
+	*	@param	attachments	The number of attachments
+	*	@param	attachmentSize	The size of each attachment
+	*	@param	namedProperties	The number of named properties
+	*	@param	bodySize	The number of characters in the body
+	*	@param	embeddingDepth	The depth of the chain of embedded messages
+	*	@param	fragmentSize	The number of sectors in each fragment, or 0 to store each stream in consecutive sectors
+	*/
+	private SyntheticMSG(int sectorSize, int recipients, int attachments, long attachmentSize, int namedProperties, int bodySize, int embeddingDepth, int fragmentSize)
+	{
+		this.sectorSize = sectorSize;
+		this.recipients = recipients;
+		this.attachments = attachments;
+		this.attachmentSize = attachmentSize;
+		this.namedProperties = namedProperties;
+		this.bodySize = bodySize;
+		this.embeddingDepth = embeddingDepth;
+		this.fragmentSize = fragmentSize;
+	}
+
+	/** Get a copy of this generator with the given sector size; 512-byte sectors make a version 3 file, and
+	*   4096-byte sectors a version 4 file.
+	*	@param	sectorSize	The sector size
+	*	@return	A copy of this generator with the given sector size
+	*	@throws	IllegalArgumentException	The sector size is not 512 or 4096.
+	*/
+	SyntheticMSG withSectorSize(int sectorSize)
+	{
+		if (sectorSize != 512 && sectorSize != 4096)
+			throw new IllegalArgumentException(String.format("The sector size must be 512 or 4096, not %d", sectorSize));
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given number of recipients
+	*	@param	recipients	The number of recipients
+	*	@return	A copy of this generator with the given number of recipients
+	*/
+	SyntheticMSG withRecipients(int recipients)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given number of attachments
+	*	@param	attachments	The number of attachments
+	*	@return	A copy of this generator with the given number of attachments
+	*/
+	SyntheticMSG withAttachments(int attachments)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given attachment size
+	*	@param	attachmentSize	The size of each attachment's data, in bytes
+	*	@return	A copy of this generator with the given attachment size
+	*/
+	SyntheticMSG withAttachmentSize(long attachmentSize)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given number of named properties
+	*	@param	namedProperties	The number of named properties
+	*	@return	A copy of this generator with the given number of named properties
+	*/
+	SyntheticMSG withNamedProperties(int namedProperties)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given body size
+	*	@param	bodySize	The number of characters in the body
+	*	@return	A copy of this generator with the given body size
+	*/
+	SyntheticMSG withBodySize(int bodySize)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator with the given depth of embedded messages
+	*	@param	embeddingDepth	The number of messages in the chain of embedded messages; 0 for none
+	*	@return	A copy of this generator with the given depth of embedded messages
+	*/
+	SyntheticMSG withEmbeddingDepth(int embeddingDepth)
+	{
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Get a copy of this generator which fragments the regular streams and the mini stream. Each is split into
+	*   fragments of the given number of sectors, and the fragments of all the streams are shuffled, so that sector
+	*   chains are interleaved with each other and rarely run into the next fragment.
+	*	@param	fragmentSize	The number of sectors in each fragment, or 0 to store each stream in consecutive sectors
+	*	@return	A copy of this generator with the given fragment size
+	*	@throws	IllegalArgumentException	The fragment size is negative.
+	*/
+	SyntheticMSG withFragmentSize(int fragmentSize)
+	{
+		if (fragmentSize < 0)
+			throw new IllegalArgumentException(String.format("The fragment size must not be negative, not %d", fragmentSize));
+		return new SyntheticMSG(sectorSize, recipients, attachments, attachmentSize, namedProperties, bodySize, embeddingDepth, fragmentSize);
+	}
+
+	/** Encode a String as UTF-16LE, without a terminating null
+	*	@param	s	The String to encode
+	*	@return	The encoded String
+	*/
+	private static byte[] utf16(String s)
+	{
+		return s.getBytes(java.nio.charset.StandardCharsets.UTF_16LE);
+	}
+
+	/** Create a property value stream entry
+	*	@param	propertyTag	The property tag
+	*	@param	data	The property value
+	*	@return	The entry for the property value
+	*/
+	private static Node substorage(int propertyTag, byte[] data)
+	{
+		return new Node(String.format("__substg1.0_%08X", propertyTag), data);
+	}
+
+	/** Get the number of sectors needed to hold the given number of bytes
+	*	@param	size	The number of bytes
+	*	@param	sectorSize	The sector size
+	*	@return	The number of sectors needed
+	*/
+	private static int sectors(long size, int sectorSize)
+	{
+		return (int)((size + sectorSize - 1) / sectorSize);
+	}
+
+	/** Build the tree of directory entries for the file
+	*	@return	The root entry
+	*/
+	private Node root()
+	{
+		Node root = new Node("Root Entry", ROOT_STORAGE);
+		addMessage(root, MESSAGE_PROPERTIES_HEADER_SIZE, "Synthetic message", recipients, attachments, attachmentSize, namedProperties, embeddingDepth);
+		root.add(namedPropertiesMapping());
+		return root;
+	}
+
+	/** Add the properties, recipients, and attachments of a message to a storage
+	*	@param	storage	The root entry, or the storage of an embedded message
+	*	@param	headerSize	The size of the message's properties header
+	*	@param	subjectText	The message subject
+	*	@param	nRecipients	The number of recipients
+	*	@param	nAttachments	The number of attachments holding binary data
+	*	@param	size	The size of each attachment
+	*	@param	nNamedProperties	The number of named properties to set
+	*	@param	depth	The number of messages to embed in a chain below this message
+	*/
+	private void addMessage(Node storage, int headerSize, String subjectText, int nRecipients, int nAttachments, long size, int nNamedProperties, int depth)
+	{
+		final byte[] subject = utf16(subjectText);
+		StringBuilder sb = new StringBuilder(bodySize);
+		while (sb.length() < bodySize)
+			sb.append("Body text ");
+		sb.setLength(bodySize);
+		final byte[] body = utf16(sb.toString());
+
+		final int totalAttachments = nAttachments + (depth > 0 ? 1 : 0);
+		PropertiesStream messageProperties = new PropertiesStream(headerSize, 4 + nNamedProperties)
+			.messageHeader(nRecipients, totalAttachments)
+			.variable(PropertyTags.PidTagSubjectW, subject.length + 2)
+			.variable(PropertyTags.PidTagBodyW, body.length + 2)
+			.fixed(PropertyTags.PidTagMessageFlags, 1)
+			.fixed(PropertyTags.PidTagClientSubmitTime, SUBMIT_TIME);
+		for (int i = 0; i < nNamedProperties; ++i)
+			messageProperties.fixed((0x8000 + i) << 16 | DataType.INTEGER_32, i);
+
+		storage.add(new Node("__properties_version1.0", messageProperties.bytes()))
+			.add(substorage(PropertyTags.PidTagSubjectW, subject))
+			.add(substorage(PropertyTags.PidTagBodyW, body));
+
+		for (int r = 0; r < nRecipients; ++r){
+			final byte[] displayName = utf16(String.format("Recipient %d", r));
+			final byte[] emailAddress = utf16(String.format("recipient%d@example.com", r));
+			PropertiesStream properties = new PropertiesStream(CHILD_PROPERTIES_HEADER_SIZE, 3)
+				.variable(PropertyTags.PidTagDisplayNameW, displayName.length + 2)
+				.variable(PropertyTags.PidTagEmailAddressW, emailAddress.length + 2)
+				.fixed(PropertyTags.PidTagRecipientType, 1);
+			storage.add(new Node(String.format("__recip_version1.0_#%08X", r), STORAGE)
+				.add(new Node("__properties_version1.0", properties.bytes()))
+				.add(substorage(PropertyTags.PidTagDisplayNameW, displayName))
+				.add(substorage(PropertyTags.PidTagEmailAddressW, emailAddress)));
+		}
+
+		for (int a = 0; a < nAttachments; ++a){
+			if (sectorSize == 512 && size > MAX_VERSION_3_STREAM_SIZE)
+				throw new IllegalArgumentException(String.format("Attachments in files with 512-byte sectors must be no larger than %d bytes", MAX_VERSION_3_STREAM_SIZE));
+			final byte[] fileName = utf16(String.format("attachment%d.bin", a));
+			PropertiesStream properties = new PropertiesStream(CHILD_PROPERTIES_HEADER_SIZE, 3)
+				.variable(PropertyTags.PidTagAttachLongFilenameW, fileName.length + 2)
+				.variable(PropertyTags.PidTagAttachDataBinary, size)
+				.fixed(PropertyTags.PidTagAttachMethod, ATTACH_BY_VALUE);
+			storage.add(new Node(String.format("__attach_version1.0_#%08X", a), STORAGE)
+				.add(new Node("__properties_version1.0", properties.bytes()))
+				.add(substorage(PropertyTags.PidTagAttachLongFilenameW, fileName))
+				.add(new Node(String.format("__substg1.0_%08X", PropertyTags.PidTagAttachDataBinary), size, a)));
+		}
+
+		if (depth > 0){
+			PropertiesStream properties = new PropertiesStream(CHILD_PROPERTIES_HEADER_SIZE, 2)
+				.variable(PropertyTags.PidTagAttachDataObject, 0)
+				.fixed(PropertyTags.PidTagAttachMethod, ATTACH_EMBEDDED_MESSAGE);
+			Node embedded = new Node(String.format("__substg1.0_%08X", PropertyTags.PidTagAttachDataObject), STORAGE);
+			addMessage(embedded, EMBEDDED_MESSAGE_PROPERTIES_HEADER_SIZE, String.format("Embedded message %d", depth), 1, 1, EMBEDDED_ATTACHMENT_SIZE, 0, depth - 1);
+			storage.add(new Node(String.format("__attach_version1.0_#%08X", nAttachments), STORAGE)
+				.add(new Node("__properties_version1.0", properties.bytes()))
+				.add(embedded));
+		}
+	}
+
+	/** Build the named properties mapping storage, with a single GUID. Even-numbered properties have numerical names,
+	*   and odd-numbered properties have string names.
+	*	@return	The named properties mapping storage entry
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/193c169b-0628-4392-aa51-83009be7d71f">MS-OXMSG Section 2.2.3: Named Property Mapping Storage</a>
+	*/
+	private Node namedPropertiesMapping()
+	{
+		final byte[] guids = new byte[16];
+		for (int i = 0; i < guids.length; ++i)
+			guids[i] = (byte)i;
+
+		java.nio.ByteBuffer entries = java.nio.ByteBuffer.allocate(8 * namedProperties).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		java.io.ByteArrayOutputStream strings = new java.io.ByteArrayOutputStream();
+		for (int i = 0; i < namedProperties; ++i){
+			final int indexAndKind = i << 16 | FIRST_GUID_STREAM_INDEX << 1;
+			if (i % 2 == 0){
+				entries.putInt(0x8100 + i).putInt(indexAndKind);
+			} else {
+				final byte[] name = utf16(String.format("Name%d", i));
+				entries.putInt(strings.size()).putInt(indexAndKind | 1);
+				java.nio.ByteBuffer s = java.nio.ByteBuffer.allocate(4 + (name.length + 3) / 4 * 4).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+				s.putInt(name.length).put(name);
+				strings.write(s.array(), 0, s.capacity());
+			}
+		}
+
+		return new Node("__nameid_version1.0", STORAGE)
+			.add(new Node("__substg1.0_00020102", guids))
+			.add(new Node("__substg1.0_00030102", entries.array()))
+			.add(new Node("__substg1.0_00040102", strings.toByteArray()));
+	}
+
+	/** Number the entries in directory order and add them to the list
+	*	@param	node	The entry to add, with its descendants
+	*	@param	entries	The list of entries
+	*/
+	private static void flatten(Node node, java.util.List<Node> entries)
+	{
+		node.id = entries.size();
+		entries.add(node);
+		for (java.util.Iterator<Node> iter = node.children.iterator(); iter.hasNext(); )
+			flatten(iter.next(), entries);
+	}
+
+	/** Link each storage's children into a balanced binary tree in sibling order
+	*	@param	entries	All the entries, in directory order
+	*/
+	private static void link(java.util.List<Node> entries)
+	{
+		for (java.util.Iterator<Node> iter = entries.iterator(); iter.hasNext(); ){
+			Node storage = iter.next();
+			if (storage.children.isEmpty())
+				continue;
+			java.util.ArrayList<Node> sorted = new java.util.ArrayList<Node>(storage.children);
+			java.util.Collections.sort(sorted, SIBLING_ORDER);
+			storage.childId = balance(sorted, 0, sorted.size());
+		}
+	}
+
+	/** Make a balanced binary tree from a range of sorted siblings
+	*	@param	sorted	The siblings, in sibling order
+	*	@param	from	The index of the first sibling in the range
+	*	@param	to	The index after the last sibling in the range
+	*	@return	The directory index of the root of the tree, or NOSTREAM if the range is empty
+	*/
+	private static int balance(java.util.List<Node> sorted, int from, int to)
+	{
+		if (from >= to)
+			return NOSTREAM;
+		final int mid = (from + to) >>> 1;
+		Node node = sorted.get(mid);
+		node.leftSiblingId = balance(sorted, from, mid);
+		node.rightSiblingId = balance(sorted, mid + 1, to);
+		return node.id;
+	}
+
+	/** Allocate a chain of consecutive sectors in a FAT or mini FAT
+	*	@param	fat	The allocation table
+	*	@param	first	The first sector of the chain
+	*	@param	length	The number of sectors in the chain
+	*	@return	The sector after the end of the chain
+	*/
+	private static int chain(int[] fat, int first, int length)
+	{
+		for (int i = 0; i < length; ++i)
+			fat[first + i] = i < length - 1 ? first + i + 1 : ENDOFCHAIN;
+		return first + length;
+	}
+
+	/** Lay out the file
+	*	@return	The layout of the file
+	*/
+	private Layout layout()
+	{
+		java.util.ArrayList<Node> entries = new java.util.ArrayList<Node>();
+		final Node root = root();
+		flatten(root, entries);
+		link(entries);
+		return new Layout(sectorSize, fragmentSize, root, entries);
+	}
+
+	/** Build the msg file in memory
+	*	@return	The contents of the msg file
+	*	@throws	IllegalArgumentException	The file is too large to hold in an array; use {@link #write} instead.
+	*/
+	byte[] build()
+	{
+		final Layout layout = layout();
+		if (layout.fileSize() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException(String.format("The file is %d bytes, too large to build in memory", layout.fileSize()));
+
+		final java.nio.ByteBuffer file = java.nio.ByteBuffer.allocate((int)layout.fileSize());
+		try {
+			write(layout, new java.nio.channels.WritableByteChannel(){
+				@Override
+				public int write(java.nio.ByteBuffer src)
+				{
+					final int n = src.remaining();
+					file.put(src);
+					return n;
+				}
+
+				@Override
+				public boolean isOpen()
+				{
+					return true;
+				}
+
+				@Override
+				public void close()
+				{
+				}
+			});
+		} catch (final java.io.IOException e) {
+			// Writing to the array cannot fail.
+			throw new java.io.UncheckedIOException(e);
+		}
+		return file.array();
+	}
+
+	/** Write the msg file to a channel, generating attachment data as it is written.
+	*	@param	channel	The channel to write the file to
+	*	@return	The number of bytes written
+	*	@throws	java.io.IOException	There was a problem writing to the channel.
+	*/
+	long write(java.nio.channels.WritableByteChannel channel)
+	throws
+		java.io.IOException
+	{
+		final Layout layout = layout();
+		write(layout, channel);
+		return layout.fileSize();
+	}
+
+	/** Write a file which has been laid out to a channel, in file order
+	*	@param	layout	The file layout
+	*	@param	channel	The channel to write the file to
+	*	@throws	java.io.IOException	There was a problem writing to the channel.
+	*/
+	private static void write(Layout layout, java.nio.channels.WritableByteChannel channel)
+	throws
+		java.io.IOException
+	{
+		final int sectorSize = layout.sectorSize;
+		writeFully(channel, header(layout));
+
+		byte[] chunk = new byte[CHUNK_SIZE];
+		final int totalStreamSectors = layout.streamStarts[layout.streams.size()];
+		for (int b = 0; b < layout.blockAt.length; ++b){
+			final int first = layout.blockAt[b] * layout.blockSize;
+			writeStreamSectors(layout, channel, first, Math.min(first + layout.blockSize, totalStreamSectors), chunk);
+		}
+
+		writeFully(channel, intsAsBytes(layout.miniFAT, 0, layout.miniFAT.length));
+
+		java.nio.ByteBuffer directory = java.nio.ByteBuffer.allocate(layout.directorySectors * sectorSize).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < directory.capacity() / DirectoryEntry.SIZE; ++i){
+			final int offset = i * DirectoryEntry.SIZE;
+			if (i < layout.entries.size()){
+				Node node = layout.entries.get(i);
+				writeDirectoryEntry(directory, offset, node, node.objectType == ROOT_STORAGE ? layout.miniStream.length : node.size);
+			} else {
+				directory.putInt(offset + 68, NOSTREAM).putInt(offset + 72, NOSTREAM).putInt(offset + 76, NOSTREAM);
+			}
+		}
+		writeFully(channel, directory);
+
+		final int entriesPerSector = sectorSize / 4;
+		for (int s = 0; s < layout.fatSectors; ++s)
+			writeFully(channel, intsAsBytes(layout.fat, s * entriesPerSector, entriesPerSector));
+
+		// Each DIFAT sector lists the FAT sectors not listed in the header or in earlier DIFAT sectors
+		int[] difat = new int[entriesPerSector];
+		for (int s = 0; s < layout.difatSectors; ++s){
+			java.util.Arrays.fill(difat, FREESECT);
+			for (int i = 0; i < entriesPerSector - 1; ++i){
+				final int fatSector = HEADER_DIFAT_ENTRIES + s * (entriesPerSector - 1) + i;
+				if (fatSector < layout.fatSectors)
+					difat[i] = layout.firstFATSector + fatSector;
+			}
+			difat[entriesPerSector - 1] = s < layout.difatSectors - 1 ? layout.firstDIFATSector + s + 1 : ENDOFCHAIN;
+			writeFully(channel, intsAsBytes(difat, 0, entriesPerSector));
+		}
+	}
+
+	/** Write a range of stream sectors, in allocation order, which may span several streams
+	*	@param	layout	The file layout
+	*	@param	channel	The channel to write to
+	*	@param	from	The allocation index of the first stream sector to write
+	*	@param	to	The allocation index after the last stream sector to write
+	*	@param	chunk	The buffer to generate stream contents in
+	*	@throws	java.io.IOException	There was a problem writing to the channel.
+	*/
+	private static void writeStreamSectors(Layout layout, java.nio.channels.WritableByteChannel channel, int from, int to, byte[] chunk)
+	throws
+		java.io.IOException
+	{
+		final int sectorSize = layout.sectorSize;
+		int s = java.util.Arrays.binarySearch(layout.streamStarts, from);
+		if (s < 0)
+			s = -s - 2;
+		for (int index = from; index < to; ++s){
+			Node node = layout.streams.get(s);
+			final int end = Math.min(to, layout.streamStarts[s + 1]);
+			long offset = (long)(index - layout.streamStarts[s]) * sectorSize;
+			final long stop = Math.min(node.size, (long)(end - layout.streamStarts[s]) * sectorSize);
+			while (offset < stop){
+				final int n = (int)Math.min(chunk.length, stop - offset);
+				node.get(offset, chunk, 0, n);
+				writeFully(channel, java.nio.ByteBuffer.wrap(chunk, 0, n));
+				offset += n;
+			}
+			if (end == layout.streamStarts[s + 1])
+				pad(channel, node.size, sectorSize);
+			index = end;
+		}
+	}
+
+	/** Write the whole of a buffer to a channel
+	*	@param	channel	The channel to write to
+	*	@param	bb	The buffer to write
+	*	@throws	java.io.IOException	There was a problem writing to the channel.
+	*/
+	private static void writeFully(java.nio.channels.WritableByteChannel channel, java.nio.ByteBuffer bb)
+	throws
+		java.io.IOException
+	{
+		while (bb.hasRemaining())
+			channel.write(bb);
+	}
+
+	/** Write zeros after a stream to fill its last sector
+	*	@param	channel	The channel to write to
+	*	@param	size	The size of the stream
+	*	@param	sectorSize	The sector size
+	*	@throws	java.io.IOException	There was a problem writing to the channel.
+	*/
+	private static void pad(java.nio.channels.WritableByteChannel channel, long size, int sectorSize)
+	throws
+		java.io.IOException
+	{
+		final int remainder = (int)(size % sectorSize);
+		if (remainder != 0)
+			writeFully(channel, java.nio.ByteBuffer.allocate(sectorSize - remainder));
+	}
+
+	/** Convert part of an array of ints to little-endian bytes
+	*	@param	values	The array
+	*	@param	offset	The index of the first value to convert
+	*	@param	length	The number of values to convert
+	*	@return	A buffer holding the values, ready to be written
+	*/
+	private static java.nio.ByteBuffer intsAsBytes(int[] values, int offset, int length)
+	{
+		java.nio.ByteBuffer bb = java.nio.ByteBuffer.allocate(4 * length).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		bb.asIntBuffer().put(values, offset, length);
+		return bb;
+	}
+
+	/** Write a directory entry
+	*	@param	directory	The directory contents
+	*	@param	offset	The offset of the entry in the directory
+	*	@param	node	The entry to write
+	*	@param	streamSize	The size of the entry's stream
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB 2.6 Compound File Directory Sectors</a>
+	*/
+	private static void writeDirectoryEntry(java.nio.ByteBuffer directory, int offset, Node node, long streamSize)
+	{
+		final byte[] name = utf16(node.name);
+		directory.position(offset);
+		directory.put(name);
+		directory.putShort(offset + 64, (short)(name.length + 2));
+		directory.put(offset + 66, node.objectType);
+		directory.put(offset + 67, (byte)1);
+		directory.putInt(offset + 68, node.leftSiblingId);
+		directory.putInt(offset + 72, node.rightSiblingId);
+		directory.putInt(offset + 76, node.childId);
+		directory.putInt(offset + 116, node.objectType == STORAGE ? 0 : node.startingSectorLocation);
+		directory.putLong(offset + 120, streamSize);
+		directory.position(0);
+	}
+
+	/** Create the header sector
+	*	@param	layout	The file layout
+	*	@return	The header sector, padded to the sector size, ready to be written
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/05060311-bfce-4b12-874d-71fd4ce63aea">MS-CFB Section 2.2: Compound File Header</a>
+	*/
+	private static java.nio.ByteBuffer header(Layout layout)
+	{
+		final boolean version4 = layout.sectorSize == 4096;
+		java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(layout.sectorSize).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		header.putLong(0, 0xe11ab1a1e011cfd0L);
+		header.putShort(24, (short)0x003e);
+		header.putShort(26, (short)(version4 ? 4 : 3));
+		header.putShort(28, (short)0xfffe);
+		header.putShort(30, (short)(version4 ? 12 : 9));
+		header.putShort(32, (short)6);
+		header.putInt(40, version4 ? layout.directorySectors : 0);
+		header.putInt(44, layout.fatSectors);
+		header.putInt(48, layout.firstDirectorySector);
+		header.putInt(56, MINI_STREAM_CUTOFF_SIZE);
+		header.putInt(60, layout.firstMiniFATSector);
+		header.putInt(64, layout.miniFATSectors);
+		header.putInt(68, layout.firstDIFATSector);
+		header.putInt(72, layout.difatSectors);
+		for (int i = 0; i < HEADER_DIFAT_ENTRIES; ++i)
+			header.putInt(76 + 4 * i, i < layout.fatSectors ? layout.firstFATSector + i : FREESECT);
+		return header;
+	}
+
+	/** Get the depth of the chain of embedded messages in a message
+	*	@param	msg	The message
+	*	@return	The number of messages embedded in a chain below the message
+	*/
+	private static int embeddingDepth(MSG msg)
+	{
+		int depth = 0;
+		for (java.util.Iterator<DirectoryEntryData> iter = msg.attachments(); iter.hasNext(); ){
+			MSG embedded = msg.getEmbeddedMessage(iter.next());
+			if (embedded != null)
+				depth = Math.max(depth, 1 + embeddingDepth(embedded));
+		}
+		return depth;
+	}
+
+	/** Write a synthetic msg file and check that it can be read.
+	*	@param	args	The options, followed by the output file name. The options are -sector-size, -recipients,
+	*			-attachments, -attachment-size, -named-properties, -body-size, -embedding-depth, and
+	*			-fragment-size, each followed by its value.
+	*/
+	@SuppressWarnings("PMD.DoNotCallSystemExit")
+	public static void main(String[] args)
+	{
+		SyntheticMSG generator = DEFAULT;
+		int i = 0;
+		try {
+			for (; i < args.length - 1; i += 2){
+				if ("-sector-size".equals(args[i]))
+					generator = generator.withSectorSize(Integer.parseInt(args[i+1]));
+				else if ("-recipients".equals(args[i]))
+					generator = generator.withRecipients(Integer.parseInt(args[i+1]));
+				else if ("-attachments".equals(args[i]))
+					generator = generator.withAttachments(Integer.parseInt(args[i+1]));
+				else if ("-attachment-size".equals(args[i]))
+					generator = generator.withAttachmentSize(Long.parseLong(args[i+1]));
+				else if ("-named-properties".equals(args[i]))
+					generator = generator.withNamedProperties(Integer.parseInt(args[i+1]));
+				else if ("-body-size".equals(args[i]))
+					generator = generator.withBodySize(Integer.parseInt(args[i+1]));
+				else if ("-embedding-depth".equals(args[i]))
+					generator = generator.withEmbeddingDepth(Integer.parseInt(args[i+1]));
+				else if ("-fragment-size".equals(args[i]))
+					generator = generator.withFragmentSize(Integer.parseInt(args[i+1]));
+				else
+					break;
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+		if (i != args.length - 1) {
+			System.out.println("use:\n\tjava io.github.jmcleodfoss.msg.SyntheticMSG [-sector-size 512|4096] [-recipients n] [-attachments n] [-attachment-size n] [-named-properties n] [-body-size n] [-embedding-depth n] [-fragment-size n] msg-file");
+			System.exit(1);
+		}
+
+		final String fn = args[i];
+		try {
+			java.nio.channels.FileChannel fc = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(fn),
+				java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
+			long size;
+			try {
+				size = generator.write(fc);
+			} finally {
+				fc.close();
+			}
+			System.out.printf("%s: %d bytes%n", fn, size);
+
+			MSG msg = new MSG(fn, OpenOptions.DEFAULT.withStrict(true));
+			try {
+				System.out.printf("%s%nEmbedding depth: %d%n", msg.summary(), embeddingDepth(msg));
+			} finally {
+				msg.close();
+			}
+		} catch (final java.io.IOException e) {
+			System.out.printf("There was a problem writing or reading file %s: %s%n", fn, e);
+		} catch (final IllegalArgumentException e) {
+			System.out.printf("File %s could not be written or read: %s%n", fn, e.getMessage());
+		} catch (final NotCFBFileException e) {
+			e.printStackTrace(System.out);
+		} catch (final UnknownStorageTypeException e) {
+			e.printStackTrace(System.out);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package io.github.jmcleodfoss.msg;
+
+/** Benchmarks opening and closing files one after another on the same thread, with and without table reuse. Run with
+*   {@code -prof gc} to compare the allocation per file (gc.alloc.rate.norm) as well as the time.
+*	@see OpenOptions#withTableReuse
+*/
+@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Thread)
+@org.openjdk.jmh.annotations.Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Fork(1)
+public class TableReuseBenchmark
+{
+	/** Whether the tables are reused */
+	@org.openjdk.jmh.annotations.Param({"false", "true"})
+	public boolean reuse;
+
+	/** The size of the attachment data in bytes, which determines the size of the FAT */
+	@org.openjdk.jmh.annotations.Param({"20000", "16777216"})
+	public int attachmentSize;
+
+	/** The synthetic msg file */
+	private byte[] data;
+
+	/** The options for the mode being measured */
+	private OpenOptions options;
+
+	/** Build the file. */
+	@org.openjdk.jmh.annotations.Setup
+	public void setup()
+	{
+		data = SyntheticMSG.DEFAULT.withAttachments(1).withAttachmentSize(attachmentSize).build();
+		options = OpenOptions.DEFAULT.withTableReuse(reuse);
+	}
+
+	/** Open the file and close it.
+	*	@return	The number of attachments, so the file is not optimized away
+	*	@throws	Exception	The file could not be read.
+	*/
+	@org.openjdk.jmh.annotations.Benchmark
+	public int openAndClose()
+	throws
+		Exception
+	{
+		MSG msg = new MSG(data, options);
+		try {
+			int n = 0;
+			java.util.Iterator<DirectoryEntryData> iter = msg.attachments();
+			while (iter.hasNext()){
+				iter.next();
+				++n;
+			}
+			return n;
+		} finally {
+			msg.close();
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package io.github.jmcleodfoss.msg;
+
+/** Open and process many msg files in parallel. Each file is opened on the given executor, passed to the caller's
+*   handler, and always closed afterwards. A file which cannot be opened, or for which the handler throws an
+*   exception, is reported in the result without stopping the rest of the batch. The number of files open at once is
+*   bounded; once the limit is reached, the thread submitting the files waits for one to finish before opening another.
+*   <p>
+*   The executor is supplied by the caller and is not shut down by this class. The default is the common fork-join
+*   pool; on Java 21 or later, an executor from {@code Executors.newVirtualThreadPerTaskExecutor()} may be used to run
+*   each file on its own virtual thread.
+*/
+public class BatchProcessor
+{
+	/** The handler called for each file which was opened successfully. */
+	public interface Handler
+	{
+		/** Process a file. The MSG object is closed when this returns, and so must not be kept.
+		*	@param	path	The file's path
+		*	@param	msg	The opened file
+		*	@throws	Exception	Any exception thrown is reported as a failure for this file.
+		*/
+		void process(java.nio.file.Path path, MSG msg)
+		throws
+			Exception;
+	}
+
+	/** A file which could not be processed */
+	public static final class Failure
+	{
+		/** The file's path */
+		public final java.nio.file.Path path;
+
+		/** The exception thrown while opening, processing, or closing the file */
+		public final Exception exception;
+
+		/** Create a description of a file which could not be processed
+		*	@param	path	The file's path
+		*	@param	exception	The exception which was thrown
+		*/
+		private Failure(java.nio.file.Path path, Exception exception)
+		{
+			this.path = path;
+			this.exception = exception;
+		}
+
+		/** Create a String representation of the failure
+		*	@return	A String showing the file and the exception
+		*/
+		@Override
+		public String toString()
+		{
+			return String.format("%s: %s", path, exception);
+		}
+	}
+
+	/** The outcome of a batch */
+	public static final class Result
+	{
+		/** The number of files processed successfully */
+		public final int succeeded;
+
+		/** The files which could not be processed, in the order in which they failed */
+		public final java.util.List<Failure> failures;
+
+		/** Create the outcome of a batch
+		*	@param	succeeded	The number of files processed successfully
+		*	@param	failures	The files which could not be processed
+		*/
+		private Result(int succeeded, java.util.List<Failure> failures)
+		{
+			this.succeeded = succeeded;
+			this.failures = java.util.Collections.unmodifiableList(new java.util.ArrayList<Failure>(failures));
+		}
+	}
+
+	/** The executor the files are processed on */
+	private final java.util.concurrent.Executor executor;
+
+	/** The maximum number of files open at once */
+	private final int maxInFlight;
+
+	/** The options used to open each file */
+	private final OpenOptions options;
+
+	/** Create a batch processor using the common fork-join pool and the default open options.
+	*	@param	maxInFlight	The maximum number of files open at once
+	*/
+	public BatchProcessor(int maxInFlight)
+	{
+		this(java.util.concurrent.ForkJoinPool.commonPool(), maxInFlight, OpenOptions.DEFAULT);
+	}
+
+	/** Create a batch processor
+	*	@param	executor	The executor to process the files on
+	*	@param	maxInFlight	The maximum number of files open at once
+	*	@param	options	The options used to open each file
+	*	@throws	IllegalArgumentException	maxInFlight is less than 1
+	*/
+	public BatchProcessor(java.util.concurrent.Executor executor, int maxInFlight, OpenOptions options)
+	{
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException(String.format("The maximum number of files in flight must be positive, not %d", maxInFlight));
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.options = options;
+	}
+
+	/** The state of a batch: the bound on the number of files open at once, and the outcome so far */
+	private final class Batch
+	{
+		/** The handler to call for each file */
+		private final Handler handler;
+
+		/** The permits for the files which may still be opened */
+		private final java.util.concurrent.Semaphore inFlight;
+
+		/** The number of files processed successfully */
+		private final java.util.concurrent.atomic.AtomicInteger succeeded;
+
+		/** The files which could not be processed */
+		private final java.util.List<Failure> failures;
+
+		/** Create an empty batch
+		*	@param	handler	The handler to call for each file
+		*/
+		private Batch(Handler handler)
+		{
+			this.handler = handler;
+			inFlight = new java.util.concurrent.Semaphore(maxInFlight);
+			succeeded = new java.util.concurrent.atomic.AtomicInteger();
+			failures = java.util.Collections.synchronizedList(new java.util.ArrayList<Failure>());
+		}
+
+		/** Submit a file to the executor, first waiting until fewer than the maximum number of files are open.
+		*	@param	path	The file to process
+		*	@throws	InterruptedException	The thread was interrupted while waiting; the file was not submitted.
+		*/
+		private void submit(final java.nio.file.Path path)
+		throws
+			InterruptedException
+		{
+			inFlight.acquire();
+			try {
+				executor.execute(new Runnable(){
+					@Override
+					public void run()
+					{
+						try {
+							Exception e = processFile(path, handler);
+							if (e == null)
+								succeeded.incrementAndGet();
+							else
+								fail(path, e);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			} catch (final java.util.concurrent.RejectedExecutionException e) {
+				inFlight.release();
+				fail(path, e);
+			}
+		}
+
+		/** Record a file which could not be processed
+		*	@param	path	The file's path
+		*	@param	exception	The exception which was thrown
+		*/
+		private void fail(java.nio.file.Path path, Exception exception)
+		{
+			failures.add(new Failure(path, exception));
+		}
+
+		/** Wait for every file submitted to be processed. This is not interrupted, so no handler is still running once
+		*   the batch has ended, however it ended.
+		*/
+		private void finish()
+		{
+			inFlight.acquireUninterruptibly(maxInFlight);
+			inFlight.release(maxInFlight);
+		}
+
+		/** Get the outcome of the batch
+		*	@return	The number of files processed and the files which could not be processed
+		*/
+		private Result result()
+		{
+			return new Result(succeeded.get(), failures);
+		}
+	}
+
+	/** Process every file with a .msg extension in a directory and its subdirectories. A subdirectory which cannot be
+	*   read is reported as a failure for its path, and the rest of the directory is still processed.
+	*	@param	directory	The directory to search for msg files
+	*	@param	handler	The handler to call for each file
+	*	@return	The number of files processed and the files which could not be processed
+	*	@throws	java.io.IOException	There was a problem reading the directory itself. Files already submitted are
+	*					processed before this is thrown.
+	*	@throws	InterruptedException	The thread was interrupted while waiting for files to be processed. No more
+	*					files are submitted, and those already submitted are processed before this is
+	*					thrown.
+	*/
+	public Result process(final java.nio.file.Path directory, Handler handler)
+	throws
+		java.io.IOException,
+		InterruptedException
+	{
+		final Batch batch = new Batch(handler);
+		final InterruptedException[] interrupted = new InterruptedException[1];
+		try {
+			java.nio.file.Files.walkFileTree(directory, new java.nio.file.SimpleFileVisitor<java.nio.file.Path>(){
+				@Override
+				public java.nio.file.FileVisitResult visitFile(java.nio.file.Path file, java.nio.file.attribute.BasicFileAttributes attributes)
+				{
+					if (!java.nio.file.Files.isRegularFile(file) || !file.getFileName().toString().toLowerCase(java.util.Locale.ROOT).endsWith(".msg"))
+						return java.nio.file.FileVisitResult.CONTINUE;
+
+					try {
+						batch.submit(file);
+					} catch (final InterruptedException e) {
+						interrupted[0] = e;
+						return java.nio.file.FileVisitResult.TERMINATE;
+					}
+					return java.nio.file.FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public java.nio.file.FileVisitResult visitFileFailed(java.nio.file.Path file, java.io.IOException e)
+				throws
+					java.io.IOException
+				{
+					if (file.equals(directory))
+						throw e;
+					batch.fail(file, e);
+					return java.nio.file.FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public java.nio.file.FileVisitResult postVisitDirectory(java.nio.file.Path dir, java.io.IOException e)
+				{
+					// The directory could be opened but not read to the end
+					if (e != null)
+						batch.fail(dir, e);
+					return java.nio.file.FileVisitResult.CONTINUE;
+				}
+			});
+		} finally {
+			batch.finish();
+		}
+
+		if (interrupted[0] != null)
+			throw interrupted[0];
+		return batch.result();
+	}
+
+	/** Process each file in a stream of paths. The stream is consumed on the calling thread, which waits whenever the
+	*   maximum number of files are open, and returns when every file has been processed.
+	*	@param	paths	The files to process
+	*	@param	handler	The handler to call for each file
+	*	@return	The number of files processed and the files which could not be processed
+	*	@throws	InterruptedException	The thread was interrupted while waiting for files to be processed. No more
+	*					files are submitted, and those already submitted are processed before this is
+	*					thrown.
+	*/
+	public Result process(java.util.stream.Stream<java.nio.file.Path> paths, Handler handler)
+	throws
+		InterruptedException
+	{
+		Batch batch = new Batch(handler);
+		try {
+			for (java.util.Iterator<java.nio.file.Path> iter = paths.iterator(); iter.hasNext(); )
+				batch.submit(iter.next());
+		} finally {
+			// Wait for the files still being processed, even if the stream failed
+			batch.finish();
+		}
+		return batch.result();
+	}
+
+	/** Open, process, and close a single file
+	*	@param	path	The file to process
+	*	@param	handler	The handler to call for the file
+	*	@return	The first exception thrown while opening, processing, or closing the file, or null if there was none
+	*/
+	@SuppressWarnings("PMD.AvoidCatchingGenericException") // Any failure is reported for this file alone
+	private Exception processFile(java.nio.file.Path path, Handler handler)
+	{
+		MSG msg;
+		try {
+			msg = new MSG(path.toString(), options);
+		} catch (final Exception e) {
+			return e;
+		}
+
+		Exception failure = null;
+		try {
+			handler.process(path, msg);
+		} catch (final Exception e) {
+			failure = e;
+		} finally {
+			try {
+				msg.close();
+			} catch (final java.io.IOException e) {
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		return failure;
+	}
+
+	/** Test this class by summarizing every msg file in the given directories.
+	*	@param	args	The directories to process
+	*/
+	@SuppressWarnings("PMD.DoNotCallSystemExit")
+	public static void main(String[] args)
+	{
+		if (args.length == 0) {
+			System.out.println("use:\n\tjava io.github.jmcleodfoss.msg.BatchProcessor directory [directory ...]");
+			System.exit(1);
+		}
+
+		BatchProcessor processor = new BatchProcessor(java.util.concurrent.ForkJoinPool.commonPool(), 16, OpenOptions.DEFAULT.withLazyDirectory(true).withTableReuse(true));
+		for (String a: args) {
+			try {
+				Result result = processor.process(java.nio.file.Paths.get(a), new Handler(){
+					@Override
+					public void process(java.nio.file.Path path, MSG msg)
+					{
+						MessageSummary summary = msg.summary();
+						System.out.printf("%s: %s, %d recipients, %d attachments%n", path, summary.subject, summary.recipientCount, summary.attachments.size());
+					}
+				});
+				System.out.printf("%s: %d files processed, %d failures%n", a, result.succeeded, result.failures.size());
+				for (java.util.Iterator<Failure> iter = result.failures.iterator(); iter.hasNext(); )
+					System.out.println(iter.next());
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem reading directory %s%n", a);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+}
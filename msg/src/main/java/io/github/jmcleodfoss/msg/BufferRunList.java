@@ -0,0 +1,128 @@
+package io.github.jmcleodfoss.msg;
+
+/** Build a list of read-only views of the file for a sector or mini sector chain, merging runs of sectors which are
+*   contiguous in the file into a single view so the contents of a stream can be written out with a single gathering
+*   write, and, for a data source whose views are taken directly from the file, without copying them into the heap. A
+*   run which crosses the end of a region of the data source, or which is too large for a single buffer, is split into
+*   several views.
+*   <p>
+*   Each view is taken from the data source only when the list element is retrieved, so a stream read in order from a
+*   data source whose views are copies is never held in memory all at once.
+*	@see DataSource#regionEnd
+*/
+class BufferRunList {
+
+	/** The file the views are taken from */
+	private final DataSource dataSource;
+
+	/** The file offset of each view found so far */
+	private long[] starts;
+
+	/** The number of bytes in each view found so far */
+	private int[] lengths;
+
+	/** The number of views found so far */
+	private int count;
+
+	/** The file offset of the start of the current run */
+	private long runStart;
+
+	/** The number of bytes in the current run */
+	private long runLength;
+
+	/** Create an empty list of views of the given file
+	*	@param	dataSource	The file to take views of
+	*/
+	BufferRunList(DataSource dataSource)
+	{
+		this.dataSource = dataSource;
+		starts = new long[4];
+		lengths = new int[4];
+	}
+
+	/** Add the next piece of the stream, extending the current run if it immediately follows it in the file.
+	*	@param	offset	The file offset of the piece
+	*	@param	length	The number of bytes in the piece
+	*/
+	void add(long offset, long length)
+	{
+		if (runLength > 0 && offset == runStart + runLength){
+			runLength += length;
+			return;
+		}
+		flush();
+		runStart = offset;
+		runLength = length;
+	}
+
+	/** Record the views for the current run, if any */
+	private void flush()
+	{
+		while (runLength > 0){
+			int length = (int)Math.min(Math.min(runLength, Integer.MAX_VALUE), dataSource.regionEnd(runStart) - runStart);
+			if (count == starts.length){
+				starts = java.util.Arrays.copyOf(starts, 2 * count);
+				lengths = java.util.Arrays.copyOf(lengths, 2 * count);
+			}
+			starts[count] = runStart;
+			lengths[count] = length;
+			++count;
+			runStart += length;
+			runLength -= length;
+		}
+	}
+
+	/** Get the views of the file
+	*	@return	An unmodifiable list of read-only views, in stream order
+	*/
+	java.util.List<java.nio.ByteBuffer> buffers()
+	{
+		flush();
+		return new Views(dataSource, java.util.Arrays.copyOf(starts, count), java.util.Arrays.copyOf(lengths, count));
+	}
+
+	/** A list of views of the file, each taken from the data source when it is retrieved */
+	private static final class Views extends java.util.AbstractList<java.nio.ByteBuffer> implements java.util.RandomAccess {
+
+		/** The file the views are taken from */
+		private final DataSource dataSource;
+
+		/** The file offset of each view */
+		private final long[] starts;
+
+		/** The number of bytes in each view */
+		private final int[] lengths;
+
+		/** Create a list of views
+		*	@param	dataSource	The file to take views of
+		*	@param	starts	The file offset of each view
+		*	@param	lengths	The number of bytes in each view
+		*/
+		Views(DataSource dataSource, long[] starts, int[] lengths)
+		{
+			super();
+			this.dataSource = dataSource;
+			this.starts = starts;
+			this.lengths = lengths;
+		}
+
+		/** Get a view
+		*	@param	index	The index of the view to get
+		*	@return	A read-only view of the file
+		*/
+		@Override
+		public java.nio.ByteBuffer get(int index)
+		{
+			return dataSource.view(starts[index], lengths[index]).asReadOnlyBuffer();
+		}
+
+		/** Get the number of views
+		*	@return	The number of views in the list
+		*/
+		@Override
+		public int size()
+		{
+			return starts.length;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package io.github.jmcleodfoss.msg;
+
+/** A ReadableByteChannel over a list of ByteBuffers, used to read a stream's contents directly from the file without
+*   first copying the whole stream into an array.
+*	@see MSG#getFileChannel
+*/
+class ByteBufferListChannel implements java.nio.channels.ReadableByteChannel {
+
+	/** The buffers holding the channel contents, in order */
+	private final java.util.Iterator<java.nio.ByteBuffer> buffers;
+
+	/** The file the buffers were taken from, checked before each read since the buffers must not be used once it is closed */
+	private final DataSource dataSource;
+
+	/** The buffer currently being read from */
+	private java.nio.ByteBuffer current;
+
+	/** Whether the channel is still open */
+	private boolean open;
+
+	/** Create a channel over the given buffers. Reading from the channel advances the buffers' positions.
+	*	@param	buffers	The buffers holding the data to read
+	*	@param	dataSource	The file the buffers were taken from
+	*/
+	ByteBufferListChannel(java.util.List<java.nio.ByteBuffer> buffers, DataSource dataSource)
+	{
+		this.buffers = buffers.iterator();
+		this.dataSource = dataSource;
+		current = null;
+		open = true;
+	}
+
+	/** Close the channel. */
+	@Override
+	public void close()
+	{
+		open = false;
+		current = null;
+	}
+
+	/** Is the channel open?
+	*	@return	true if the channel has not been closed, false otherwise
+	*/
+	@Override
+	public boolean isOpen()
+	{
+		return open;
+	}
+
+	/** Read bytes from the channel into the given buffer.
+	*	@param	dst	The buffer to read bytes into
+	*	@return	The number of bytes read, or -1 if the end of the channel has been reached
+	*	@throws	java.nio.channels.ClosedChannelException	The channel, or the file it reads from, has been closed
+	*/
+	@Override
+	public int read(java.nio.ByteBuffer dst)
+	throws
+		java.nio.channels.ClosedChannelException
+	{
+		if (!open || !dataSource.isOpen())
+			throw new java.nio.channels.ClosedChannelException();
+
+		int nRead = 0;
+		while (dst.hasRemaining()){
+			while (current == null || !current.hasRemaining()){
+				if (!buffers.hasNext())
+					return nRead == 0 ? -1 : nRead;
+				current = buffers.next();
+			}
+
+			int n = Math.min(dst.remaining(), current.remaining());
+			dst.put(dst.position(), current, current.position(), n);
+			dst.position(dst.position() + n);
+			current.position(current.position() + n);
+			nRead += n;
+		}
+		return nRead;
+	}
+}
@@ -0,0 +1,167 @@
+package io.github.jmcleodfoss.msg;
+
+/** Check the sector chains in a FAT or mini FAT. This is done once, when the file is opened, in time proportional to the
+*   number of sectors, so that following any chain afterwards is guaranteed to end within the file.
+*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/9d33df18-7aee-4065-9121-4eabe41c29d4">MS-CFB Section 2.1: Compound Sector Numbers and Types</a>
+*/
+class ChainValidator {
+
+	/** The table being checked; in lenient mode, bad links are replaced in place. */
+	private final int[] table;
+
+	/** The number of table entries which refer to sectors in the file; links to sectors at or beyond this are invalid. */
+	private final int nSectors;
+
+	/** The name of the table, for error messages. */
+	private final String tableName;
+
+	/** Whether to throw an exception on the first problem found, rather than repairing it. */
+	private final boolean strict;
+
+	/** The context to take the scratch tables used for the checks from */
+	private final ParseContext context;
+
+	/** Create a validator for the given table.
+	*	@param	table	The FAT or mini FAT to check
+	*	@param	nSectors	The number of sectors in the file (or mini stream) described by the table
+	*	@param	tableName	The name of the table, for error messages
+	*	@param	strict	Whether to throw an exception on the first problem found, rather than repairing it
+	*	@param	context	The context to take the scratch tables used for the checks from
+	*/
+	private ChainValidator(int[] table, int nSectors, String tableName, boolean strict, ParseContext context)
+	{
+		this.table = table;
+		this.nSectors = Math.min(nSectors, table.length);
+		this.tableName = tableName;
+		this.strict = strict;
+		this.context = context;
+	}
+
+	/** Is the given table entry part of a chain (either a link to another sector or the end of a chain)?
+	*	@param	value	The table entry
+	*	@return	true if the entry is part of a chain, false if it is free, a FAT or DIFAT sector, or an invalid value
+	*/
+	static boolean isChained(int value)
+	{
+		return value >= 0 || value == Sector.ENDOFCHAIN;
+	}
+
+	/** Is the given sector a valid start for a chain?
+	*	@param	table	The FAT or mini FAT the chain is in
+	*	@param	nSectors	The number of sectors described by the table
+	*	@param	sector	The first sector of the chain
+	*	@return	true if the sector is in range and part of a chain, or is ENDOFCHAIN (an empty chain).
+	*/
+	static boolean isValidChainStart(int[] table, int nSectors, int sector)
+	{
+		if (sector == Sector.ENDOFCHAIN)
+			return true;
+		return sector >= 0 && sector < nSectors && sector < table.length && isChained(table[sector]);
+	}
+
+	/** Report a problem, either by throwing an exception (strict mode) or by replacing the given entry (lenient mode).
+	*	@param	sector	The entry with the problem
+	*	@param	replacement	The value to replace the entry with in lenient mode
+	*	@param	description	The description of the problem
+	*	@throws	CorruptFileException	Strict mode is in effect.
+	*/
+	private void problem(int sector, int replacement, String description)
+	throws
+		CorruptFileException
+	{
+		if (strict)
+			throw new CorruptFileException(String.format("%s sector %d %s", tableName, sector, description));
+		table[sector] = replacement;
+	}
+
+	/** Check the links in the table. Every link must be to a sector in range which is itself part of a chain, and no
+	*   sector may be linked to twice. Entries at or past nSectors are not examined.
+	*	@throws	CorruptFileException	A problem was found and strict mode is in effect.
+	*/
+	private void checkLinks()
+	throws
+		CorruptFileException
+	{
+		for (int i = 0; i < nSectors; ++i){
+			if (table[i] < Sector.DIFSECT)
+				problem(i, Sector.FREESECT, String.format("has invalid value 0x%08x", table[i]));
+		}
+
+		boolean[] linkedTo = context.booleans(nSectors);
+		java.util.Arrays.fill(linkedTo, 0, nSectors, false);
+		try {
+			for (int i = 0; i < nSectors; ++i){
+				final int next = table[i];
+				if (next < 0)
+					continue;
+
+				if (next >= nSectors)
+					problem(i, Sector.ENDOFCHAIN, String.format("links to sector %d, which is outside the file", next));
+				else if (!isChained(table[next]))
+					problem(i, Sector.ENDOFCHAIN, String.format("links to sector %d, which is not in use (%s)", next, Sector.getDescription(table[next])));
+				else if (linkedTo[next] && strict)
+					problem(i, next, String.format("links to sector %d, which is already in another chain", next));
+				else
+					linkedTo[next] = true;
+			}
+		} finally {
+			context.recycle(linkedTo);
+		}
+	}
+
+	/** Check for chains which loop back on themselves. Each sector is visited at most twice. Once checkLinks has run,
+	*   all links are in range, so the only way a chain can fail to end is by looping.
+	*	@throws	CorruptFileException	A loop was found and strict mode is in effect.
+	*/
+	private void checkLoops()
+	throws
+		CorruptFileException
+	{
+		// 0: not yet visited; -1: known to reach the end of a chain; n > 0: visited during walk n
+		int[] state = context.ints(nSectors);
+		java.util.Arrays.fill(state, 0, nSectors, 0);
+		try {
+			int walk = 0;
+			for (int i = 0; i < nSectors; ++i){
+				if (state[i] != 0 || !isChained(table[i]))
+					continue;
+
+				++walk;
+				int sector = i;
+				while (true){
+					state[sector] = walk;
+					final int next = table[sector];
+					if (next < 0 || state[next] == -1)
+						break;
+					if (state[next] == walk){
+						problem(sector, Sector.ENDOFCHAIN, String.format("links back to sector %d, making a loop", next));
+						break;
+					}
+					sector = next;
+				}
+
+				for (sector = i; sector >= 0 && state[sector] == walk; sector = table[sector])
+					state[sector] = -1;
+			}
+		} finally {
+			context.recycle(state);
+		}
+	}
+
+	/** Check the chains in the given table.
+	*	@param	table	The FAT or mini FAT to check; in lenient mode, bad links are replaced with ENDOFCHAIN
+	*	@param	nSectors	The number of sectors in the file (or mini stream) described by the table
+	*	@param	tableName	The name of the table, for error messages
+	*	@param	strict	Whether to throw an exception on the first problem found, rather than repairing it
+	*	@param	context	The context to take the scratch tables used for the checks from
+	*	@throws	CorruptFileException	A problem was found and strict mode is in effect.
+	*/
+	static void validate(int[] table, int nSectors, String tableName, boolean strict, ParseContext context)
+	throws
+		CorruptFileException
+	{
+		ChainValidator validator = new ChainValidator(table, nSectors, tableName, strict, context);
+		validator.checkLinks();
+		validator.checkLoops();
+	}
+}
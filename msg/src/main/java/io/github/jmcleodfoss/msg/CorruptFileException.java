@@ -0,0 +1,20 @@
+package io.github.jmcleodfoss.msg;
+
+/** The CorruptFileException is thrown when a file has a valid CFB signature but its internal structures are inconsistent, for
+*   example a sector chain which loops back on itself or refers to a sector past the end of the file.
+*	@see OpenOptions#withStrict
+*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/9d33df18-7aee-4065-9121-4eabe41c29d4">MS-CFB Section 2.1: Compound Sector Numbers and Types</a>
+*/
+public class CorruptFileException extends NotCFBFileException {
+
+	/**	The serialVersionUID is required because the base class is serializable. */
+	private static final long serialVersionUID = 1L;
+
+	/**	Create a CorruptFileException.
+	*	@param	message	A description of the problem found
+	*/
+	CorruptFileException(String message)
+	{
+		super(message);
+	}
+}
@@ -24,7 +24,7 @@ class DIFAT {
 	private int[] difat;
 
 	/** Iterator for DIFAT index entries */
-	private class Iterator implements java.util.Iterator<Integer> {
+	private class Iterator implements java.util.PrimitiveIterator.OfInt {
 
 		/** The next entry to be returned. */
 		private int entry;
@@ -49,7 +49,7 @@ class DIFAT {
 		*	@return	The next DIFAT index entry
 		*/
 		@Override
-		public Integer next()
+		public int nextInt()
 		{
 			if (entry >= numEntries)
 				throw new java.util.NoSuchElementException();
@@ -58,44 +58,45 @@ class DIFAT {
 	}
 
 	/** Create the list of DIFAT entries
-	*   @param	mbb	The data stream
-	*   @param	header	The CFB header structur
+	*   @param	dataSource	The data stream
+	*   @param	header	The CFB header structure
+	*	@param	options	The options controlling whether the table is reused
+	*	@throws	CorruptFileException	The DIFAT sector chain is shorter than the header says, or leads outside the file.
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/0afa4e43-b18f-432a-9917-4f276eca7a73">MS-CFB Section 2.5: Compound File DIFAT Sectors</a>
 	*/
-	DIFAT(java.nio.MappedByteBuffer mbb, Header header)
+	DIFAT(DataSource dataSource, Header header, OpenOptions options)
+	throws
+		CorruptFileException
 	{
-		// First index in a DIFAT sector is the DIFAT signature
-		// and the last is either the index to the next sector, or the empty sector flag, 0xffffffff
-		final int entriesPerSector = header.intsPerSector() - 2;
+		// Each DIFAT sector holds FAT sector locations in all but its last entry, which is the index to the next DIFAT
+		// sector or ENDOFCHAIN. Since the number of DIFAT sectors is no larger than the number of sectors in the file,
+		// following the chain for that many sectors is bounded even if the chain loops.
+		final int entriesPerSector = header.intsPerSector() - 1;
 		numEntries = HEADER_DIFAT_ENTRIES + header.numberOfDIFATEntries();
-		difat = new int[numEntries];
-
-		mbb.rewind();
-		java.nio.IntBuffer al = mbb.asIntBuffer();
-
-		boolean fHeader = true;
-		int nToRead;
-		int currentSector = 0;
-		int destIndex = 0;
-
-		do {
-			if (fHeader){
-				nToRead = HEADER_DIFAT_ENTRIES;
-				al.position(HEADER_DIFAT_OFFSET);
-			} else {
-				nToRead = entriesPerSector;
-				al.position(currentSector*header.intsPerSector());
-				final int sectorSignature = al.get();
-				if (sectorSignature != Sector.DIFSECT){
-					System.out.printf("Invalid sector signature for DIFAT: found 0x%08x expected 0x%08x%n", sectorSignature, Sector.DIFSECT);
-				}
-			}
-
-			al.get(difat, destIndex, nToRead);
-
-			currentSector = fHeader ? header.firstDIFATSectorLocation : al.get();
+		difat = ParseContext.get(options.reuseTables).ints(numEntries);
+
+		java.nio.IntBuffer al = dataSource.view(0, (HEADER_DIFAT_OFFSET + HEADER_DIFAT_ENTRIES) * DataType.SIZEOF_INT).asIntBuffer();
+		al.position(HEADER_DIFAT_OFFSET);
+		al.get(difat, 0, HEADER_DIFAT_ENTRIES);
+
+		int currentSector = header.firstDIFATSectorLocation;
+		for (int destIndex = HEADER_DIFAT_ENTRIES; destIndex < numEntries; destIndex += entriesPerSector){
+			if (!header.isSectorInFile(currentSector))
+				throw new CorruptFileException(String.format("DIFAT sector %d of %d is %s, which is not in the file", (destIndex - HEADER_DIFAT_ENTRIES) / entriesPerSector, header.numberOfDIFATEntries() / entriesPerSector, Sector.getDescription(currentSector)));
+			al = dataSource.view(header.offset(currentSector), header.bytesInSector(currentSector)).asIntBuffer();
+			final int n = Math.min(entriesPerSector, al.remaining());
+			al.get(difat, destIndex, n);
+			java.util.Arrays.fill(difat, destIndex + n, destIndex + entriesPerSector, Sector.FREESECT);
+			currentSector = al.hasRemaining() ? al.get() : Sector.ENDOFCHAIN;
+		}
+	}
 
-			destIndex += entriesPerSector;
-		} while (currentSector != Sector.ENDOFCHAIN);
+	/** Return the table to a context for reuse, once the file is closed.
+	*	@param	context	The context to return the table to
+	*/
+	void recycle(ParseContext context)
+	{
+		context.recycle(difat);
 	}
 
 	/** Make DIFAT data available to client applications
@@ -115,11 +116,19 @@ class DIFAT {
 	/** Get an iterator for this DIFAT
 	*	@return	An iterator through the DIFAT entries.
 	*/
-	java.util.Iterator<Integer> iterator()
+	java.util.PrimitiveIterator.OfInt iterator()
 	{
 		return new Iterator();
 	}
 
+	/** Get a stream of the DIFAT entries
+	*	@return	An IntStream of the DIFAT entries, in order
+	*/
+	java.util.stream.IntStream stream()
+	{
+		return java.util.Arrays.stream(difat, 0, numEntries);
+	}
+
 	/**	Test this class by reading in the DIFAT index table and printing it out.
 	*	@param	args	The msg file(s) to print the DIFAT index table of
 	*/
@@ -133,18 +142,13 @@ class DIFAT {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					java.util.Iterator<Integer> iterator = difat.iterator();
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					java.util.PrimitiveIterator.OfInt iterator = difat.iterator();
 					while (iterator.hasNext()) {
-						System.out.println(Sector.getDescription(iterator.next()));
+						System.out.println(Sector.getDescription(iterator.nextInt()));
 					}
 
 					System.out.println();
@@ -161,13 +165,15 @@ class DIFAT {
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
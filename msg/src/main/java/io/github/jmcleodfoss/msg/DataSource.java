@@ -0,0 +1,944 @@
+package io.github.jmcleodfoss.msg;
+
+/** The DataSource class is the shared read abstraction used to retrieve the contents of a CFB file. The {@link Header},
+*   {@link DIFAT}, {@link FAT}, {@link Directory}, {@link MiniFAT}, and {@link NamedProperties} classes read only through
+*   it, so the file may be memory-mapped, held in a heap or direct buffer, or read fully from a stream.
+*   <p>
+*   All reads are by absolute offset and implementations must not keep any per-read state, so a single DataSource may be
+*   read by several threads at once.
+*   <p>
+*   Once a data source is closed, any read from it throws an IllegalStateException. A data source which maps the file
+*   itself pins the mapping for the length of each read and hands out only copies of it, so closing the data source
+*   unmaps the file as soon as the reads in progress finish, and nothing can touch the mapping afterwards.
+*/
+abstract class DataSource {
+
+	/** The message of the exception thrown when a closed data source is read */
+	private static final String CLOSED = "The file has been closed";
+
+	/** The size of the pieces a stream is copied in from a data source which hands out copies of a whole-file mapping */
+	static final int COPY_REGION_SIZE = 1 << 20;
+
+	/** Whether the data source has been closed */
+	private final java.util.concurrent.atomic.AtomicBoolean closed;
+
+	/** The number of reads in progress which use the file's tables
+	*	@see #beginTableRead
+	*/
+	private final java.util.concurrent.atomic.AtomicInteger tableReads;
+
+	/** Create a DataSource object. */
+	protected DataSource()
+	{
+		closed = new java.util.concurrent.atomic.AtomicBoolean();
+		tableReads = new java.util.concurrent.atomic.AtomicInteger();
+	}
+
+	/** Get the size of the file
+	*	@return	The number of bytes in the file
+	*/
+	abstract long size();
+
+	/** Copy bytes from the file into the given array.
+	*	@param	offset	The offset into the file to start copying from
+	*	@param	dst	The array to copy the bytes into
+	*	@param	dstOffset	The offset into dst at which to start storing bytes
+	*	@param	length	The number of bytes to copy
+	*/
+	abstract void get(long offset, byte[] dst, int dstOffset, int length);
+
+	/** Get a little-endian ByteBuffer containing the requested bytes of the file, with the position set to 0 and the
+	*   limit set to length. This is used to read structures (the header, directory entries, FAT sectors, etc).
+	*	@param	offset	The offset into the file of the first byte to include
+	*	@param	length	The number of bytes to include
+	*	@return	A ByteBuffer holding the requested bytes.
+	*/
+	abstract java.nio.ByteBuffer view(long offset, int length);
+
+	/** Get the end of the contiguous region of the file holding the given offset. A view which does not extend past
+	*   this offset is taken directly from the file; a view which does may be a copy. The default implementation treats
+	*   the whole file as a single region.
+	*	@param	offset	The file offset to find the region for
+	*	@return	The offset of the first byte after the region containing offset
+	*/
+	long regionEnd(long offset)
+	{
+		return size();
+	}
+
+	/** Close the data source, releasing any resources it holds. Closing a data source which is already closed has no
+	*   effect.
+	*	@return	true if this call closed the data source, false if it was already closed
+	*	@throws	java.io.IOException	There was a problem releasing the resources.
+	*/
+	final boolean close()
+	throws
+		java.io.IOException
+	{
+		if (!closed.compareAndSet(false, true))
+			return false;
+		release();
+		return true;
+	}
+
+	/** Is the data source open?
+	*	@return	true if the data source has not been closed, false if it has
+	*/
+	final boolean isOpen()
+	{
+		return !closed.get();
+	}
+
+	/** Check that the data source has not been closed before reading from it.
+	*	@throws	IllegalStateException	The data source has been closed.
+	*/
+	final void checkOpen()
+	{
+		if (closed.get())
+			throw new IllegalStateException(CLOSED);
+	}
+
+	/** Start a read which uses the file's tables (the DIFAT, FAT, and mini FAT), checking that the data source has not
+	*   been closed. Each call must be matched by a call to {@link #endTableRead} in a finally block.
+	*	@throws	IllegalStateException	The data source has been closed.
+	*	@see #isTableReadInProgress
+	*/
+	final void beginTableRead()
+	{
+		tableReads.incrementAndGet();
+		if (closed.get()){
+			tableReads.decrementAndGet();
+			throw new IllegalStateException(CLOSED);
+		}
+	}
+
+	/** Finish a read started by {@link #beginTableRead}. */
+	final void endTableRead()
+	{
+		tableReads.decrementAndGet();
+	}
+
+	/** Is a read which uses the file's tables in progress? Once the data source has been closed, no new read can start,
+	*   so if this returns false then, the tables are no longer in use.
+	*	@return	true if a read which began before the data source was closed may still be using the tables
+	*/
+	final boolean isTableReadInProgress()
+	{
+		return tableReads.get() != 0;
+	}
+
+	/** Pin a mapping so it is not unmapped while it is being read.
+	*	@param	mapping	The mapping to pin
+	*	@throws	IllegalStateException	The data source has been closed and the mapping released.
+	*/
+	static void pin(Mapping mapping)
+	{
+		if (!mapping.pin())
+			throw new IllegalStateException(CLOSED);
+	}
+
+	/** Release any resources held by this data source; this is called once, when the data source is first closed. The
+	*   default implementation does nothing.
+	*	@throws	java.io.IOException	There was a problem releasing the resources.
+	*/
+	void release()
+	throws
+		java.io.IOException
+	{
+	}
+
+	/** Unmap a buffer returned by FileChannel.map, so the mapping is removed at once rather than when the buffer is
+	*   garbage collected. If the platform does not allow this, the mapping is left to the garbage collector. Any later
+	*   access to the buffer, or to a slice or duplicate of it, crashes the virtual machine, so this is only called
+	*   through {@link Mapping#unpin} once nothing can read the buffer.
+	*	@param	buffer	The mapped buffer; this must not be a slice or duplicate of it.
+	*/
+	static void unmap(java.nio.ByteBuffer buffer)
+	{
+		if (Unmapper.INVOKE_CLEANER == null || !buffer.isDirect())
+			return;
+		try {
+			Unmapper.INVOKE_CLEANER.invoke(Unmapper.UNSAFE, buffer);
+		} catch (final ReflectiveOperationException e) {
+			// The mapping is left to the garbage collector.
+		}
+	}
+
+	/** The means of unmapping a mapped buffer: sun.misc.Unsafe.invokeCleaner, from the jdk.unsupported module, found
+	*   by reflection when it is first needed. The module is required, so the method is available on the module path as
+	*   well as the class path; it is looked up by reflection only so that compiling against it does not need the
+	*   internal API.
+	*/
+	private static final class Unmapper {
+
+		/** The sun.misc.Unsafe instance, or null if it is not available */
+		static final Object UNSAFE = findUnsafe();
+
+		/** The invokeCleaner method, or null if it is not available */
+		static final java.lang.reflect.Method INVOKE_CLEANER = findInvokeCleaner();
+
+		/** The unmapper is only used through its static fields. */
+		private Unmapper()
+		{
+		}
+
+		/** Find the sun.misc.Unsafe instance
+		*	@return	The sun.misc.Unsafe instance, or null if it is not available
+		*/
+		@SuppressWarnings("PMD.AvoidCatchingGenericException") // Any failure means the mappings are left to the garbage collector
+		private static Object findUnsafe()
+		{
+			try {
+				java.lang.reflect.Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return field.get(null);
+			} catch (final ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		/** Find the invokeCleaner method
+		*	@return	The invokeCleaner method, or null if it is not available
+		*/
+		@SuppressWarnings("PMD.AvoidCatchingGenericException") // Any failure means the mappings are left to the garbage collector
+		private static java.lang.reflect.Method findInvokeCleaner()
+		{
+			if (UNSAFE == null)
+				return null;
+			try {
+				return UNSAFE.getClass().getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+			} catch (final ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+	}
+
+	/** Buffers mapped by a data source, which are unmapped only when the data source has released them and no read is
+	*   using them. The data source holds one reference until it releases the buffers, and each read pins them while it
+	*   copies from them, so buffers released during a read are unmapped when the read finishes.
+	*/
+	static class Mapping {
+
+		/** The mapped buffers */
+		private final java.nio.ByteBuffer[] buffers;
+
+		/** The number of reads using the buffers, plus one until they are released; they are unmapped when this
+		*   reaches 0.
+		*/
+		private final java.util.concurrent.atomic.AtomicInteger references;
+
+		/** Create a mapping, with a reference held until it is released.
+		*	@param	buffers	The mapped buffers, as returned by FileChannel.map
+		*/
+		Mapping(java.nio.ByteBuffer... buffers)
+		{
+			this.buffers = buffers;
+			references = new java.util.concurrent.atomic.AtomicInteger(1);
+		}
+
+		/** Keep the buffers mapped while they are being read.
+		*	@return	true if the buffers are pinned, false if they have already been released and unmapped
+		*/
+		boolean pin()
+		{
+			for (;;){
+				final int n = references.get();
+				if (n == 0)
+					return false;
+				if (references.compareAndSet(n, n + 1))
+					return true;
+			}
+		}
+
+		/** Drop a reference taken by {@link #pin}, or the reference held until the buffers are released, unmapping the
+		*   buffers if this was the last one.
+		*/
+		void unpin()
+		{
+			if (references.decrementAndGet() == 0){
+				for (java.nio.ByteBuffer buffer : buffers)
+					unmap(buffer);
+			}
+		}
+	}
+
+	/** Get the end of the piece of a whole-file mapping holding the given offset, for a data source which copies its
+	*   views from the mapping, so a large stream is not copied into a single buffer.
+	*	@param	offset	The file offset to find the piece for
+	*	@param	size	The size of the file
+	*	@return	The offset of the first byte after the piece containing offset
+	*/
+	static long copyRegionEnd(long offset, long size)
+	{
+		return Math.min(size, (offset / COPY_REGION_SIZE + 1) * COPY_REGION_SIZE);
+	}
+
+	/** A data source for data held in a ByteBuffer (memory-mapped, direct, or heap). */
+	static class ByteBufferSource extends DataSource {
+
+		/** The file contents */
+		private final java.nio.ByteBuffer bb;
+
+		/** The mapping of the file made for this data source, or null if the caller retains ownership of the buffer */
+		private final Mapping mapping;
+
+		/** The resource to close when this data source is closed, if any. */
+		private final java.io.Closeable owner;
+
+		/** Create a data source for the given buffer, which belongs to the caller; views are taken directly from it.
+		*	@param	bb	The buffer holding the entire file. The file is taken to be the bytes between the buffer's position and its limit.
+		*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+		*/
+		ByteBufferSource(java.nio.ByteBuffer bb, java.io.Closeable owner)
+		{
+			this(bb, false, owner);
+		}
+
+		/** Create a data source for the given buffer.
+		*	@param	bb	The buffer holding the entire file. The file is taken to be the bytes between the buffer's position and its limit.
+		*	@param	mapped	Whether bb was mapped for this data source, in which case reads pin it, views are copies,
+		*			and it is unmapped once the data source is closed and no read is using it
+		*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+		*/
+		ByteBufferSource(java.nio.ByteBuffer bb, boolean mapped, java.io.Closeable owner)
+		{
+			super();
+			this.bb = bb.slice();
+			this.bb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+			this.mapping = mapped ? new Mapping(bb) : null;
+			this.owner = owner;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		long size()
+		{
+			return bb.limit();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		void get(long offset, byte[] dst, int dstOffset, int length)
+		{
+			checkOpen();
+			if (mapping == null){
+				bb.get((int)offset, dst, dstOffset, length);
+				return;
+			}
+
+			pin(mapping);
+			try {
+				bb.get((int)offset, dst, dstOffset, length);
+			} finally {
+				mapping.unpin();
+			}
+		}
+
+		/** {@inheritDoc} The view is a copy of the file contents if the buffer was mapped for this data source, so the
+		*   mapping can be removed once the data source is closed.
+		*/
+		@Override
+		java.nio.ByteBuffer view(long offset, int length)
+		{
+			checkOpen();
+			if (mapping == null)
+				return bb.slice((int)offset, length).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+
+			byte[] data = new byte[length];
+			get(offset, data, 0, length);
+			return java.nio.ByteBuffer.wrap(data).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/** {@inheritDoc} If the buffer was mapped for this data source, its views are copies, so streams are copied a
+		*   piece at a time rather than all at once.
+		*/
+		@Override
+		long regionEnd(long offset)
+		{
+			return mapping == null ? size() : copyRegionEnd(offset, size());
+		}
+
+		/** {@inheritDoc} A buffer mapped for this data source is unmapped, or, if a read is using it, unmapped when the
+		*   read finishes.
+		*/
+		@Override
+		void release()
+		throws
+			java.io.IOException
+		{
+			if (mapping != null)
+				mapping.unpin();
+			if (owner != null)
+				owner.close();
+		}
+	}
+
+	/** A data source for a file which is memory-mapped in several segments, so files larger than the 2GB limit of a
+	*   single mapping can be read. The segment size is a multiple of the largest sector size, so no sector is split
+	*   between two segments. Reads pin the segments and views are copies, so the segments are unmapped once the data
+	*   source is closed and no read is using them.
+	*/
+	static class MappedSegmentsSource extends DataSource {
+
+		/** The default number of bytes in each segment */
+		static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+		/** The mapped segments, in file order */
+		private final java.nio.ByteBuffer[] segments;
+
+		/** The number of bytes in each segment except possibly the last */
+		private final int segmentSize;
+
+		/** The size of the file */
+		private final long size;
+
+		/** The mapping of the segments */
+		private final Mapping mapping;
+
+		/** The resource to close when this data source is closed, if any. */
+		private final java.io.Closeable owner;
+
+		/** Create a data source by mapping a file channel in segments.
+		*	@param	fc	The file channel to map
+		*	@param	position	The offset into the channel at which the file starts
+		*	@param	size	The number of bytes in the file
+		*	@param	segmentSize	The number of bytes in each segment; this must be a multiple of 4096
+		*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+		*	@throws	java.io.IOException	There was a problem mapping the file.
+		*/
+		MappedSegmentsSource(java.nio.channels.FileChannel fc, long position, long size, int segmentSize, java.io.Closeable owner)
+		throws
+			java.io.IOException
+		{
+			super();
+			if (segmentSize <= 0 || segmentSize % 4096 != 0)
+				throw new IllegalArgumentException(String.format("Segment size %d is not a positive multiple of 4096", segmentSize));
+
+			this.segmentSize = segmentSize;
+			this.size = size;
+			this.owner = owner;
+			segments = new java.nio.ByteBuffer[(int)((size + segmentSize - 1) / segmentSize)];
+			for (int i = 0; i < segments.length; ++i){
+				long start = (long)i * segmentSize;
+				segments[i] = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position + start, Math.min(segmentSize, size - start));
+				segments[i].order(java.nio.ByteOrder.LITTLE_ENDIAN);
+			}
+			mapping = new Mapping(segments);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		long size()
+		{
+			return size;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		void get(long offset, byte[] dst, int dstOffset, int length)
+		{
+			checkOpen();
+			pin(mapping);
+			try {
+				while (length > 0){
+					int segment = (int)(offset / segmentSize);
+					int segmentOffset = (int)(offset % segmentSize);
+					int n = Math.min(length, segments[segment].limit() - segmentOffset);
+					segments[segment].get(segmentOffset, dst, dstOffset, n);
+					offset += n;
+					dstOffset += n;
+					length -= n;
+				}
+			} finally {
+				mapping.unpin();
+			}
+		}
+
+		/** {@inheritDoc} The view is a copy of the file contents, so the segments can be unmapped once the data source
+		*   is closed.
+		*/
+		@Override
+		java.nio.ByteBuffer view(long offset, int length)
+		{
+			byte[] data = new byte[length];
+			get(offset, data, 0, length);
+			return java.nio.ByteBuffer.wrap(data).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/** {@inheritDoc} Views are copies, so streams are copied a piece at a time rather than all at once. */
+		@Override
+		long regionEnd(long offset)
+		{
+			return copyRegionEnd(offset, size);
+		}
+
+		/** {@inheritDoc} The segments are unmapped, or, if a read is using them, unmapped when the read finishes. */
+		@Override
+		void release()
+		throws
+			java.io.IOException
+		{
+			mapping.unpin();
+			if (owner != null)
+				owner.close();
+		}
+	}
+
+	/** A data source for a file which is memory-mapped in fixed-size windows as they are read, so only the parts of the
+	*   file which are in use take up address space. The windows of all open files share the process-wide
+	*   {@link MappingBudget}, which releases the least recently used windows when it is exceeded. Each read pins the
+	*   window it copies from, so a window released during a read is unmapped only when the read finishes, and views are
+	*   copies of the file contents, so no buffer handed out refers to a window.
+	*/
+	static class WindowedMappedSource extends DataSource {
+
+		/** The file channel the windows are mapped from */
+		private final java.nio.channels.FileChannel fc;
+
+		/** The offset into the channel at which the file starts */
+		private final long position;
+
+		/** The size of the file */
+		private final long size;
+
+		/** The number of bytes in each window except possibly the last */
+		private final int windowSize;
+
+		/** The windows currently mapped, or null for those which are not */
+		private final java.util.concurrent.atomic.AtomicReferenceArray<MappingBudget.Window> windows;
+
+		/** The resource to close when this data source is closed, if any. */
+		private final java.io.Closeable owner;
+
+		/** Create a data source which maps a file channel in windows as they are needed.
+		*	@param	fc	The file channel to map
+		*	@param	position	The offset into the channel at which the file starts
+		*	@param	size	The number of bytes in the file
+		*	@param	windowSize	The number of bytes in each window; this must be a multiple of 4096
+		*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+		*/
+		WindowedMappedSource(java.nio.channels.FileChannel fc, long position, long size, int windowSize, java.io.Closeable owner)
+		{
+			super();
+			if (windowSize <= 0 || windowSize % 4096 != 0)
+				throw new IllegalArgumentException(String.format("Window size %d is not a positive multiple of 4096", windowSize));
+
+			this.fc = fc;
+			this.position = position;
+			this.size = size;
+			this.windowSize = windowSize;
+			this.owner = owner;
+			windows = new java.util.concurrent.atomic.AtomicReferenceArray<MappingBudget.Window>((int)((size + windowSize - 1) / windowSize));
+		}
+
+		/** Get a window, mapping it if it is not already mapped, and pin it so it is not unmapped while it is being read.
+		*   The caller must unpin the window when it has finished reading it.
+		*	@param	index	The index of the window
+		*	@return	The pinned window
+		*	@throws	java.io.UncheckedIOException	There was a problem mapping the window.
+		*/
+		private MappingBudget.Window pin(int index)
+		{
+			for (;;){
+				checkOpen();
+				MappingBudget.Window window = windows.get(index);
+				if (window != null){
+					if (window.pin()){
+						MappingBudget.touch(window);
+						return window;
+					}
+					// The window was released after it was looked up; it has already been removed.
+					continue;
+				}
+
+				long start = (long)index * windowSize;
+				java.nio.ByteBuffer buffer;
+				try {
+					buffer = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position + start, Math.min(windowSize, size - start));
+				} catch (final java.io.IOException e) {
+					throw new java.io.UncheckedIOException(e);
+				}
+				buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+
+				window = new MappingBudget.Window(this, index, buffer);
+				window.pin();
+				if (windows.compareAndSet(index, null, window)){
+					MappingBudget.add(window);
+					if (!isOpen() && windows.compareAndSet(index, window, null)){
+						// The data source was closed while the window was being mapped.
+						MappingBudget.remove(window);
+						window.unpin();
+					}
+					return window;
+				}
+
+				// Another thread mapped this window first; no one else has seen this mapping, so it can be unmapped.
+				unmap(buffer);
+			}
+		}
+
+		/** Forget a window released by the mapping budget, and drop the reference held until it was released.
+		*	@param	window	The window which was released
+		*/
+		void release(MappingBudget.Window window)
+		{
+			if (windows.compareAndSet(window.index, window, null))
+				window.unpin();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		long size()
+		{
+			return size;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		void get(long offset, byte[] dst, int dstOffset, int length)
+		{
+			while (length > 0){
+				MappingBudget.Window window = pin((int)(offset / windowSize));
+				int n;
+				try {
+					int windowOffset = (int)(offset % windowSize);
+					n = Math.min(length, window.buffer.limit() - windowOffset);
+					window.buffer.get(windowOffset, dst, dstOffset, n);
+				} finally {
+					window.unpin();
+				}
+				offset += n;
+				dstOffset += n;
+				length -= n;
+			}
+		}
+
+		/** {@inheritDoc} The view is a copy of the file contents, so the window can be unmapped once it is released. */
+		@Override
+		java.nio.ByteBuffer view(long offset, int length)
+		{
+			byte[] data = new byte[length];
+			get(offset, data, 0, length);
+			return java.nio.ByteBuffer.wrap(data).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		long regionEnd(long offset)
+		{
+			return Math.min(size, (offset / windowSize + 1) * windowSize);
+		}
+
+		/** {@inheritDoc} The windows which are mapped are removed from the mapping budget and unmapped, or, if a read is
+		*   using one, unmapped when the read finishes.
+		*/
+		@Override
+		void release()
+		throws
+			java.io.IOException
+		{
+			for (int i = 0; i < windows.length(); ++i){
+				MappingBudget.Window window = windows.getAndSet(i, null);
+				if (window != null){
+					MappingBudget.remove(window);
+					window.unpin();
+				}
+			}
+			if (owner != null)
+				owner.close();
+		}
+	}
+
+	/** A data source which reads the file with positional FileChannel reads as it is used, rather than mapping it. Each
+	*   read goes through a direct buffer taken from a pool shared by all files, so the file takes up no address space
+	*   and nothing needs to be unmapped when it is closed. Views are copies of the file contents.
+	*/
+	static class PositionalReadSource extends DataSource {
+
+		/** The size of the pooled buffers, and of the largest view returned for part of a stream */
+		static final int BUFFER_SIZE = 64 * 1024;
+
+		/** The largest number of idle buffers kept in the pool */
+		private static final int MAX_POOLED_BUFFERS = 64;
+
+		/** The idle buffers */
+		private static final java.util.concurrent.ArrayBlockingQueue<java.nio.ByteBuffer> pool = new java.util.concurrent.ArrayBlockingQueue<java.nio.ByteBuffer>(MAX_POOLED_BUFFERS);
+
+		/** The file channel to read from */
+		private final java.nio.channels.FileChannel fc;
+
+		/** The offset into the channel at which the file starts */
+		private final long position;
+
+		/** The size of the file */
+		private final long size;
+
+		/** The resource to close when this data source is closed, if any. */
+		private final java.io.Closeable owner;
+
+		/** Create a data source which reads a file channel with positional reads.
+		*	@param	fc	The file channel to read
+		*	@param	position	The offset into the channel at which the file starts
+		*	@param	size	The number of bytes in the file
+		*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+		*/
+		PositionalReadSource(java.nio.channels.FileChannel fc, long position, long size, java.io.Closeable owner)
+		{
+			super();
+			this.fc = fc;
+			this.position = position;
+			this.size = size;
+			this.owner = owner;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		long size()
+		{
+			return size;
+		}
+
+		/** {@inheritDoc}
+		*	@throws	java.io.UncheckedIOException	There was a problem reading the file.
+		*/
+		@Override
+		void get(long offset, byte[] dst, int dstOffset, int length)
+		{
+			checkOpen();
+			java.nio.ByteBuffer buffer = pool.poll();
+			if (buffer == null)
+				buffer = java.nio.ByteBuffer.allocateDirect(BUFFER_SIZE);
+			try {
+				while (length > 0){
+					int n = Math.min(length, BUFFER_SIZE);
+					buffer.clear().limit(n);
+					while (buffer.hasRemaining()){
+						if (fc.read(buffer, position + offset + buffer.position()) < 0)
+							throw new java.io.EOFException(String.format("End of file reading %d bytes at offset %d", n, offset));
+					}
+					buffer.flip();
+					buffer.get(dst, dstOffset, n);
+					offset += n;
+					dstOffset += n;
+					length -= n;
+				}
+			} catch (final java.io.IOException e) {
+				throw new java.io.UncheckedIOException(e);
+			} finally {
+				pool.offer(buffer);
+			}
+		}
+
+		/** {@inheritDoc} The view is a copy of the file contents. */
+		@Override
+		java.nio.ByteBuffer view(long offset, int length)
+		{
+			byte[] data = new byte[length];
+			get(offset, data, 0, length);
+			return java.nio.ByteBuffer.wrap(data).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/** {@inheritDoc} Regions are the size of the pooled buffers, so a stream is copied a piece at a time as it is
+		*   read.
+		*/
+		@Override
+		long regionEnd(long offset)
+		{
+			return Math.min(size, (offset / BUFFER_SIZE + 1) * BUFFER_SIZE);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		void release()
+		throws
+			java.io.IOException
+		{
+			if (owner != null)
+				owner.close();
+		}
+	}
+
+	/** Create a data source from a byte array.
+	*	@param	data	The file contents
+	*	@return	A DataSource for the given bytes.
+	*/
+	static DataSource wrap(byte[] data)
+	{
+		return new ByteBufferSource(java.nio.ByteBuffer.wrap(data), null);
+	}
+
+	/** Create a data source from a ByteBuffer; the caller's buffer position, limit, and byte order are not changed.
+	*	@param	bb	The buffer holding the file contents between its position and its limit.
+	*	@return	A DataSource for the given buffer.
+	*/
+	static DataSource wrap(java.nio.ByteBuffer bb)
+	{
+		return new ByteBufferSource(bb.duplicate(), null);
+	}
+
+	/** Create a data source by reading the remainder of an InputStream. The stream is not closed.
+	*	@param	stream	The stream to read the file from
+	*	@return	A DataSource holding the contents of the stream.
+	*	@throws	java.io.IOException	There was a problem reading the stream.
+	*/
+	static DataSource read(java.io.InputStream stream)
+	throws
+		java.io.IOException
+	{
+		return wrap(stream.readAllBytes());
+	}
+
+	/** Create a data source from a SeekableByteChannel, starting at the channel's current position. FileChannels are
+	*   memory-mapped or read with positional reads as the given options specify; other channels are read into a heap
+	*   buffer. The channel is not closed.
+	*	@param	channel	The channel to read the file from
+	*	@param	options	The options controlling how a FileChannel is read
+	*	@return	A DataSource for the channel's contents.
+	*	@throws	java.io.IOException	There was a problem reading the channel, or the channel is not a FileChannel
+	*				and holds more than 2GB.
+	*/
+	static DataSource read(java.nio.channels.SeekableByteChannel channel, OpenOptions options)
+	throws
+		java.io.IOException
+	{
+		long position = channel.position();
+		long size = channel.size() - position;
+		if (channel instanceof java.nio.channels.FileChannel)
+			return map((java.nio.channels.FileChannel)channel, position, size, options, null);
+
+		if (size > Integer.MAX_VALUE)
+			throw new java.io.IOException(String.format("File too large (%d bytes)", size));
+
+		java.nio.ByteBuffer bb = java.nio.ByteBuffer.allocate((int)size);
+		while (bb.hasRemaining()){
+			if (channel.read(bb) < 0)
+				throw new java.io.EOFException();
+		}
+		bb.flip();
+		return new ByteBufferSource(bb, null);
+	}
+
+	/** Create a data source for part of a file channel: read with positional reads if the options ask for them, mapped in
+	*   windows as they are read if the options ask for windowed mapping, and otherwise mapped all at once, with a single
+	*   mapping if possible and in segments if not.
+	*	@param	fc	The file channel to map
+	*	@param	position	The offset into the channel at which the file starts
+	*	@param	size	The number of bytes in the file
+	*	@param	options	The options controlling how the file is read
+	*	@param	owner	The resource to close when the data source is closed, or null if the caller retains ownership of any resources.
+	*	@return	A DataSource for the file.
+	*	@throws	java.io.IOException	There was a problem mapping the file.
+	*/
+	private static DataSource map(java.nio.channels.FileChannel fc, long position, long size, OpenOptions options, java.io.Closeable owner)
+	throws
+		java.io.IOException
+	{
+		if (options.positionalRead)
+			return new PositionalReadSource(fc, position, size, owner);
+		if (options.mappingWindowSize > 0)
+			return new WindowedMappedSource(fc, position, size, options.mappingWindowSize, owner);
+		if (size <= Integer.MAX_VALUE)
+			return new ByteBufferSource(fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position, size), true, owner);
+		return new MappedSegmentsSource(fc, position, size, MappedSegmentsSource.DEFAULT_SEGMENT_SIZE, owner);
+	}
+
+	/** Create a data source by memory-mapping the named file. The file is closed when the data source is closed.
+	*	@param	fn	The name of the file to map
+	*	@return	A DataSource for the file.
+	*	@throws	java.io.FileNotFoundException	The file could not be opened.
+	*	@throws	java.io.IOException	There was a problem mapping the file.
+	*/
+	static DataSource map(String fn)
+	throws
+		java.io.FileNotFoundException,
+		java.io.IOException
+	{
+		return map(fn, OpenOptions.DEFAULT);
+	}
+
+	/** Create a data source by memory-mapping the named file, or reading it with positional reads, as the given options
+	*   specify. The file is closed when the data source is closed.
+	*	@param	fn	The name of the file to map
+	*	@param	options	The options controlling how the file is read
+	*	@return	A DataSource for the file.
+	*	@throws	java.io.FileNotFoundException	The file could not be opened.
+	*	@throws	java.io.IOException	There was a problem mapping the file.
+	*/
+	static DataSource map(String fn, OpenOptions options)
+	throws
+		java.io.FileNotFoundException,
+		java.io.IOException
+	{
+		java.io.FileInputStream stream = new java.io.FileInputStream(fn);
+		try {
+			java.nio.channels.FileChannel fc = stream.getChannel();
+			return map(fc, 0, fc.size(), options, stream);
+		} catch (final java.io.IOException e) {
+			stream.close();
+			throw e;
+		}
+	}
+
+	/** Test this class by mapping each file as a single buffer, in small segments, and in small windows under a small
+	*   mapping budget, and by reading it with positional reads, and comparing reads of every sector-sized block, and of
+	*   blocks which straddle the segment boundaries; then check that each data source refuses reads once it is closed.
+	*	@param	args	The file(s) to compare the data sources for.
+	*/
+	@SuppressWarnings("PMD.DoNotCallSystemExit")
+	public static void main(final String[] args)
+	{
+		if (args.length == 0) {
+			System.out.println("use:\n\tjava io.github.jmcleodfoss.msg.DataSource file [file ...]");
+			System.exit(1);
+		}
+
+		final int segmentSize = 4096;
+		for (String a: args) {
+			try {
+				java.io.FileInputStream stream = new java.io.FileInputStream(a);
+				try {
+					java.nio.channels.FileChannel fc = stream.getChannel();
+					DataSource single = new ByteBufferSource(fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size()), true, null);
+					DataSource segmented = new MappedSegmentsSource(fc, 0, fc.size(), segmentSize, null);
+					DataSource windowed = new WindowedMappedSource(fc, 0, fc.size(), segmentSize, null);
+					DataSource positional = new PositionalReadSource(fc, 0, fc.size(), null);
+					MappingBudget.setLimit(4 * segmentSize);
+
+					int mismatches = 0;
+					final int blockSize = 512;
+					for (long offset = 0; offset + blockSize <= single.size(); offset += blockSize / 2){
+						byte[] expected = new byte[blockSize];
+						byte[] actual = new byte[blockSize];
+						single.get(offset, expected, 0, blockSize);
+						segmented.get(offset, actual, 0, blockSize);
+						if (!java.util.Arrays.equals(expected, actual) || !single.view(offset, blockSize).equals(segmented.view(offset, blockSize)))
+							++mismatches;
+						windowed.get(offset, actual, 0, blockSize);
+						if (!java.util.Arrays.equals(expected, actual) || !single.view(offset, blockSize).equals(windowed.view(offset, blockSize)))
+							++mismatches;
+						positional.get(offset, actual, 0, blockSize);
+						if (!java.util.Arrays.equals(expected, actual) || !single.view(offset, blockSize).equals(positional.view(offset, blockSize)))
+							++mismatches;
+					}
+					System.out.printf("%s: %d bytes, %d segments of %d bytes, %d mismatches, %d bytes in mapped windows%n", a, single.size(), (single.size() + segmentSize - 1) / segmentSize, segmentSize, mismatches, MappingBudget.getMappedBytes());
+
+					DataSource[] sources = { single, segmented, windowed, positional };
+					int failedAfterClose = 0;
+					for (DataSource source : sources){
+						source.close();
+						try {
+							source.get(0, new byte[blockSize], 0, blockSize);
+						} catch (final IllegalStateException e) {
+							++failedAfterClose;
+						}
+					}
+					System.out.printf("%d of %d data sources refused reads after being closed%n", failedAfterClose, sources.length);
+				} finally {
+					stream.close();
+				}
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem reading file %s%n", a);
+			}
+		}
+	}
+}
@@ -26,6 +26,11 @@ abstract class DataType {
 	*/
 	final static int STRING = 0x001f;
 
+	/** PTypString8, variable-sized 8-bit character string in the message's code page
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxcdata/0c77892e-288e-435a-9c49-be1c20c7afdb">MS-OXCDATA Section 2.11.1: Property Data Types</a>
+	*/
+	final static int STRING_8 = 0x001e;
+
 	/** PTypTime, 64-bit integer representing the number of 100-nanosecond intervals since January 1, 1601
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxcdata/0c77892e-288e-435a-9c49-be1c20c7afdb">MS-OXCDATA Section 2.11.1: Property Data Types</a>
 	*/
@@ -380,8 +385,16 @@ abstract class DataType {
 		/** The base for MS time, which is measured in hundreds of nanoseconds since January 1, 1601. */
 		private static final java.util.Date PST_BASE_TIME = initBaseTime();
 
-		/** The format to use when converting time objects to strings. */
-		private final java.text.SimpleDateFormat OUTPUT_FORMAT = new java.text.SimpleDateFormat("MMMM dd, yyyy hh:mm:ss");
+		/** The number of seconds from the start of MS time, January 1, 1601 UTC, to the Java epoch, January 1, 1970 UTC. */
+		private static final long MS_TIME_EPOCH_OFFSET_SECONDS = 11644473600L;
+
+		/** The number of MS time units (hundreds of nanoseconds) in a second */
+		private static final long MS_TIME_UNITS_PER_SECOND = 10000000L;
+
+		/** The format to use when converting time objects to strings. Unlike SimpleDateFormat, this is immutable, and so
+		*   safe to share between threads.
+		*/
+		private static final java.time.format.DateTimeFormatter OUTPUT_FORMAT = java.time.format.DateTimeFormatter.ofPattern("MMMM dd, yyyy hh:mm:ss").withZone(java.time.ZoneId.systemDefault());
 
 		/** Create a reader/display object for a PTypTime value */
 		private Time()
@@ -415,7 +428,7 @@ abstract class DataType {
 		@Override
 		String makeString(final Object o)
 		{
-			return OUTPUT_FORMAT.format((java.util.Date)o);
+			return OUTPUT_FORMAT.format(((java.util.Date)o).toInstant());
 		}
 
 		/** Read in an MS time from the data stream.
@@ -426,12 +439,30 @@ abstract class DataType {
 		@SuppressWarnings("JavaUtilDate") // Relaticely safe use of java.util.Date
 		Object read(java.nio.ByteBuffer byteBuffer)
 		{
-			long hundred_ns = byteBuffer.getLong();
+			return toDate(byteBuffer.getLong());
+		}
+
+		/** Convert an MS time to a Date, as done when reading times from the data stream.
+		*	@param	hundred_ns	The number of hundreds of nanoseconds since January 1, 1601
+		*	@return	A Java Date object corresponding to the MS time
+		*/
+		@SuppressWarnings("JavaUtilDate") // Relaticely safe use of java.util.Date
+		static java.util.Date toDate(long hundred_ns)
+		{
 			long ms = hundred_ns/10000;
 			ms += PST_BASE_TIME.getTime();
 			return new java.util.Date(ms);
 		}
 
+		/** Convert an MS time to an Instant.
+		*	@param	hundred_ns	The number of hundreds of nanoseconds since January 1, 1601 UTC
+		*	@return	The Instant corresponding to the MS time
+		*/
+		static java.time.Instant toInstant(long hundred_ns)
+		{
+			return java.time.Instant.ofEpochSecond(Math.floorDiv(hundred_ns, MS_TIME_UNITS_PER_SECOND) - MS_TIME_EPOCH_OFFSET_SECONDS, Math.floorMod(hundred_ns, MS_TIME_UNITS_PER_SECOND) * 100);
+		}
+
 		/** Obtain the size in bytes of an MS time object
 		*	@return	The size of an MS time object
 		*/
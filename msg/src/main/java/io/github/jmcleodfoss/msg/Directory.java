@@ -1,134 +1,618 @@
 package io.github.jmcleodfoss.msg;
 
 /** The directory structure in the CFB.
+*   <p>
+*   By default every entry is decoded when the file is opened. In lazy mode, only the tree links and object types are
+*   read then, and entries are decoded as they are first used; the tree and the lists of special entries are also
+*   built when first needed. In both modes, the Directory may be read from several threads at once.
+*	@see OpenOptions#withLazyDirectory
 *	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB 2.6 Compound File Directory Sectors</a>
 */
 class Directory {
 
-	/** The directory entries. */
-	final java.util.ArrayList<DirectoryEntry> entries;
+	/** Sentinel value for the parent of an entry with no parent (the root entry and entries not in the tree) */
+	private static final int NO_PARENT = -1;
+
+	/** The directory entries, in directory order; entries are decoded when they are first retrieved. */
+	final java.util.List<DirectoryEntry> entries;
 
 	/** The index to the named properties directory entry */
 	final DirectoryEntry namedPropertiesMappingEntry;
 
-	/** The properties entries in the directory (including both the main message properties and those in any attachments and recipients */
-	final java.util.ArrayList<DirectoryEntry> propertyEntries;
+	/** The file the directory entries are read from */
+	private final DataSource dataSource;
+
+	/** The sector size, used to find an entry's index from its file offset */
+	private final int sectorSize;
+
+	/** The directory sectors in ascending order, used with {@link #directorySectorIndex} to find an entry's index from
+	*   its file offset
+	*/
+	private final int[] sortedDirectorySectors;
+
+	/** The index in the directory sector chain of each sector in {@link #sortedDirectorySectors} */
+	private final int[] directorySectorIndex;
+
+	/** The file offset of each directory entry */
+	private final long[] positions;
 
-	/** The attachment entries in the directory (including both those in the main message and any in attached message objects */
-	final java.util.ArrayList<DirectoryEntry> attachmentEntries;
+	/** The left sibling ID of each entry, read without decoding the entry */
+	private final int[] leftSiblingIds;
 
-	/** The recipient entries in the directory (including both those in the main message and any in attached message objects */
-	final java.util.ArrayList<DirectoryEntry> recipientEntries;
+	/** The right sibling ID of each entry, read without decoding the entry */
+	private final int[] rightSiblingIds;
 
-	/** The parents of each entry */
-	final java.util.HashMap<DirectoryEntry, DirectoryEntry> parents;
+	/** The child ID of each entry, read without decoding the entry */
+	private final int[] childIds;
 
-	/** Ad hoc utility class to collect information from DirectoryEntry construction for use in final variables in Directory.
-	*	@see Directory#Directory
+	/** The entries decoded so far */
+	private final java.util.concurrent.atomic.AtomicReferenceArray<DirectoryEntry> decoded;
+
+	/** The parent and children of each entry, once built
+	*	@see #tree
 	*/
-	static class ConstructorData {
+	private volatile Tree tree;
 
-		/** The attachment entries in the directory (including both those in the main message and any in attached message objects
-		*	@see Directory#attachmentEntries
-		*/
-		java.util.ArrayList<DirectoryEntry> attachmentEntries;
+	/** The lists of special entries, once built
+	*	@see #entryLists
+	*/
+	private volatile EntryLists entryLists;
 
-		/** The entry containing the Named Properties info
-		*	@see Directory#namedPropertiesMappingEntry
-		*/
+	/** Holder for the lists of entries of particular types, and the indices used to find an entry's properties
+	*   without searching these lists.
+	*	@see DirectoryEntry#addTo
+	*/
+	static class EntryLists {
+
+		/** The attachment entries in the directory (including both those in the main message and any in attached message objects */
+		final java.util.ArrayList<DirectoryEntry> attachmentEntries;
+
+		/** The entry containing the Named Properties info */
 		DirectoryEntry namedPropertiesMappingEntry;
 
-		/** The properties entries in the directory (including both the main message properties and those in any attachments and recipients
-		*	@see Directory#propertyEntries
-		*/
-		java.util.ArrayList<DirectoryEntry> propertyEntries;
+		/** The properties entries in the directory (including both the main message properties and those in any attachments and recipients */
+		final java.util.ArrayList<DirectoryEntry> propertyEntries;
+
+		/** The recipient entries in the directory (including both those in the main message and any in attached message objects */
+		final java.util.ArrayList<DirectoryEntry> recipientEntries;
+
+		/** The properties entry of each storage, indexed by the storage's index in the directory */
+		final IntMap<DirectoryEntry> propertiesEntryByParent;
 
-		/** The recipient entries in the directory (including both those in the main message and any in attached message objects
-		*	@see Directory#recipientEntries
+		/** The property value streams of each storage, indexed by the storage's index in the directory and then by
+		*   the property tag
+		*	@see #addSubstorage
+		*	@see #substorage
 		*/
-		java.util.ArrayList<DirectoryEntry> recipientEntries;
+		final IntMap<IntMap<DirectoryEntry>> substorageByParent;
 
-		/** Construct an object by initializing its constituent ArrayLists */
-		ConstructorData()
+		/** Construct an object by initializing its constituent ArrayLists and indices */
+		EntryLists()
 		{
 			attachmentEntries = new java.util.ArrayList<DirectoryEntry>();
 			propertyEntries = new java.util.ArrayList<DirectoryEntry>();
 			recipientEntries = new java.util.ArrayList<DirectoryEntry>();
+			propertiesEntryByParent = new IntMap<DirectoryEntry>();
+			substorageByParent = new IntMap<IntMap<DirectoryEntry>>();
+		}
+
+		/** Add a property value stream to the substorage index, unless its storage already has one for the property.
+		*	@param	parentId	The index of the stream's parent in the directory
+		*	@param	propertyTag	The property tag of the stream
+		*	@param	de	The stream
+		*/
+		void addSubstorage(int parentId, int propertyTag, DirectoryEntry de)
+		{
+			IntMap<DirectoryEntry> streams = substorageByParent.get(parentId);
+			if (streams == null){
+				streams = new IntMap<DirectoryEntry>();
+				substorageByParent.put(parentId, streams);
+			}
+			streams.putIfAbsent(propertyTag, de);
+		}
+
+		/** Look up a property value stream in the substorage index.
+		*	@param	parentId	The index of the stream's parent in the directory
+		*	@param	propertyTag	The property tag of the stream
+		*	@return	The stream, or null if it is not in the index
+		*/
+		DirectoryEntry substorage(int parentId, int propertyTag)
+		{
+			final IntMap<DirectoryEntry> streams = substorageByParent.get(parentId);
+			return streams == null ? null : streams.get(propertyTag);
 		}
 	}
 
-	/** Construct a directory object.
-	*	@param	byteBuffer	The CFB file
+	/** The parent and children of every entry in the directory tree, by entry index. */
+	private static class Tree {
+
+		/** The index of each entry's parent, or NO_PARENT for the root entry and entries not in the tree */
+		final int[] parentIds;
+
+		/** Whether each entry can be reached from the root entry */
+		final boolean[] reachable;
+
+		/** The children of each entry in directory order */
+		final java.util.ArrayList<java.util.List<DirectoryEntry>> children;
+
+		/** Create an empty tree.
+		*	@param	n	The number of entries in the directory
+		*/
+		Tree(int n)
+		{
+			parentIds = new int[n];
+			java.util.Arrays.fill(parentIds, NO_PARENT);
+			reachable = new boolean[n];
+			children = new java.util.ArrayList<java.util.List<DirectoryEntry>>(java.util.Collections.nCopies(n, java.util.Collections.<DirectoryEntry>emptyList()));
+		}
+	}
+
+	/** An unmodifiable list of directory entries given by index, decoded as they are retrieved. */
+	private class EntryList extends java.util.AbstractList<DirectoryEntry> {
+
+		/** The indices of the entries in the list, or null for all entries */
+		private final int[] ids;
+
+		/** Create a list of the given entries
+		*	@param	ids	The indices of the entries in the list, or null for all entries in the directory
+		*/
+		private EntryList(int[] ids)
+		{
+			this.ids = ids;
+		}
+
+		/** Get an entry from the list
+		*	@param	index	The position of the entry in the list
+		*	@return	The directory entry at the given position
+		*/
+		@Override
+		public DirectoryEntry get(int index)
+		{
+			return entry(ids == null ? index : ids[index]);
+		}
+
+		/** Get the number of entries in the list
+		*	@return	The number of entries in the list
+		*/
+		@Override
+		public int size()
+		{
+			return ids == null ? positions.length : ids.length;
+		}
+	}
+
+	/** Construct a directory object. The directory tree is walked without recursion, so a corrupt file cannot make it
+	*   loop or overflow the stack; entries which cannot be reached from the root entry are ignored.
+	*	@param	dataSource	The CFB file
 	*	@param	header		The CFB header
 	*	@param	fat		The CFB file allocation table
+	*	@param	options	The options controlling how strictly the directory is checked and whether it is read lazily
 	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The directory could not be found, or is corrupt and strict checking was requested.
 	*	@throws	java.io.IOException	An error was encountered reading the directory structure.
 	*	@see DirectoryEntry#factory
 	*/
-	Directory(java.nio.ByteBuffer byteBuffer, Header header, FAT fat)
+	Directory(DataSource dataSource, Header header, FAT fat, OpenOptions options)
 	throws
 		UnknownStorageTypeException,
+		CorruptFileException,
 		java.io.IOException
 	{
-		ConstructorData cd = new ConstructorData();
-		entries = new java.util.ArrayList<DirectoryEntry>();
+		if (header.firstDirectorySectorLocation < 0 || !fat.isValidChainStart(header.firstDirectorySectorLocation))
+			throw new CorruptFileException(String.format("Directory starts at invalid sector %s", Sector.getDescription(header.firstDirectorySectorLocation)));
+
+		this.dataSource = dataSource;
+		sectorSize = header.sectorSize;
+
+		final int[] directorySectors = fat.chainStream(header.firstDirectorySectorLocation).toArray();
+		final int entriesPerSector = header.sectorSize / DirectoryEntry.SIZE;
 
-		java.util.Iterator<Integer> chain = fat.chainIterator(header.firstDirectorySectorLocation);
-		while(chain.hasNext()){
-			int dirSector = chain.next();
-			byteBuffer.position(header.offset(dirSector));
-			for (int i = 0; i < header.sectorSize / DirectoryEntry.SIZE; ++i)
-				entries.add(DirectoryEntry.factory(byteBuffer, cd));
+		// The directory ends at the end of the file, which may be partway through its last sector
+		int nEntries = directorySectors.length * entriesPerSector;
+		for (int s = 0; s < directorySectors.length; ++s){
+			final int bytesInSector = header.bytesInSector(directorySectors[s]);
+			if (bytesInSector < header.sectorSize){
+				nEntries = s * entriesPerSector + bytesInSector / DirectoryEntry.SIZE;
+				break;
+			}
 		}
+		final int numEntries = nEntries;
+		positions = new long[numEntries];
+		leftSiblingIds = new int[numEntries];
+		rightSiblingIds = new int[numEntries];
+		childIds = new int[numEntries];
+		decoded = new java.util.concurrent.atomic.AtomicReferenceArray<DirectoryEntry>(numEntries);
 
-		namedPropertiesMappingEntry = cd.namedPropertiesMappingEntry;
-		attachmentEntries = cd.attachmentEntries;
-		propertyEntries = cd.propertyEntries;
-		recipientEntries = cd.recipientEntries;
+		// Read just the tree links and object types; the rest of each entry is decoded when it is needed
+		for (int s = 0; s * entriesPerSector < numEntries; ++s){
+			final long dirSectorOffset = header.offset(directorySectors[s]);
+			java.nio.ByteBuffer sector = dataSource.view(dirSectorOffset, header.bytesInSector(directorySectors[s]));
+			for (int i = 0; i < entriesPerSector && s * entriesPerSector + i < numEntries; ++i){
+				final int id = s * entriesPerSector + i;
+				final int entryOffset = i * DirectoryEntry.SIZE;
+				positions[id] = dirSectorOffset + entryOffset;
+				ObjectType.valueOf(sector.get(entryOffset + DirectoryEntry.OBJECT_TYPE_OFFSET));
+				leftSiblingIds[id] = sector.getInt(entryOffset + DirectoryEntry.LEFT_SIBLING_ID_OFFSET);
+				rightSiblingIds[id] = sector.getInt(entryOffset + DirectoryEntry.RIGHT_SIBLING_ID_OFFSET);
+				childIds[id] = sector.getInt(entryOffset + DirectoryEntry.CHILD_ID_OFFSET);
+			}
+		}
+
+		// Sort the sectors, keeping each one's index in the chain alongside it in the low half of a long
+		final int numDirectorySectors = (numEntries + entriesPerSector - 1) / entriesPerSector;
+		final long[] sectorsAndIndices = new long[numDirectorySectors];
+		for (int s = 0; s < numDirectorySectors; ++s)
+			sectorsAndIndices[s] = (long)directorySectors[s] << 32 | s;
+		java.util.Arrays.sort(sectorsAndIndices);
+		sortedDirectorySectors = new int[numDirectorySectors];
+		directorySectorIndex = new int[numDirectorySectors];
+		for (int i = 0; i < numDirectorySectors; ++i){
+			sortedDirectorySectors[i] = (int)(sectorsAndIndices[i] >>> 32);
+			directorySectorIndex[i] = (int)sectorsAndIndices[i];
+		}
+
+		entries = new EntryList(null);
+
+		if (options.strict || !options.lazyDirectory)
+			tree = buildTree(options.strict);
+		if (!options.lazyDirectory){
+			for (int i = 0; i < numEntries; ++i)
+				decoded.set(i, DirectoryEntry.factory(dataSource.view(positions[i], DirectoryEntry.SIZE), positions[i]));
+			entryLists = buildEntryLists();
+		}
 
-		parents = new java.util.HashMap<DirectoryEntry, DirectoryEntry>();
-		setParent(entries.get(0));
+		// The named properties mapping storage is always a child of the root entry. Only the root's tree of children is
+		// walked, so in lazy mode the rest of the tree is still built only when it is needed.
+		EntryLists rootChildren = new EntryLists();
+		for (java.util.Iterator<DirectoryEntry> iter = directChildren(entries.get(0)).iterator(); iter.hasNext(); )
+			iter.next().addTo(rootChildren, 0);
+		namedPropertiesMappingEntry = rootChildren.namedPropertiesMappingEntry;
 	}
 
-	/** Collect all siblings and self for the given childIndex.
-	*	@param	siblings	The list of children of childIndex's parent
-	*	@param	child		The given child for the parent we are collecting the children of.
+	/** Get the given entry, decoding it if this has not already been done.
+	*	@param	id	The index of the entry
+	*	@return	The directory entry
+	*/
+	private DirectoryEntry entry(int id)
+	{
+		DirectoryEntry de = decoded.get(id);
+		if (de != null)
+			return de;
+
+		try {
+			de = DirectoryEntry.factory(dataSource.view(positions[id], DirectoryEntry.SIZE), positions[id]);
+		} catch (final UnknownStorageTypeException e) {
+			// The object type of every entry is checked when the directory is read, so this cannot happen.
+			throw new IllegalStateException(e);
+		} catch (final java.io.IOException e) {
+			throw new java.io.UncheckedIOException(e);
+		}
+
+		// If another thread decoded the entry first, use its copy so each entry has a single identity
+		return decoded.compareAndSet(id, null, de) ? de : decoded.get(id);
+	}
+
+	/** Get the index of the given entry in the directory.
+	*	@param	de	The directory entry
+	*	@return	The index of the entry
+	*/
+	private int id(DirectoryEntry de)
+	{
+		final int sector = (int)(de.directoryEntryPosition / sectorSize - 1);
+		return directorySectorIndex[java.util.Arrays.binarySearch(sortedDirectorySectors, sector)] * (sectorSize / DirectoryEntry.SIZE) + (int)(de.directoryEntryPosition % sectorSize) / DirectoryEntry.SIZE;
+	}
+
+	/** Get the tree, building it if this has not already been done.
+	*	@return	The parent and children of each entry
+	*/
+	private Tree tree()
+	{
+		Tree t = tree;
+		if (t == null){
+			synchronized (this){
+				t = tree;
+				if (t == null){
+					try {
+						t = buildTree(false);
+					} catch (final CorruptFileException e) {
+						// In lenient mode, bad links are skipped rather than reported, so this cannot happen.
+						throw new IllegalStateException(e);
+					}
+					tree = t;
+				}
+			}
+		}
+		return t;
+	}
+
+	/** Find the parent and children of each entry reachable from the root entry, using only the tree links.
+	*	@param	strict	Whether to throw an exception for a bad link in the tree, rather than ignoring it
+	*	@return	The parent and children of each entry
+	*	@throws	CorruptFileException	A link is out of range or leads to an entry which has already been seen, and strict
+	*					checking was requested.
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB 2.6 Compound File Directory Sectors</a>
 	*/
-	private void addSiblings(java.util.List<DirectoryEntry> siblings, DirectoryEntry child)
+	private Tree buildTree(boolean strict)
+	throws
+		CorruptFileException
 	{
-		if (child.leftSiblingId != Sector.FREESECT)
-			addSiblings(siblings, entries.get(child.leftSiblingId));
+		Tree t = new Tree(positions.length);
+		t.reachable[0] = true;
 
-		siblings.add(child);
+		java.util.ArrayDeque<Integer> parentsToDo = new java.util.ArrayDeque<Integer>();
+		parentsToDo.add(0);
+		while (!parentsToDo.isEmpty()){
+			final int parent = parentsToDo.remove();
+			final int[] children = collectChildren(parent, t.reachable, strict);
+			if (children.length == 0)
+				continue;
+			t.children.set(parent, new EntryList(children));
+			for (int child : children){
+				t.parentIds[child] = parent;
+				parentsToDo.add(child);
+			}
+		}
+		return t;
+	}
 
-		if (child.rightSiblingId != Sector.FREESECT)
-			addSiblings(siblings, entries.get(child.rightSiblingId));
+	/** Collect the children of the given entry by an in-order walk of its red-black tree of children, so they are
+	*   listed in directory order.
+	*	@param	parent	The index of the parent entry
+	*	@param	visited	The entries which have already been reached; updated with the children found
+	*	@param	strict	Whether to throw an exception for a bad link, rather than ignoring it
+	*	@return	The indices of the parent's children, in directory order
+	*	@throws	CorruptFileException	A link is out of range or leads to an entry which has already been seen, and strict
+	*					checking was requested.
+	*/
+	private int[] collectChildren(int parent, boolean[] visited, boolean strict)
+	throws
+		CorruptFileException
+	{
+		java.util.stream.IntStream.Builder siblings = java.util.stream.IntStream.builder();
+		java.util.ArrayDeque<Integer> pending = new java.util.ArrayDeque<Integer>();
+		int child = follow(childIds[parent], visited, strict);
+		while (child != NO_PARENT || !pending.isEmpty()){
+			while (child != NO_PARENT){
+				pending.push(child);
+				child = follow(leftSiblingIds[child], visited, strict);
+			}
+			child = pending.pop();
+			siblings.add(child);
+			child = follow(rightSiblingIds[child], visited, strict);
+		}
+		return siblings.build().toArray();
+	}
+
+	/** Check a tree link, marking the entry it refers to as visited.
+	*	@param	id	The index of the entry
+	*	@param	visited	The entries which have already been reached
+	*	@param	strict	Whether to throw an exception for a bad link, rather than ignoring it
+	*	@return	The index of the entry, or NO_PARENT if there is none or the link is bad.
+	*	@throws	CorruptFileException	The link is out of range or leads to an entry which has already been seen, and
+	*					strict checking was requested.
+	*/
+	private int follow(int id, boolean[] visited, boolean strict)
+	throws
+		CorruptFileException
+	{
+		if (id == Sector.FREESECT)
+			return NO_PARENT;
+
+		if (id < 0 || id >= visited.length || visited[id]){
+			if (strict)
+				throw new CorruptFileException(String.format("Directory entry link to entry %d %s", id, id < 0 || id >= visited.length ? "is out of range" : "leads to an entry already in the tree"));
+			return NO_PARENT;
+		}
+
+		visited[id] = true;
+		return id;
+	}
+
+	/** Get the lists of special entries, building them if this has not already been done.
+	*	@return	The lists of attachment, properties, and recipient entries
+	*/
+	private EntryLists entryLists()
+	{
+		EntryLists lists = entryLists;
+		if (lists == null){
+			synchronized (this){
+				lists = entryLists;
+				if (lists == null){
+					lists = buildEntryLists();
+					entryLists = lists;
+				}
+			}
+		}
+		return lists;
+	}
+
+	/** Sort the entries in the tree into lists by type, and index the properties entries and property value streams
+	*   by their parents. This decodes every entry in the tree.
+	*	@return	The lists of attachment, properties, and recipient entries, each in directory order, and the indices
+	*/
+	private EntryLists buildEntryLists()
+	{
+		final Tree t = tree();
+		EntryLists lists = new EntryLists();
+		for (int i = 0; i < t.reachable.length; ++i){
+			if (t.reachable[i])
+				entry(i).addTo(lists, t.parentIds[i]);
+		}
+		return lists;
+	}
+
+	/** Get the attachment entries in the directory tree
+	*	@return	The attachment entries, including both those in the main message and any in attached message objects
+	*/
+	java.util.List<DirectoryEntry> attachmentEntries()
+	{
+		return entryLists().attachmentEntries;
+	}
+
+	/** Get the properties entries in the directory tree
+	*	@return	The properties entries, including both the main message properties and those in any attachments and recipients
+	*/
+	java.util.List<DirectoryEntry> propertyEntries()
+	{
+		return entryLists().propertyEntries;
+	}
+
+	/** Get the recipient entries in the directory tree
+	*	@return	The recipient entries, including both those in the main message and any in attached message objects
+	*/
+	java.util.List<DirectoryEntry> recipientEntries()
+	{
+		return entryLists().recipientEntries;
+	}
+
+	/** Sort the children of a single storage into lists by type, and index its properties entry and property value
+	*   streams. Only the storage's children are decoded.
+	*	@param	parent	The storage to sort the children of
+	*	@return	The lists of the storage's attachment, properties, and recipient children, and the indices
+	*/
+	EntryLists childEntryLists(DirectoryEntry parent)
+	{
+		final int parentId = id(parent);
+		EntryLists lists = new EntryLists();
+		for (java.util.Iterator<DirectoryEntry> iter = directChildren(parent).iterator(); iter.hasNext(); )
+			iter.next().addTo(lists, parentId);
+		return lists;
 	}
 
-	/** Get the first generation child nodes for a given node.
+	/** Get the properties entry for a storage
+	*	@param	parent	The Root Entry, Attachment, or Recipient storage to get the properties entry for
+	*	@return	The storage's properties entry, or null if it has none or parent is null
+	*/
+	DirectoryEntry propertiesEntry(DirectoryEntry parent)
+	{
+		return parent == null ? null : propertiesEntry(entryLists(), parent);
+	}
+
+	/** Get the properties entry for a storage from the given lists
+	*	@param	lists	The lists to look for the properties entry in
+	*	@param	parent	The Root Entry, Attachment, or Recipient storage to get the properties entry for
+	*	@return	The storage's properties entry, or null if it is not in the lists
+	*	@see #childEntryLists
+	*/
+	DirectoryEntry propertiesEntry(EntryLists lists, DirectoryEntry parent)
+	{
+		return lists.propertiesEntryByParent.get(id(parent));
+	}
+
+	/** Get the stream holding the value of a property which is not stored in its storage's properties entry
+	*	@param	parent	The storage the property belongs to
+	*	@param	propertyTag	The property tag
+	*	@return	The stream holding the property value, or null if there is none or parent is null
+	*/
+	DirectoryEntry substorage(DirectoryEntry parent, int propertyTag)
+	{
+		return parent == null ? null : substorage(entryLists(), parent, propertyTag);
+	}
+
+	/** Get the stream holding the value of a property from the given lists
+	*	@param	lists	The lists to look for the stream in
+	*	@param	parent	The storage the property belongs to
+	*	@param	propertyTag	The property tag
+	*	@return	The stream holding the property value, or null if it is not in the lists
+	*	@see #childEntryLists
+	*/
+	DirectoryEntry substorage(EntryLists lists, DirectoryEntry parent, int propertyTag)
+	{
+		return lists.substorage(id(parent), propertyTag);
+	}
+
+	/** Get the parent of an entry
+	*	@param	de	The entry to get the parent of
+	*	@return	The entry's parent, or null for the root entry or an entry which is not in the tree
+	*/
+	DirectoryEntry parent(DirectoryEntry de)
+	{
+		final int parentId = tree().parentIds[id(de)];
+		return parentId == NO_PARENT ? null : entry(parentId);
+	}
+
+	/** Is an entry the given storage or one of its descendants?
+	*	@param	de	The entry to check
+	*	@param	ancestor	The storage to look for among the entry's ancestors
+	*	@return	true if the entry is ancestor or is below it in the tree, false otherwise
+	*/
+	boolean isDescendant(DirectoryEntry de, DirectoryEntry ancestor)
+	{
+		final Tree t = tree();
+		final int ancestorId = id(ancestor);
+		for (int id = id(de); id != NO_PARENT; id = t.parentIds[id]){
+			if (id == ancestorId)
+				return true;
+		}
+		return false;
+	}
+
+	/** Is the given entry part of the directory tree?
+	*	@param	de	The entry to check
+	*	@return	true if the entry can be reached from the root entry, false otherwise
+	*/
+	private boolean isReachable(DirectoryEntry de)
+	{
+		return tree().reachable[id(de)];
+	}
+
+	/** Check that every stream in the directory tree starts at a valid sector and fits in the file. This requires the
+	*   mini FAT, which can only be read once the directory is available, so it is done separately.
+	*	@param	header	The CFB header
+	*	@param	fat	The CFB file allocation table
+	*	@param	miniFAT	The CFB mini file allocation table
+	*	@throws	CorruptFileException	A stream starts at an invalid sector or is larger than the file.
+	*/
+	void checkStreams(Header header, FAT fat, MiniFAT miniFAT)
+	throws
+		CorruptFileException
+	{
+		for (java.util.Iterator<DirectoryEntry> iter = entries.iterator(); iter.hasNext(); ){
+			DirectoryEntry de = iter.next();
+			if (de.streamSize <= 0 || !isReachable(de))
+				continue;
+
+			final boolean inMiniStream = de.isInMiniStream(header);
+			final boolean validStart = inMiniStream ? miniFAT.isValidChainStart(de.startingSectorLocation) : fat.isValidChainStart(de.startingSectorLocation);
+			final long maxSize = inMiniStream ? miniFAT.miniStreamSize() : fat.maxStreamSize(header);
+			if (!validStart || de.streamSize > maxSize)
+				throw new CorruptFileException(String.format("Stream %s of %d bytes at %s sector %s does not fit in the file", de.directoryEntryName(), de.streamSize, inMiniStream ? "mini" : "FAT", Sector.getDescription(de.startingSectorLocation)));
+		}
+	}
+
+	/** Get the first generation child nodes for a given node. The tree is built, and every link in it checked, the
+	*   first time this is called, so a link back to an ancestor in a corrupt file is never followed; an entry which
+	*   cannot be reached from the root entry has no children.
 	*	@param	parent	The directory entry of the parent we want to find the children of, if any.
-	*	@return	The (possibly empty) list of children of the directory entry for parentIndex.
+	*	@return	The (possibly empty) unmodifiable list of children of the directory entry for parentIndex.
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB 2.6 Compound File Directory Sectors</a>
 	*/
 	java.util.List<DirectoryEntry> getChildren(DirectoryEntry parent)
 	{
-		java.util.ArrayList<DirectoryEntry> children = new java.util.ArrayList<DirectoryEntry>();
-		if (parent.childId != Sector.FREESECT)
-			addSiblings(children, entries.get(parent.childId));
-		return children;
+		return tree().children.get(id(parent));
 	}
 
-	/** Set the parent node for each child node
-	*	@param	parent	The parent node
+	/** Get the first generation child nodes for a storage without building the tree if it has not already been built.
+	*   Only the storage's own tree of siblings is walked, so this suits a lookup one level below a storage whose parent
+	*   is known, such as an attachment or the named properties mapping storage; use {@link #getChildren} to walk the
+	*   directory recursively.
+	*	@param	parent	The storage to find the children of
+	*	@return	The (possibly empty) unmodifiable list of the storage's children, in directory order
 	*/
-	private void setParent(DirectoryEntry parent)
+	java.util.List<DirectoryEntry> directChildren(DirectoryEntry parent)
 	{
-		java.util.List<DirectoryEntry> children = getChildren(parent);
-		for (java.util.Iterator<DirectoryEntry> iter = children.iterator(); iter.hasNext(); ){
-			DirectoryEntry de = iter.next();
-			parents.put(de, parent);
-			setParent(de);
+		if (tree != null)
+			return getChildren(parent);
+
+		final int parentId = id(parent);
+		boolean[] visited = new boolean[positions.length];
+		visited[0] = true;
+		visited[parentId] = true;
+		try {
+			return new EntryList(collectChildren(parentId, visited, false));
+		} catch (final CorruptFileException e) {
+			// In lenient mode, bad links are skipped rather than reported, so this cannot happen.
+			throw new IllegalStateException(e);
 		}
 	}
 
@@ -146,18 +630,13 @@ class Directory {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
 					try {
-						java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-						mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-						Header header = new Header(mbb, fc.size());
-						DIFAT difat = new DIFAT(mbb, header);
-						FAT fat = new FAT(mbb, header, difat);
-						Directory directory = new Directory(mbb, header, fat);
+						Header header = new Header(dataSource);
+						DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+						FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
+						Directory directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
 
 						java.util.Iterator<DirectoryEntry> iterator = directory.entries.iterator();
 						int i = 0;
@@ -180,22 +659,18 @@ class Directory {
 						e.printStackTrace(System.out);
 					} catch (final UnknownStorageTypeException e) {
 						e.printStackTrace(System.out);
-					} finally {
-						try {
-							fc.close();
-						} catch (final java.io.IOException e) {
-							System.out.printf("There was a problem closing filechannel for stream for file %s%n", a);
-						}
 					}
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
@@ -19,7 +19,7 @@ public class DirectoryEntry {
 	/** String Stream entry name template
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/08185828-e9e9-4ef2-bcd2-f6e69c00891b">MS-OXMSG Section 2.1.3: Variable Length Properties</a>
 	*/
-	private static final java.util.regex.Pattern STRING_STREAM_PATTERN = java.util.regex.Pattern.compile("__substg1.0_(\\p{XDigit}{8})");
+	private static final String STRING_STREAM_PREFIX = "__substg1.0_";
 
 	/** Property Stream entries (One under the Root Entry, and one under each Recipient and each Attachment)
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/20c1125f-043d-42d9-b1dc-cb9b7e5198ef">MS-OXMSG Section 2.4: Property Stream</a>
@@ -29,12 +29,24 @@ public class DirectoryEntry {
 	/** Recipient Object Storage entry name template
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/38a5cb3c-4454-48ba-b113-6de75321b67f">MS-OXMSG Section 2.2.1: Recipient Object Storage</a>
 	*/
-	private static final java.util.regex.Pattern RECIP_PATTERN = java.util.regex.Pattern.compile("__recip_version1.0_#\\p{XDigit}{8}");
+	private static final String RECIP_PREFIX = "__recip_version1.0_#";
 
 	/** Attachment Object Storage entry name template
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/8590d60d-4173-4ca8-9cb2-190aae006fbd">MS-OXMSG Section 2.2.2: Attachment Object Storage</a>
 	*/
-	private static final java.util.regex.Pattern ATTACH_PATTERN = java.util.regex.Pattern.compile("__attach_version1.0_#\\p{XDigit}{8}");
+	private static final String ATTACH_PREFIX = "__attach_version1.0_#";
+
+	/** The number of hexadecimal digits following the String Stream, Recipient, and Attachment entry name prefixes
+	*	@see #STRING_STREAM_PREFIX
+	*	@see #RECIP_PREFIX
+	*	@see #ATTACH_PREFIX
+	*/
+	private static final int NAME_SUFFIX_DIGITS = 8;
+
+	/** The maximum number of characters in a directory entry name, including the terminating null
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
+	*/
+	private static final int MAX_NAME_CHARS = 32;
 
 	/** Unallocated directory entries
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/b37413bb-f3ef-4adc-b18e-29bddd62c26e">MS-CFG Section 2.6.3: Other Directory Entries</a>
@@ -192,7 +204,7 @@ public class DirectoryEntry {
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
 	*/
 	private static final DataDefinition[] fields = {
-		new DataDefinition(nm_DirectoryEntryName, new DataType.UnicodeString(64), true),
+		new DataDefinition(nm_DirectoryEntryName, new DataType.SizedByteArray(2*MAX_NAME_CHARS), true),
 		new DataDefinition(nm_DirectoryEntryNameLength, DataType.integer16Reader, true),
 		new DataDefinition(nm_ObjectType, DataType.integer8Reader, true),
 		new DataDefinition(nm_ColorFlag, DataType.integer8Reader, true),
@@ -210,15 +222,37 @@ public class DirectoryEntry {
 	/** Size of the directory entry */
 	static final int SIZE = DataDefinition.size(fields);
 
-	/** The Directory Entry Name (64 bytes)
+	/** Offset of the object type in a directory entry, for reading it without decoding the whole entry.
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
+	*/
+	static final int OBJECT_TYPE_OFFSET = 0x42;
+
+	/** Offset of the left sibling ID in a directory entry, for reading it without decoding the whole entry.
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
+	*/
+	static final int LEFT_SIBLING_ID_OFFSET = 0x44;
+
+	/** Offset of the right sibling ID in a directory entry, for reading it without decoding the whole entry.
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
+	*/
+	static final int RIGHT_SIBLING_ID_OFFSET = 0x48;
+
+	/** Offset of the child ID in a directory entry, for reading it without decoding the whole entry.
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
 	*/
-	final String directoryEntryName;
+	static final int CHILD_ID_OFFSET = 0x4c;
+
+	/** The Directory Entry Name (64 bytes), created from the raw name the first time it is needed. Since Strings are
+	*   immutable, a race between threads can at worst create it twice.
+	*	@see #directoryEntryName()
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
+	*/
+	private String directoryEntryName;
 
 	/** The Directory Entry Name Length (2 bytes)
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
 	*/
-	final int directoryEntryPosition;
+	final long directoryEntryPosition;
 
 	/** The Object Type (1 byte). See also {@link ObjectType}
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
@@ -269,7 +303,6 @@ public class DirectoryEntry {
 	private final DataContainer dc;
 
 	/** Base class constructor. Set member variables.
-	*	@param	directoryEntryName	The name of the directory entry
 	*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 	*	@param	objectType		The {@link ObjectType} of the entry
 	*	@param	leftSiblingId		The index of the entry's left sibling
@@ -284,9 +317,8 @@ public class DirectoryEntry {
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/60fe8611-66c3-496b-b70d-a504c94c9ace">MS-OXCFB Section 2.6.1: Compound File Directory Entry</a>
 	*/
 	@SuppressWarnings("PMD.ExcessiveParameterList")
-	private DirectoryEntry(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+	private DirectoryEntry(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 	{
-		this.directoryEntryName = directoryEntryName;
 		this.directoryEntryPosition = directoryEntryPosition;
 		this.objectType = objectType;
 		this.leftSiblingId = leftSiblingId;
@@ -300,6 +332,97 @@ public class DirectoryEntry {
 		this.dc = dc;
 	}
 
+	/** Get the directory entry name, creating it from the raw UTF-16LE name if this has not already been done.
+	*	@return	The directory entry name
+	*/
+	String directoryEntryName()
+	{
+		String name = directoryEntryName;
+		if (name == null){
+			byte[] rawName = (byte[])dc.get(nm_DirectoryEntryName);
+			name = DataType.createString(java.util.Arrays.copyOf(rawName, 2*nameLength(dc)));
+			directoryEntryName = name;
+		}
+		return name;
+	}
+
+	/** Get the number of characters in a directory entry name, not including the terminating null.
+	*	@param	dc	The data container the directory entry was read into
+	*	@return	The number of characters in the entry's name
+	*/
+	private static int nameLength(DataContainer dc)
+	{
+		/* The name length includes the terminating null. */
+		int nameLengthBytes = (Short)dc.get(nm_DirectoryEntryNameLength) - 1;
+		return Math.max(0, Math.min(nameLengthBytes/2, MAX_NAME_CHARS));
+	}
+
+	/** Get a character from a raw UTF-16LE directory entry name.
+	*	@param	rawName	The raw name
+	*	@param	i	The index of the character to retrieve
+	*	@return	The character at the given index
+	*/
+	private static char nameChar(byte[] rawName, int i)
+	{
+		return (char)((rawName[2*i] & 0xff) | (rawName[2*i+1] & 0xff) << 8);
+	}
+
+	/** Does a raw UTF-16LE directory entry name start with the given ASCII string?
+	*	@param	rawName	The raw name
+	*	@param	nameLength	The number of characters in the name
+	*	@param	prefix	The string to compare the start of the name to
+	*	@return	true if the first characters of the name are the given string, false otherwise
+	*/
+	private static boolean nameStartsWith(byte[] rawName, int nameLength, String prefix)
+	{
+		if (nameLength < prefix.length())
+			return false;
+		for (int i = 0; i < prefix.length(); ++i){
+			if (nameChar(rawName, i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** Is a raw UTF-16LE directory entry name equal to the given ASCII string?
+	*	@param	rawName	The raw name
+	*	@param	nameLength	The number of characters in the name
+	*	@param	name	The string to compare the name to
+	*	@return	true if the name is the given string, false otherwise
+	*/
+	private static boolean nameEquals(byte[] rawName, int nameLength, String name)
+	{
+		return nameLength == name.length() && nameStartsWith(rawName, nameLength, name);
+	}
+
+	/** Parse the hexadecimal number which ends a String Stream, Recipient, or Attachment entry name.
+	*	@param	rawName	The raw name
+	*	@param	nameLength	The number of characters in the name
+	*	@param	prefix	The part of the name before the number
+	*	@return	The number, or -1 if the name is not the prefix followed by exactly {@link #NAME_SUFFIX_DIGITS} hexadecimal digits.
+	*/
+	private static long parseNameSuffix(byte[] rawName, int nameLength, String prefix)
+	{
+		if (nameLength != prefix.length() + NAME_SUFFIX_DIGITS || !nameStartsWith(rawName, nameLength, prefix))
+			return -1;
+
+		long value = 0;
+		for (int i = prefix.length(); i < nameLength; ++i){
+			char c = nameChar(rawName, i);
+			int digit;
+			if (c >= '0' && c <= '9')
+				digit = c - '0';
+			else if (c >= 'a' && c <= 'f')
+				digit = c - 'a' + 10;
+			else if (c >= 'A' && c <= 'F')
+				digit = c - 'A' + 10;
+			else
+				return -1;
+			value = value << 4 | digit;
+		}
+		return value;
+	}
+
 	/** Get the properties from a Properties object as a HashMap indexed by the property tag.
 	*	@param	data	The bytes in the entry
 	*	@param	parent	The mapping of child nodes to their parents
@@ -322,6 +445,29 @@ public class DirectoryEntry {
 		return new java.util.ArrayList<Property>();
 	}
 
+	/** Get the properties from a Properties object as an IntMap indexed by the property tag.
+	*	@param	propertyStream	The contents of the entry
+	*	@param	parent	The entry's parent
+	*	@param	namedProperties	The file's named properties object
+	*	@return	An empty IntMap for base class
+	*/
+	IntMap<Property> propertiesAsIntMap(java.nio.ByteBuffer propertyStream, final DirectoryEntry parent, NamedProperties namedProperties)
+	{
+		return new IntMap<Property>();
+	}
+
+	/** Get the requested properties from a Properties object as an IntMap indexed by the property tag.
+	*	@param	propertyStream	The contents of the entry
+	*	@param	parent	The entry's parent
+	*	@param	namedProperties	The file's named properties object
+	*	@param	sortedTags	The property tags to retrieve, in ascending order
+	*	@return	An empty IntMap for base class
+	*/
+	IntMap<Property> selectedProperties(java.nio.ByteBuffer propertyStream, final DirectoryEntry parent, NamedProperties namedProperties, int[] sortedTags)
+	{
+		return new IntMap<Property>();
+	}
+
 	/** Get the Property header information. The header is different for children of the Root, included emails, and Recipient/Attachment objects.
 	*	@param	data	The bytes in the Properties object.
 	*	@return	A KVPArray of the properties header data. For most classes this is empty.
@@ -340,20 +486,96 @@ public class DirectoryEntry {
 		return 0;
 	}
 
+	/** Add this entry to the list or index of special entries of its type, if any. The default implementation,
+	*   suitable for all classes except Attachment, NamedPropertiesMapping, Properties, Recipient, and Substorage, does
+	*   nothing.
+	*	@param	lists	The lists of special entries
+	*	@param	parentId	The index of the entry's parent in the directory
+	*/
+	void addTo(Directory.EntryLists lists, int parentId)
+	{
+	}
+
+	/** Is the entry's content stored in the mini stream?
+	*	@param	header	The file's Header object
+	*	@return	true if the content is stored in the mini stream, false if it is stored in the FAT
+	*/
+	boolean isInMiniStream(Header header)
+	{
+		return header.isInMiniStream(streamSize);
+	}
+
 	/** Get the entry's contents, if any.
-	*	@param	mbb	The ByteBuffer to read the data from
+	*	@param	dataSource	The file to read the data from
 	*	@param	header	The file's Header object
 	*	@param	fat	The file's FAT
 	*	@param	miniFAT	The file's Mini FAT
 	*	@return	The bytes in the entry.
+	*	@throws	IllegalStateException	The file has been closed, and its FAT and mini FAT may have been reused.
 	*/
-	byte[] getContent(java.nio.MappedByteBuffer mbb, Header header, FAT fat, MiniFAT miniFAT)
+	byte[] getContent(DataSource dataSource, Header header, FAT fat, MiniFAT miniFAT)
 	{
-		if (streamSize == 0)
-			return null;
-		if (header.isInMiniStream(streamSize))
-			return miniFAT.read(startingSectorLocation, streamSize, mbb);
-		return fat.read(startingSectorLocation, streamSize, mbb, header);
+		dataSource.beginTableRead();
+		try {
+			if (streamSize == 0)
+				return null;
+			if (isInMiniStream(header))
+				return miniFAT.read(startingSectorLocation, streamSize, dataSource);
+			return fat.read(startingSectorLocation, streamSize, dataSource, header);
+		} finally {
+			dataSource.endTableRead();
+		}
+	}
+
+	/** Get read-only views of the entry's contents in the file, copied only if the data source's views are copies.
+	*	@param	dataSource	The file to read the data from
+	*	@param	header	The file's Header object
+	*	@param	fat	The file's FAT
+	*	@param	miniFAT	The file's Mini FAT
+	*	@return	A list of read-only ByteBuffers holding the bytes in the entry, in order; this is empty if the entry has no content.
+	*	@throws	IllegalStateException	The file has been closed, and its FAT and mini FAT may have been reused.
+	*/
+	java.util.List<java.nio.ByteBuffer> getContentBuffers(DataSource dataSource, Header header, FAT fat, MiniFAT miniFAT)
+	{
+		dataSource.beginTableRead();
+		try {
+			if (streamSize == 0)
+				return new java.util.ArrayList<java.nio.ByteBuffer>();
+			if (isInMiniStream(header))
+				return miniFAT.buffers(startingSectorLocation, streamSize, dataSource);
+			return fat.buffers(startingSectorLocation, streamSize, dataSource, header);
+		} finally {
+			dataSource.endTableRead();
+		}
+	}
+
+	/** Get the entry's contents as a single read-only little-endian buffer. This is a view of the file if the entry's
+	*   sectors are contiguous and the data source's views are taken directly from the file, and a copy otherwise.
+	*	@param	dataSource	The file to read the data from
+	*	@param	header	The file's Header object
+	*	@param	fat	The file's FAT
+	*	@param	miniFAT	The file's Mini FAT
+	*	@return	A read-only ByteBuffer holding the bytes in the entry
+	*	@throws	UnsupportedOperationException	The entry's sectors are not contiguous and it is too large to be copied into a single buffer.
+	*/
+	java.nio.ByteBuffer getContentBuffer(DataSource dataSource, Header header, FAT fat, MiniFAT miniFAT)
+	{
+		java.util.List<java.nio.ByteBuffer> buffers = getContentBuffers(dataSource, header, fat, miniFAT);
+		if (buffers.size() == 1)
+			return buffers.get(0).slice().order(java.nio.ByteOrder.LITTLE_ENDIAN);
+
+		if (streamSize > FAT.MAX_ARRAY_SIZE)
+			throw new UnsupportedOperationException(String.format("Stream of %d bytes is too large to copy into a single buffer", streamSize));
+
+		int size = 0;
+		java.nio.ByteBuffer[] views = buffers.toArray(new java.nio.ByteBuffer[0]);
+		for (java.nio.ByteBuffer b : views)
+			size += b.remaining();
+		java.nio.ByteBuffer content = java.nio.ByteBuffer.allocate(size);
+		for (java.nio.ByteBuffer b : views)
+			content.put(b);
+		content.flip();
+		return content.asReadOnlyBuffer().order(java.nio.ByteOrder.LITTLE_ENDIAN);
 	}
 
 	/** Return a String representation of the data bytes
@@ -421,7 +643,7 @@ public class DirectoryEntry {
 			"left sibling 0x%08x right sibling 0x%08x child 0x%08x%n" +
 			"class ID %s%n" +
 			"created %s modified %s%n",
-		directoryEntryName,
+		directoryEntryName(),
 		startingSectorLocation, startingSectorLocation, streamSize,
 		objectType.toString(),
 		leftSiblingId, rightSiblingId, childId,
@@ -436,7 +658,6 @@ public class DirectoryEntry {
 	private static class Attachment extends DirectoryEntry {
 
 		/** Construct an Attachment directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -449,9 +670,19 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private Attachment(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private Attachment(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		}
+
+		/** Add this entry to the list of attachment entries.
+		*	@param	lists	The lists of special entries
+		*	@param	parentId	The index of the entry's parent in the directory
+		*/
+		@Override
+		void addTo(Directory.EntryLists lists, int parentId)
+		{
+			lists.attachmentEntries.add(this);
 		}
 
 		/** Get the size of the Property header information for Attachment objects.
@@ -470,7 +701,6 @@ public class DirectoryEntry {
 	private static class NamedPropertiesMapping extends DirectoryEntry {
 
 		/** Construct a NamedPropertiesMapping directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -483,9 +713,19 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private NamedPropertiesMapping(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private NamedPropertiesMapping(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		}
+
+		/** Record this entry as the named properties mapping entry.
+		*	@param	lists	The lists of special entries
+		*	@param	parentId	The index of the entry's parent in the directory
+		*/
+		@Override
+		void addTo(Directory.EntryLists lists, int parentId)
+		{
+			lists.namedPropertiesMappingEntry = this;
 		}
 	}
 
@@ -495,7 +735,6 @@ public class DirectoryEntry {
 	private static class Properties extends DirectoryEntry {
 
 		/** Construct a Properties directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -508,9 +747,20 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private Properties(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private Properties(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		}
+
+		/** Add this entry to the list of properties entries.
+		*	@param	lists	The lists of special entries
+		*	@param	parentId	The index of the entry's parent in the directory
+		*/
+		@Override
+		void addTo(Directory.EntryLists lists, int parentId)
+		{
+			lists.propertyEntries.add(this);
+			lists.propertiesEntryByParent.putIfAbsent(parentId, this);
 		}
 
 		/** Get the properties from a Properties object as a HashMap indexed by the property tag.
@@ -556,6 +806,50 @@ public class DirectoryEntry {
 			}
 			return properties;
 		}
+
+		/** Get the properties from a Properties object as an IntMap indexed by the property tag.
+		*	@param	propertyStream	The contents of the entry
+		*	@param	parent	The entry's parent
+		*	@param	namedProperties	The file's named properties object
+		*	@return	An IntMap of Property objects containing the property data defined in the Properties entry.
+		*/
+		@Override
+		IntMap<Property> propertiesAsIntMap(java.nio.ByteBuffer propertyStream, final DirectoryEntry parent, NamedProperties namedProperties)
+		{
+			propertyStream.position(parent.getChildPropertiesHeaderSize());
+			IntMap<Property> properties = new IntMap<Property>(propertyStream.remaining() / Property.SIZE);
+			while (propertyStream.remaining() >= Property.SIZE){
+				Property p = Property.factory(propertyStream, namedProperties, parent);
+				properties.put(p.propertyTag, p);
+			}
+			return properties;
+		}
+
+		/** Get the requested properties from a Properties object as an IntMap indexed by the property tag. The property
+		*   records which were not requested are skipped without being read.
+		*	@param	propertyStream	The contents of the entry
+		*	@param	parent	The entry's parent
+		*	@param	namedProperties	The file's named properties object
+		*	@param	sortedTags	The property tags to retrieve, in ascending order
+		*	@return	An IntMap of Property objects for the requested properties found in the Properties entry
+		*/
+		@Override
+		IntMap<Property> selectedProperties(java.nio.ByteBuffer propertyStream, final DirectoryEntry parent, NamedProperties namedProperties, int[] sortedTags)
+		{
+			IntMap<Property> properties = super.selectedProperties(propertyStream, parent, namedProperties, sortedTags);
+
+			propertyStream.position(parent.getChildPropertiesHeaderSize());
+			while (propertyStream.remaining() >= Property.SIZE && properties.size() < sortedTags.length){
+				if (java.util.Arrays.binarySearch(sortedTags, propertyStream.getInt(propertyStream.position())) < 0){
+					propertyStream.position(propertyStream.position() + Property.SIZE);
+					continue;
+				}
+
+				Property p = Property.factory(propertyStream, namedProperties, parent);
+				properties.put(p.propertyTag, p);
+			}
+			return properties;
+		}
 	}
 
 	/** Recipient Object Storage
@@ -564,7 +858,6 @@ public class DirectoryEntry {
 	private static class Recipient extends DirectoryEntry {
 
 		/** Construct a Recipient directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -577,9 +870,19 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private Recipient(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private Recipient(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		{
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		}
+
+		/** Add this entry to the list of recipient entries.
+		*	@param	lists	The lists of special entries
+		*	@param	parentId	The index of the entry's parent in the directory
+		*/
+		@Override
+		void addTo(Directory.EntryLists lists, int parentId)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			lists.recipientEntries.add(this);
 		}
 
 		/** Get the size of the Property header information for Recipient objects.
@@ -598,7 +901,6 @@ public class DirectoryEntry {
 	private static class RootEntry extends DirectoryEntry {
 
 		/** Construct a RootEntry directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -611,9 +913,9 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private RootEntry(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private RootEntry(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
 		}
 
 		/** Get the Property header information. The header is different for children of the Root, included emails, and Recipient/Attachment objects.
@@ -626,6 +928,17 @@ public class DirectoryEntry {
 			return super.getMessageProperties(data);
 		}
 
+		/** Is the entry's content stored in the mini stream? The root entry's content is the mini stream, which is always stored in the FAT, whatever its size.
+		*	@param	header	The file's Header object
+		*	@return	false
+		*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/026fde6e-143d-41bf-a7da-c08b2130d50e">MS-CFB Section 2.6.2: Root Directory Entry</a>
+		*/
+		@Override
+		boolean isInMiniStream(Header header)
+		{
+			return false;
+		}
+
 		/** Get the size of the Property header information for the Root object.
 		*	@return	The size of the Properties header for the root object
 		*/
@@ -656,7 +969,6 @@ public class DirectoryEntry {
 		int propertyTag;
 
 		/** Construct a Substorage directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -669,10 +981,10 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private Substorage(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, String propertyTag, DataContainer dc)
+		private Substorage(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, int propertyTag, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-			this.propertyTag = (int)Long.parseLong(propertyTag, 16);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			this.propertyTag = propertyTag;
 		}
 
 		/** Get the Property header information. The header is different for children of the Root, included emails, and Recipient/Attachment objects.
@@ -692,7 +1004,17 @@ public class DirectoryEntry {
 		@Override
 		int getChildPropertiesHeaderSize()
 		{
-			return 28;
+			return 24;
+		}
+
+		/** Add this entry to the index of property value streams.
+		*	@param	lists	The lists of special entries
+		*	@param	parentId	The index of the entry's parent in the directory
+		*/
+		@Override
+		void addTo(Directory.EntryLists lists, int parentId)
+		{
+			lists.addSubstorage(parentId, propertyTag, this);
 		}
 
 		/** Get the property tag (ID and type code), if any.
@@ -724,7 +1046,6 @@ public class DirectoryEntry {
 	private static class Unallocated extends DirectoryEntry {
 
 		/** Construct an Unallocated directory entry from the directory entry data
-		*	@param	directoryEntryName	The name of the directory entry
 		*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 		*	@param	objectType		The {@link ObjectType} of the entry
 		*	@param	leftSiblingId		The index of the entry's left sibling
@@ -737,19 +1058,19 @@ public class DirectoryEntry {
 		*	@param	streamSize		The size of the data
 		*	@param	dc			The data container all the information was read from
 		*/
-		private Unallocated(String directoryEntryName, int directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
+		private Unallocated(long directoryEntryPosition, ObjectType objectType, int leftSiblingId, int rightSiblingId, int childId, GUID clsid, java.util.Date creationTime, java.util.Date modifiedTime, int startingSectorLocation, long streamSize, DataContainer dc)
 		{
-			super(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			super(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
 		}
 	}
 
 	/** Make full directory information data available to client applications
 	*	@param	namedProperties	The file's named properties object
-	*	@param	parents		The mapping of child nodes to their parents
+	*	@param	parent		The entry's parent, or null for the root entry
 	*	@return	An array of key-value pairs consisting of a description of the data and the data itself
 	*/
 	@SuppressWarnings("JavaUtilDate") // Relaticely safe use of java.util.Date
-	KVPArray<String, String> data(final NamedProperties namedProperties, final java.util.Map<DirectoryEntry, DirectoryEntry> parents)
+	KVPArray<String, String> data(final NamedProperties namedProperties, final DirectoryEntry parent)
 	{
 		/* See MS-OXMSG Section 2.2.3: Named Property Storage */
 		final int GUID_STREAM_PROPERTY_TAG = 0x00020102;
@@ -761,13 +1082,13 @@ public class DirectoryEntry {
 		int propertyTag = getPropertyTag();
 		boolean hasPropertyTag = true;
 		String propertyName;
-		if (directoryEntryName.equals(ROOT_ENTRY)){
+		if (directoryEntryName().equals(ROOT_ENTRY)){
 			hasPropertyTag = false;
 			propertyName = "Root Entry";
-		} else if (directoryEntryName.equals(NAMEID)){
+		} else if (directoryEntryName().equals(NAMEID)){
 			hasPropertyTag = false;
 			propertyName = "Named Property Mapping Storage";
-		} else if (parents.get(this).directoryEntryName.equals(NAMEID)){
+		} else if (parent.directoryEntryName().equals(NAMEID)){
 			if (propertyTag == GUID_STREAM_PROPERTY_TAG) {
 				propertyName = "GUID Stream";
 			} else if (propertyTag == ENTRY_STREAM_PROPERTY_TAG) {
@@ -780,7 +1101,7 @@ public class DirectoryEntry {
 		} else if (propertyTag == NO_PROPERTY_TAG) {
 			hasPropertyTag= false;
 			propertyName = "n/a";
-		} else if (PropertyTags.tags.keySet().contains(propertyTag)) {
+		} else if (PropertyTags.tags.containsKey(propertyTag)) {
 			propertyName = PropertyTags.tags.get(propertyTag);
 		} else if ((propertyTag & 0x80000000) != 0) {
 			int propertyIndex = (propertyTag >> 16) & 0x7fff;
@@ -796,7 +1117,7 @@ public class DirectoryEntry {
 			l.add(nm_PropertyTag, "n/a");
 		}
 		l.add(nm_PropertyType, getPropertyType());
-		l.add(nm_DirectoryEntryName, directoryEntryName);
+		l.add(nm_DirectoryEntryName, directoryEntryName());
 		l.add(nm_DirectoryEntryNameLength, Short.toString((Short)dc.get(nm_DirectoryEntryNameLength)));
 		l.add(nm_ObjectType, objectType.toString());
 		l.add(nm_ColorFlag, Byte.toString((Byte)dc.get(nm_ColorFlag)));
@@ -813,25 +1134,25 @@ public class DirectoryEntry {
 	}
 
 	/** Create a directory entry of the required type based on the directory entry name.
-	*	@param	byteBuffer	The data stream for the msg file
-	*	@param	cd		The holder for information used to build the {link @Directory#Directory Directory constructor} after all entries have been read.
+	*	@param	byteBuffer	The data for this directory entry
+	*	@param	directoryEntryPosition	The byte offset into the file of the directory entry
 	*	@return	The DirectoryEntry object read from the byteBuffer
 	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
 	*	@throws	java.io.IOException	If the file could not be read
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
 	*/
-	static DirectoryEntry factory(java.nio.ByteBuffer byteBuffer, Directory.ConstructorData cd)
+	static DirectoryEntry factory(java.nio.ByteBuffer byteBuffer, long directoryEntryPosition)
 	throws
 		UnknownStorageTypeException,
 		java.io.IOException
 	{
 		DataContainer dc = new DataContainer();
-		int directoryEntryPosition = byteBuffer.position();
 		dc.read(byteBuffer, fields);
 
-		/* The name length returned includes the terminating null. */
-		int directoryEntryNameLength = (Short)dc.get(nm_DirectoryEntryNameLength) - 1;
-		String directoryEntryName = ((String)dc.get(nm_DirectoryEntryName)).substring(0, directoryEntryNameLength/2);
+		/* The entry is classified by comparing the raw UTF-16LE name with the known names, so no String is created
+		*  for entries whose names are never displayed. */
+		byte[] rawName = (byte[])dc.get(nm_DirectoryEntryName);
+		int nameLength = nameLength(dc);
 		ObjectType objectType = ObjectType.valueOf((Byte)dc.get(nm_ObjectType));
 		int leftSiblingId = (Integer)dc.get(nm_LeftSiblingId);
 		int rightSiblingId = (Integer)dc.get(nm_RightSiblingId);
@@ -842,32 +1163,25 @@ public class DirectoryEntry {
 		int startingSectorLocation = (Integer)dc.get(nm_StartingSectorLocation);
 		long streamSize = (Long)dc.get(nm_StreamSize);
 
-		java.util.regex.Matcher matcher;
-		if (ROOT_ENTRY.equals(directoryEntryName)){
-			return new RootEntry(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-		} else if (NAMEID.equals(directoryEntryName)){
-			DirectoryEntry de = new NamedPropertiesMapping(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-			cd.namedPropertiesMappingEntry = de;
-			return de;
-		} else if ((matcher = STRING_STREAM_PATTERN.matcher(directoryEntryName)).matches()){
-			return new Substorage(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, matcher.group(1), dc);
-		} else if (PROPERTIES.equals(directoryEntryName)){
-			DirectoryEntry de = new Properties(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-			cd.propertyEntries.add(de);
-			return de;
-		} else if (RECIP_PATTERN.matcher(directoryEntryName).matches()){
-			DirectoryEntry de = new Recipient(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-			cd.recipientEntries.add(de);
-			return de;
-		} else if (ATTACH_PATTERN.matcher(directoryEntryName).matches()){
-			DirectoryEntry de = new Attachment(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
-			cd.attachmentEntries.add(de);
-			return de;
-		} else if (UNALLOCATED.equals(directoryEntryName)){
-			return new Unallocated(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		long substorageTag;
+		if (nameEquals(rawName, nameLength, ROOT_ENTRY)){
+			return new RootEntry(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		} else if (nameEquals(rawName, nameLength, NAMEID)){
+			return new NamedPropertiesMapping(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		} else if ((substorageTag = parseNameSuffix(rawName, nameLength, STRING_STREAM_PREFIX)) != -1){
+			return new Substorage(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, (int)substorageTag, dc);
+		} else if (nameEquals(rawName, nameLength, PROPERTIES)){
+			return new Properties(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		} else if (parseNameSuffix(rawName, nameLength, RECIP_PREFIX) != -1){
+			return new Recipient(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		} else if (parseNameSuffix(rawName, nameLength, ATTACH_PREFIX) != -1){
+			return new Attachment(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+		} else if (nameEquals(rawName, nameLength, UNALLOCATED)){
+			return new Unallocated(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
 		} else {
-			System.out.println("Unrecognized directory entry name or template " + directoryEntryName);
-			return new DirectoryEntry(directoryEntryName, directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			DirectoryEntry de = new DirectoryEntry(directoryEntryPosition, objectType, leftSiblingId, rightSiblingId, childId, clsid, creationTime, modifiedTime, startingSectorLocation, streamSize, dc);
+			System.out.println("Unrecognized directory entry name or template " + de.directoryEntryName());
+			return de;
 		}
 	}
 
@@ -910,18 +1224,13 @@ public class DirectoryEntry {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					FAT fat = new FAT(mbb, header, difat);
-					Directory directory = new Directory(mbb, header, fat);
-					MiniFAT miniFAT = new MiniFAT(mbb, header, fat, directory);
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
+					Directory directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+					MiniFAT miniFAT = new MiniFAT(dataSource, header, fat, directory, OpenOptions.DEFAULT);
 
 					java.util.Iterator<DirectoryEntry> iterator = directory.entries.iterator();
 					int i = 0;
@@ -929,7 +1238,7 @@ public class DirectoryEntry {
 						DirectoryEntry de = iterator.next();
 						System.out.printf("0x%02x: left 0x%08x right 0x%08x child 0x%08x %s%n",
 							i, de.leftSiblingId, de.rightSiblingId, de.childId, de.objectType.toString());
-						byte[] data = de.getContent(mbb, header, fat, miniFAT);
+						byte[] data = de.getContent(dataSource, header, fat, miniFAT);
 						if (data != null)
 							System.out.println(de.getDataAsText(data));
 						System.out.println();
@@ -943,13 +1252,15 @@ public class DirectoryEntry {
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
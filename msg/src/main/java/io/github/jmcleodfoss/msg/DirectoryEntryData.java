@@ -10,7 +10,7 @@ public class DirectoryEntryData {
 	final DirectoryEntry entry;
 
 	/** The directory entry name
-	*	@see DirectoryEntry#directoryEntryName
+	*	@see DirectoryEntry#directoryEntryName()
 	* 	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/a94d7445-c4be-49cd-b6b9-2f4abc663817">MS-CFB Section 2.6: Compound File Directory Sectors</a>
 	*/
 	public final String name;
@@ -18,7 +18,7 @@ public class DirectoryEntryData {
 	/** The Property Tag, if any. */
 	public final int propertyTag;
 
-	/** All directory information for this entry
+	/** All directory information for this entry, once it has been created
 	*	@see DirectoryEntry#nm_DirectoryEntryName
 	*	@see DirectoryEntry#nm_DirectoryEntryNameLength
 	*	@see DirectoryEntry#nm_ObjectType
@@ -35,8 +35,15 @@ public class DirectoryEntryData {
 	*	@see DirectoryEntry#nm_PropertyName
 	*	@see DirectoryEntry#nm_PropertyType
 	*	@see DirectoryEntry#data
+	*	@see #kvps()
 	*/
-	public final KVPArray<String, String> kvps;
+	private volatile KVPArray<String, String> kvps;
+
+	/** The Directory object the entry is from, used to create {@link #kvps} */
+	private final Directory directory;
+
+	/** The file's NamedProperties object, used to create {@link #kvps} */
+	private final NamedProperties namedProperties;
 
 	/** Create the external data object for the given directory entry
 	*	@param	de		The directory entry to shadow
@@ -47,9 +54,26 @@ public class DirectoryEntryData {
 	DirectoryEntryData(DirectoryEntry de, Directory directory, NamedProperties namedProperties)
 	{
 		entry = de;
-		name = de.directoryEntryName;
+		name = de.directoryEntryName();
 		propertyTag = de.getPropertyTag();
-		kvps = de.data(namedProperties, directory.parents);
+		this.directory = directory;
+		this.namedProperties = namedProperties;
+	}
+
+	/** Get all directory information for this entry, creating it the first time it is requested, since it is only
+	*   needed for display. A race between threads can at worst create it twice. Before version 2.0.0, this was the
+	*   public field kvps.
+	*	@return	The key-value pairs describing the entry
+	*	@see DirectoryEntry#data
+	*/
+	public KVPArray<String, String> kvps()
+	{
+		KVPArray<String, String> k = kvps;
+		if (k == null){
+			k = entry.data(namedProperties, directory.parent(entry));
+			kvps = k;
+		}
+		return k;
 	}
 
 	/** Create an iterator through this entry's children
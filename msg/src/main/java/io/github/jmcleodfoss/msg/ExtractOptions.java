@@ -0,0 +1,74 @@
+package io.github.jmcleodfoss.msg;
+
+/** Options controlling how attachments are extracted. ExtractOptions objects are immutable; each "with" method returns a
+*   copy with the one option changed, e.g. {@code msg.extractAttachments(dir, ExtractOptions.DEFAULT.withParallelism(8))}.
+*	@see MSG#extractAttachments
+*/
+public final class ExtractOptions {
+
+	/** The default options: one thread per available processor, and existing files left untouched. */
+	public static final ExtractOptions DEFAULT = new ExtractOptions(Runtime.getRuntime().availableProcessors(), false);
+
+	/** The number of attachments to write at once
+	*	@see #withParallelism
+	*/
+	final int parallelism;
+
+	/** Whether to replace existing files, rather than choosing a new name for the attachment
+	*	@see #withOverwrite
+	*/
+	final boolean overwrite;
+
+	/** Create an ExtractOptions object.
+	*	@param	parallelism	The number of attachments to write at once
+	*	@param	overwrite	Whether to replace existing files
+	*/
+	private ExtractOptions(int parallelism, boolean overwrite)
+	{
+		this.parallelism = parallelism;
+		this.overwrite = overwrite;
+	}
+
+	/** Get the number of attachments written at once.
+	*	@return	The number of threads used to write attachments
+	*	@see #withParallelism
+	*/
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/** Are existing files replaced?
+	*	@return	true if existing files are replaced, false if attachments are given new names instead.
+	*	@see #withOverwrite
+	*/
+	public boolean isOverwrite()
+	{
+		return overwrite;
+	}
+
+	/** Get a copy of these options with the given number of attachments written at once.
+	*	@param	parallelism	The number of threads to use to write attachments
+	*	@return	A copy of these options with the given parallelism.
+	*	@throws	IllegalArgumentException	parallelism is less than 1
+	*/
+	public ExtractOptions withParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException(String.format("Parallelism must be positive, not %d", parallelism));
+		return new ExtractOptions(parallelism, overwrite);
+	}
+
+	/** Get a copy of these options which replace, or do not replace, existing files.
+	*   <p>
+	*   By default, an attachment whose name is already used by a file in the output directory, or by another
+	*   attachment, is saved as "name (n).ext" with the first unused n, as Windows does. If overwriting is enabled,
+	*   existing files are replaced instead; attachments with the same name are still given distinct names.
+	*	@param	overwrite	true to replace existing files, false to choose new names
+	*	@return	A copy of these options with the given overwrite mode.
+	*/
+	public ExtractOptions withOverwrite(boolean overwrite)
+	{
+		return new ExtractOptions(parallelism, overwrite);
+	}
+}
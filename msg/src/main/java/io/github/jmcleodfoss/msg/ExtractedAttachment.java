@@ -0,0 +1,40 @@
+package io.github.jmcleodfoss.msg;
+
+/** An entry in the manifest of extracted attachments
+*	@see MSG#extractAttachments
+*/
+public final class ExtractedAttachment {
+
+	/** The attachment's name as given in the message, or null if it has none
+	*	@see PropertyTags#PidTagAttachLongFilename
+	*	@see PropertyTags#PidTagAttachFilename
+	*/
+	public final String name;
+
+	/** The file the attachment was written to */
+	public final java.nio.file.Path path;
+
+	/** The number of bytes written */
+	public final long size;
+
+	/** Create a manifest entry
+	*	@param	name	The attachment's name as given in the message
+	*	@param	path	The file the attachment was written to
+	*	@param	size	The number of bytes written
+	*/
+	ExtractedAttachment(String name, java.nio.file.Path path, long size)
+	{
+		this.name = name;
+		this.path = path;
+		this.size = size;
+	}
+
+	/** Create a String representation of the manifest entry
+	*	@return	A String showing the attachment's name, the file it was written to, and its size
+	*/
+	@Override
+	public String toString()
+	{
+		return String.format("%s -> %s (%d bytes)", name, path, size);
+	}
+}
@@ -4,20 +4,33 @@ package io.github.jmcleodfoss.msg;
 *	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/30e1013a-a0ff-4404-9ccf-d75d835ff404">MS-CFB Section 2.3: Compound File FAT Sectors</a>
 */
 class FAT {
+	/** The largest array the VM can reliably allocate, and so the largest stream which can be read into an array */
+	static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
 	/** The number of FAT entries
 	*	@see	Header#numberOfFATSectors
 	*	@see	Header#numberOfFATEntries
 	*/
 	final private int numEntries;
 
-	/** The number of sectors in the file */
-	final private int numSectors;
+	/** The number of FAT entries which describe sectors in the file; chains are guaranteed to stay below this. */
+	final private int numSectorsInFile;
 
 	/** The list of FAT index entries. */
 	final private int[] fat;
 
+	/** The number of sectors in the contiguous run starting at each sector, i.e. the number of sectors which can be
+	*   read in a single transfer when a chain reaches the sector.
+	*/
+	final private int[] runLength;
+
+	/** Whether the tables are reused, and so whether the scratch table used to find all the chains is taken from the
+	*   current thread's context
+	*/
+	final private boolean reuseTables;
+
 	/** Iterator for FAT index entry chains */
-	private class ChainIterator implements java.util.Iterator<Integer> {
+	private class ChainIterator implements java.util.PrimitiveIterator.OfInt {
 
 		/** The next entry to be returned. */
 		private int entry;
@@ -27,7 +40,7 @@ class FAT {
 		*/
 		private ChainIterator(int firstSector)
 		{
-			entry = firstSector;
+			entry = isValidChainStart(firstSector) ? firstSector : Sector.ENDOFCHAIN;
 		}
 
 		/** Is there a new entry to return?
@@ -44,7 +57,7 @@ class FAT {
 		*	@return	the next entry in the chain as given by the FAT
 		*/
 		@Override
-		public Integer next()
+		public int nextInt()
 		{
 			if (entry == Sector.ENDOFCHAIN)
 				throw new java.util.NoSuchElementException();
@@ -55,7 +68,7 @@ class FAT {
 	}
 
 	/** Iterator for free FAT entries */
-	private class FreeSectorIterator implements java.util.Iterator<Integer> {
+	private class FreeSectorIterator implements java.util.PrimitiveIterator.OfInt {
 
 		/** The next entry to be returned. */
 		private int entry;
@@ -63,7 +76,7 @@ class FAT {
 		/** Create an iterator over the free sectors */
 		private FreeSectorIterator()
 		{
-			while (entry < numSectors && fat[entry] != Sector.FREESECT)
+			while (entry < numSectorsInFile && fat[entry] != Sector.FREESECT)
 				entry++;
 		}
 
@@ -74,31 +87,36 @@ class FAT {
 		@Override
 		public boolean hasNext()
 		{
-			return entry < numSectors && fat[entry] == Sector.FREESECT;
+			return entry < numSectorsInFile && fat[entry] == Sector.FREESECT;
 		}
 
 		/** Return the next FAT free entry
 		*	@return	The next free sector according to the FAT
 		*/
 		@Override
-		public Integer next()
+		public int nextInt()
 		{
 			int retval = entry;
 			do {
-				if (entry >= numSectors)
+				if (entry >= numSectorsInFile)
 					throw new java.util.NoSuchElementException();
 				++entry;
-			} while (entry < numSectors && fat[entry] != Sector.FREESECT);
+			} while (entry < numSectorsInFile && fat[entry] != Sector.FREESECT);
 			return retval;
 		}
 	}
 
-	/** Read in the entire FAT
-	* 	@param	mbb	The data stream
+	/** Read in the entire FAT and check its sector chains.
+	* 	@param	dataSource	The data stream
 	* 	@param	header	The CFB header structure
 	* 	@param	difat	The double-indirect file allocation table structure.
+	*	@param	options	The options controlling how strictly the FAT is checked
+	*	@throws	CorruptFileException	The FAT is corrupt and strict checking was requested.
+	*	@see ChainValidator
 	*/
-	FAT(java.nio.MappedByteBuffer mbb, Header header, DIFAT difat)
+	FAT(DataSource dataSource, Header header, DIFAT difat, OpenOptions options)
+	throws
+		CorruptFileException
 	{
 		// First index in a FAT sector is the FAT signature
 		// and the last is either the index to the next sector, or the empty sector flag, 0xffffffff
@@ -108,44 +126,103 @@ class FAT {
 		// the FAT list is rounded up to fill an integral number of sectors.
 		// Normally, a file will not end with a bunch of free sectors.
 		numEntries = header.numberOfFATEntries();
-		fat = new int[numEntries];
-
-		numSectors = header.numberOfSectors();
+		reuseTables = options.reuseTables;
+		ParseContext context = ParseContext.get(reuseTables);
+		fat = context.ints(numEntries);
+		java.util.Arrays.fill(fat, 0, numEntries, Sector.FREESECT);
 
-		mbb.rewind();
-		java.nio.IntBuffer al = mbb.asIntBuffer();
+		numSectorsInFile = Math.min(numEntries, header.numberOfSectors() - 1);
 
 		int destIndex = 0;
 
-		java.util.Iterator<Integer> difatIterator = difat.iterator();
+		java.util.PrimitiveIterator.OfInt difatIterator = difat.iterator();
 		while (difatIterator.hasNext()){
-			int currentSector = difatIterator.next();
-			if (currentSector == Sector.FREESECT)
+			int currentSector = difatIterator.nextInt();
+			if (currentSector < 0)
 				continue;
-			int readOffset = (currentSector + 1) * header.intsPerSector();
-			al.position(readOffset);
-			al.get(fat, destIndex, header.intsPerSector());
+			if (destIndex >= numEntries){
+				if (options.strict)
+					throw new CorruptFileException(String.format("DIFAT lists more than the %d FAT sectors given in the header", numEntries / header.intsPerSector()));
+				break;
+			}
+			if (header.isSectorInFile(currentSector)){
+				java.nio.IntBuffer al = dataSource.view(header.offset(currentSector), header.bytesInSector(currentSector)).asIntBuffer();
+				al.get(fat, destIndex, al.remaining());
+			} else if (options.strict){
+				throw new CorruptFileException(String.format("FAT sector %d is at sector %d, which is not in the file", destIndex / header.intsPerSector(), currentSector));
+			}
 			destIndex += header.intsPerSector();
 		}
+
+		ChainValidator.validate(fat, numSectorsInFile, "FAT", options.strict, context);
+
+		runLength = context.ints(numEntries);
+		for (int i = numEntries - 1; i >= 0; --i)
+			runLength[i] = i + 1 < numEntries && fat[i] == i + 1 ? runLength[i+1] + 1 : 1;
 	}
 
 	/** Get an iterator for this file's FAT
 	*	@param	firstSector	The first sector for the file's FAT
 	*	@return	An Iterator through the FAT sectors
 	*/
-	java.util.Iterator<Integer> chainIterator(int firstSector)
+	java.util.PrimitiveIterator.OfInt chainIterator(int firstSector)
 	{
 		return new ChainIterator(firstSector);
 	}
 
+	/** Is the given sector the start of a valid chain (or ENDOFCHAIN, for an empty chain)?
+	*	@param	sector	The first sector of the chain
+	*	@return	true if a chain starting at the given sector can be read, false otherwise
+	*/
+	boolean isValidChainStart(int sector)
+	{
+		return ChainValidator.isValidChainStart(fat, numSectorsInFile, sector);
+	}
+
+	/** Get the largest number of bytes a chain in this FAT could hold
+	*	@param	header	The file header
+	*	@return	The number of bytes in the sectors described by the FAT
+	*/
+	long maxStreamSize(Header header)
+	{
+		return Math.min((long)numSectorsInFile * header.sectorSize, header.fileSize() - header.sectorSize);
+	}
+
+	/** Limit a stream size to what a chain in this FAT could hold
+	*	@param	size	The size of a stream, as given in its directory entry
+	*	@param	header	The file header
+	*	@return	The given size, limited to the size of the sectors in the file
+	*/
+	private long limitSize(long size, Header header)
+	{
+		return Math.max(0, Math.min(size, maxStreamSize(header)));
+	}
+
+	/** Get a stream of the sectors in a chain in this file's FAT
+	*	@param	firstSector	The first sector in the chain
+	*	@return	An IntStream of the sectors in the chain, in order
+	*/
+	java.util.stream.IntStream chainStream(int firstSector)
+	{
+		return java.util.stream.StreamSupport.intStream(java.util.Spliterators.spliteratorUnknownSize(chainIterator(firstSector), java.util.Spliterator.ORDERED | java.util.Spliterator.NONNULL), false);
+	}
+
 	/** Get an iterator for free sectors in this file's FAT
 	*	@return	An iterator through the free sectors in this file's FAT
 	*/
-	java.util.Iterator<Integer> freeSectorIterator()
+	java.util.PrimitiveIterator.OfInt freeSectorIterator()
 	{
 		return new FreeSectorIterator();
 	}
 
+	/** Get a stream of the free sectors in this file's FAT
+	*	@return	An IntStream of the free sectors in the file, in order
+	*/
+	java.util.stream.IntStream freeSectorStream()
+	{
+		return java.util.stream.StreamSupport.intStream(java.util.Spliterators.spliteratorUnknownSize(freeSectorIterator(), java.util.Spliterator.ORDERED | java.util.Spliterator.DISTINCT | java.util.Spliterator.SORTED | java.util.Spliterator.NONNULL), false);
+	}
+
 	/** Get all the sector chains
 	*	@return	An ArrayList of ArrayLists containing the sector chains
 	*/
@@ -153,8 +230,10 @@ class FAT {
 	{
 		java.util.List<java.util.List<Integer>> chains = new java.util.ArrayList<java.util.List<Integer>>();
 
-		boolean[] shown = new boolean[numEntries];
-		for (int i = 0; i < numEntries; ++i){
+		ParseContext context = ParseContext.get(reuseTables);
+		boolean[] shown = context.booleans(numSectorsInFile);
+		java.util.Arrays.fill(shown, 0, numSectorsInFile, false);
+		for (int i = 0; i < numSectorsInFile; ++i){
 			if (shown[i])
 				continue;
 
@@ -175,14 +254,24 @@ class FAT {
 				thisChain.add(sector);
 				shown[sector] = true;
 				sector = fat[sector];
-			} while (sector != Sector.ENDOFCHAIN);
+			} while (sector != Sector.ENDOFCHAIN && !shown[sector]);
 
 			chains.add(thisChain);
 		}
+		context.recycle(shown);
 
 		return chains;
 	}
 
+	/** Return the tables to a context for reuse, once the file is closed.
+	*	@param	context	The context to return the tables to
+	*/
+	void recycle(ParseContext context)
+	{
+		context.recycle(fat);
+		context.recycle(runLength);
+	}
+
 	/** Get a String representation of all the sector chains in the FAT, one chain per line.
 	*	@return	A string listing all the chains in the FAT
 	*/
@@ -210,27 +299,55 @@ class FAT {
 	/** Retrieve the content of a chain of sectors
 	*	@param	startingSector	The starting sector in the chain
 	*	@param	size		The size of the chain, in bytes
-	*	@param	mbb		The byte buffer to read from
+	*	@param	dataSource	The file to read from
 	*	@param	header		The file header
-	*	@return	An array of bytes holding the contents of the sector chain.
+	*	@return	An array of bytes holding the contents of the sector chain; if the chain is invalid, this is all zeros.
+	*	@throws	UnsupportedOperationException	The chain is too large to be held in an array; use {@link #buffers} instead.
 	*/
-	byte[] read(int startingSector, long size, java.nio.MappedByteBuffer mbb, Header header)
+	byte[] read(int startingSector, long size, DataSource dataSource, Header header)
 	{
-		int nRemaining = (int)size;
+		long limitedSize = limitSize(size, header);
+		if (limitedSize > MAX_ARRAY_SIZE)
+			throw new UnsupportedOperationException(String.format("Stream of %d bytes is too large to read into an array", limitedSize));
+		int nRemaining = (int)limitedSize;
 		byte[] data = new byte[nRemaining];
-		java.util.Iterator<Integer> iter = chainIterator(startingSector);
 		int destOffset = 0;
-		while (iter.hasNext()){
-			int sector = iter.next();
-			mbb.position(header.offset(sector));
-			int nToRead = Math.min(nRemaining, header.sectorSize);
-			mbb.get(data, destOffset, nToRead);
+		int sector = isValidChainStart(startingSector) ? startingSector : Sector.ENDOFCHAIN;
+		while (nRemaining > 0 && sector != Sector.ENDOFCHAIN){
+			int nSectors = runLength[sector];
+			int nToRead = (int)Math.min(nRemaining, (long)nSectors * header.sectorSize);
+			dataSource.get(header.offset(sector), data, destOffset, (int)Math.min(nToRead, header.fileSize() - header.offset(sector)));
 			destOffset += nToRead;
 			nRemaining -= nToRead;
+			sector = fat[sector + nSectors - 1];
 		}
 		return data;
 	}
 
+	/** Get read-only views of the contents of a sector chain, copied only if the data source's views are copies.
+	*   Sectors which are contiguous in the file are returned as a single view.
+	*	@param	startingSector	The first sector in the chain
+	*	@param	size		The number of bytes in the chain
+	*	@param	dataSource	The file to read from
+	*	@param	header		The file header
+	*	@return	A list of read-only ByteBuffers holding the contents of the sector chain, in order; if the chain is
+	*		invalid, the list is empty.
+	*/
+	java.util.List<java.nio.ByteBuffer> buffers(int startingSector, long size, DataSource dataSource, Header header)
+	{
+		BufferRunList runs = new BufferRunList(dataSource);
+		long nRemaining = limitSize(size, header);
+		int sector = isValidChainStart(startingSector) ? startingSector : Sector.ENDOFCHAIN;
+		while (nRemaining > 0 && sector != Sector.ENDOFCHAIN){
+			int nSectors = runLength[sector];
+			long nToRead = Math.min(nRemaining, (long)nSectors * header.sectorSize);
+			runs.add(header.offset(sector), Math.min(nToRead, header.fileSize() - header.offset(sector)));
+			nRemaining -= nToRead;
+			sector = fat[sector + nSectors - 1];
+		}
+		return runs.buffers();
+	}
+
 	/**	Test this class by reading in the FAT index table and printing it out.
 	*	@param	args	The msg file(s) to display the FAT for.
 	*/
@@ -245,16 +362,11 @@ class FAT {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					FAT fat = new FAT(mbb, header, difat);
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
 
 					System.out.println("FAT contents");
 					for (int i = 0; i < fat.numEntries; ++i)
@@ -265,11 +377,11 @@ class FAT {
 
 					System.out.println("\nFAT free sectors");
 					StringBuilder s = new StringBuilder();
-					java.util.Iterator<Integer> iter = fat.freeSectorIterator();
+					java.util.PrimitiveIterator.OfInt iter = fat.freeSectorIterator();
 					while (iter.hasNext()){
 						if (s.length() > 0)
 							s.append(" ");
-						s.append(iter.next());
+						s.append(iter.nextInt());
 					}
 					System.out.println(s);
 				} catch (final java.io.IOException e) {
@@ -278,13 +390,15 @@ class FAT {
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
@@ -131,6 +131,11 @@ class Header {
 		new DataDefinition(nm_NumberOfDIFATSectors, DataType.integer32Reader, true),
 	};
 
+	/** The size of the header fields, in bytes. The remainder of the first sector holds the first DIFAT entries.
+	*	@see DIFAT
+	*/
+	private static final int SIZE = DataDefinition.size(header_fields);
+
 	/** The data repository (preserved after constructor since we don't
 	*   read everything from it that we might want to display).
 	*/
@@ -190,26 +195,35 @@ class Header {
 	private final int numberOfDIFATSectors;
 
 	/** Read in the header data and save the fields we need for later.
-	*	@param	byteBuffer	The data stream from which to read the PST header.
-	*	@param	fileSize	The length of the file
+	*	@param	dataSource	The CFB file from which to read the header.
 	*	@throws	NotCFBFileException	This is not a cfb file.
+	*	@throws	CorruptFileException	The sector sizes or sector counts in the header are impossible.
 	*	@throws	java.io.IOException	An I/O error was encountered when reading the msg header.
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/05060311-bfce-4b12-874d-71fd4ce63aea">MS-CFB Section 2.2: Compound File Header</a>
 	*/
-	Header(java.nio.ByteBuffer byteBuffer, long fileSize)
+	Header(DataSource dataSource)
 	throws
 		NotCFBFileException,
 		java.io.IOException
 	{
-		this.fileSize = fileSize;
+		fileSize = dataSource.size();
+		if (fileSize < SIZE)
+			throw new NotCFBFileException();
 
 		dc = new DataContainer();
-		dc.read(byteBuffer, header_fields);
+		dc.read(dataSource.view(0, SIZE), header_fields);
 
 		HeaderSignature.validate((Long)dc.get(nm_qwHeaderSignature));
 
-		sectorSize = Sector.sectorSize((Short)dc.get(nm_SectorShift));
-		miniSectorSize = Sector.sectorSize((Short)dc.get(nm_MiniSectorShift));
+		final short sectorShift = (Short)dc.get(nm_SectorShift);
+		if (sectorShift != 9 && sectorShift != 12)
+			throw new CorruptFileException(String.format("Invalid sector shift %d", sectorShift));
+		final short miniSectorShift = (Short)dc.get(nm_MiniSectorShift);
+		if (miniSectorShift != 6)
+			throw new CorruptFileException(String.format("Invalid mini sector shift %d", miniSectorShift));
+
+		sectorSize = Sector.sectorSize(sectorShift);
+		miniSectorSize = Sector.sectorSize(miniSectorShift);
 		numberOfDirectorySectors = (Integer)dc.get(nm_NumberOfDirectorySectors);
 		numberOfFATSectors = (Integer)dc.get(nm_NumberOfFATSectors);
 		firstDirectorySectorLocation = (Integer)dc.get(nm_FirstDirectorySectorLocation);
@@ -218,6 +232,23 @@ class Header {
 		numberOfMiniFATSectors = (Integer)dc.get(nm_NumberOfMiniFATSectors);
 		firstDIFATSectorLocation = (Integer)dc.get(nm_FirstDIFATSectorLocation);
 		numberOfDIFATSectors = (Integer)dc.get(nm_NumberOfDIFATSectors);
+
+		checkSectorCount(nm_NumberOfFATSectors, numberOfFATSectors);
+		checkSectorCount(nm_NumberOfMiniFATSectors, numberOfMiniFATSectors);
+		checkSectorCount(nm_NumberOfDIFATSectors, numberOfDIFATSectors);
+	}
+
+	/** Check that a sector count from the header could describe sectors in this file.
+	*	@param	name	The name of the header field, for the error message
+	*	@param	count	The number of sectors
+	*	@throws	CorruptFileException	The count is negative or larger than the number of sectors in the file.
+	*/
+	private void checkSectorCount(String name, int count)
+	throws
+		CorruptFileException
+	{
+		if (count < 0 || count > numberOfSectors())
+			throw new CorruptFileException(String.format("%s %d is impossible for a file with %d sectors", name, count, numberOfSectors()));
 	}
 
 	/** Make header data available to client applications
@@ -268,9 +299,8 @@ class Header {
 	*/
 	int numberOfDIFATEntries()
 	{
-		// First index in a DIFAT sector is the DIFAT signature
-		// and the last is either the index to the next sector, or the empty sector flag, 0xffffffff
-		return numberOfDIFATSectors * (intsPerSector() - 2);
+		// The last entry in each DIFAT sector is the index of the next DIFAT sector, or ENDOFCHAIN
+		return numberOfDIFATSectors * (intsPerSector() - 1);
 	}
 
 	/** The number of FAT entries
@@ -289,12 +319,42 @@ class Header {
 		return numberOfMiniFATSectors * sectorSize / DataType.SIZEOF_INT;
 	}
 
-	/** The number of sectors in this file
+	/** The number of sectors in this file, including the header sector. A file need not be padded to a whole number of
+	*   sectors, so a partial final sector is counted.
 	*	@return	The number of sectors (based on the sector size)
 	*/
 	int numberOfSectors()
 	{
-		return (int)(fileSize / sectorSize);
+		return (int)((fileSize + sectorSize - 1) / sectorSize);
+	}
+
+	/** Get the size of the file
+	*	@return	The number of bytes in the file
+	*/
+	long fileSize()
+	{
+		return fileSize;
+	}
+
+	/** Is the given sector within the file? The final sector may be only partly within it.
+	*	@param	sectorNumber	The sector to check
+	*	@return	true if the sector is a regular sector which starts within the file, false otherwise
+	*	@see #bytesInSector
+	*/
+	boolean isSectorInFile(int sectorNumber)
+	{
+		return sectorNumber >= 0 && sectorNumber < numberOfSectors() - 1;
+	}
+
+	/** Get the number of bytes of the given sector which are within the file. This is the sector size for every sector
+	*   but a partial final sector.
+	*	@param	sectorNumber	The sector, which must be within the file
+	*	@return	The number of bytes of the sector within the file
+	*	@see #isSectorInFile
+	*/
+	int bytesInSector(int sectorNumber)
+	{
+		return (int)Math.min(sectorSize, fileSize - offset(sectorNumber));
 	}
 
 	/** Get the offset into the file for the given sector number (excluding the header sector)
@@ -303,9 +363,9 @@ class Header {
 	*	@param	sectorNumber	The sector to get the offset of
 	*	@return	The offset into the file that the requested sector begins at.
 	*/
-	int offset(int sectorNumber)
+	long offset(int sectorNumber)
 	{
-		return (sectorNumber + 1) * sectorSize;
+		return (long)(sectorNumber + 1) * sectorSize;
 	}
 
 	/** Provide a summary of the header in String form. This is typically used for debugging.
@@ -340,14 +400,9 @@ class Header {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
+					Header header = new Header(dataSource);
 					System.out.println(header);
 
 					System.out.println();
@@ -362,13 +417,15 @@ class Header {
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
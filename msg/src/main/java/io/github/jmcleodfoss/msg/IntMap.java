@@ -0,0 +1,195 @@
+package io.github.jmcleodfoss.msg;
+
+/** A compact map from int keys to non-null values, used for property sets and the property name tables so that lookups
+*   need neither boxing nor more than one probe sequence. Keys are stored in an open-addressing table with linear
+*   probing; there is no removal, so no tombstones are needed.
+*	@param	<V>	The type of the values in the map
+*	@see PropertyTags#tags
+*	@see PropertyLIDs#lids
+*	@see MSG#getPropertiesAsIntMap
+*/
+public final class IntMap<V>
+{
+	/** The default number of slots in a new table */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The multiplier used to spread keys over the table (2^32 divided by the golden ratio) */
+	private static final int HASH_MULTIPLIER = 0x9e3779b9;
+
+	/** The keys, in slots given by their hash codes; a slot is in use if the corresponding value is not null */
+	private int[] keys;
+
+	/** The values for the keys in the corresponding slots of {@link #keys}, or null for unused slots */
+	private Object[] values;
+
+	/** The number of bits to shift the scrambled key right by to get a slot index */
+	private int shift;
+
+	/** The number of keys in the map */
+	private int size;
+
+	/** Create an empty map. */
+	IntMap()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/** Create an empty map large enough to hold the given number of keys without being resized.
+	*	@param	expectedSize	The number of keys expected to be put in the map
+	*/
+	IntMap(int expectedSize)
+	{
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/** Create empty key and value arrays with the given number of slots
+	*	@param	capacity	The number of slots, which must be a power of two
+	*/
+	private void allocate(int capacity)
+	{
+		keys = new int[capacity];
+		values = new Object[capacity];
+		shift = Integer.numberOfLeadingZeros(capacity - 1);
+	}
+
+	/** Find the slot for a key
+	*	@param	key	The key to look for
+	*	@return	The slot holding the key, or the empty slot where it should be put if it is not in the map
+	*/
+	private int slot(int key)
+	{
+		final int mask = keys.length - 1;
+		int i = (key * HASH_MULTIPLIER) >>> shift & mask;
+		while (values[i] != null && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/** Is the given key in the map?
+	*	@param	key	The key to look for
+	*	@return	true if the map has a value for the key, false otherwise
+	*/
+	public boolean containsKey(int key)
+	{
+		return values[slot(key)] != null;
+	}
+
+	/** Get the value for a key
+	*	@param	key	The key to look up
+	*	@return	The value for the key, or null if it is not in the map
+	*/
+	@SuppressWarnings("unchecked") // Only values of type V are put in the array
+	public V get(int key)
+	{
+		return (V)values[slot(key)];
+	}
+
+	/** Is the map empty?
+	*	@return	true if there are no keys in the map, false otherwise
+	*/
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/** Get the keys in the map
+	*	@return	A new array of the keys in the map, in ascending order
+	*/
+	public int[] keys()
+	{
+		int[] k = new int[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; ++i){
+			if (values[i] != null)
+				k[n++] = keys[i];
+		}
+		java.util.Arrays.sort(k);
+		return k;
+	}
+
+	/** Set the value for a key, replacing any existing value.
+	*	@param	key	The key
+	*	@param	value	The value, which must not be null
+	*	@return	The previous value for the key, or null if there was none
+	*/
+	@SuppressWarnings("unchecked") // Only values of type V are put in the array
+	V put(int key, V value)
+	{
+		java.util.Objects.requireNonNull(value);
+
+		int i = slot(key);
+		final V previous = (V)values[i];
+		keys[i] = key;
+		values[i] = value;
+		if (previous == null && ++size > keys.length / 2)
+			grow();
+		return previous;
+	}
+
+	/** Set the value for a key if it is not already in the map.
+	*	@param	key	The key
+	*	@param	value	The value, which must not be null
+	*	@return	The existing value for the key, or null if there was none and the new value was added
+	*/
+	V putIfAbsent(int key, V value)
+	{
+		final V existing = get(key);
+		return existing == null ? put(key, value) : existing;
+	}
+
+	/** Get the number of keys in the map
+	*	@return	The number of keys in the map
+	*/
+	public int size()
+	{
+		return size;
+	}
+
+	/** Double the size of the table, moving all the keys to their new slots. */
+	private void grow()
+	{
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		for (int i = 0; i < oldKeys.length; ++i){
+			if (oldValues[i] != null){
+				final int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/** Test this class by adding and looking up keys and comparing the results with those from a HashMap.
+	*	@param	args	Unused
+	*/
+	@SuppressWarnings("PMD.DoNotCallSystemExit")
+	public static void main(String[] args)
+	{
+		java.util.Random random = new java.util.Random(1);
+		IntMap<Integer> intMap = new IntMap<Integer>();
+		java.util.HashMap<Integer, Integer> hashMap = new java.util.HashMap<Integer, Integer>();
+		int mismatches = 0;
+		for (int i = 0; i < 100000; ++i){
+			int key = random.nextInt(50000) - 25000;
+			if (random.nextBoolean()){
+				if (!java.util.Objects.equals(intMap.put(key, i), hashMap.put(key, i)))
+					++mismatches;
+			} else if (!java.util.Objects.equals(intMap.get(key), hashMap.get(key)) || intMap.containsKey(key) != hashMap.containsKey(key)) {
+				++mismatches;
+			}
+		}
+		if (intMap.size() != hashMap.size() || intMap.keys().length != hashMap.size())
+			++mismatches;
+		for (int key : intMap.keys()){
+			if (!java.util.Objects.equals(intMap.get(key), hashMap.get(key)))
+				++mismatches;
+		}
+		System.out.printf("%d keys, %d mismatches%n", intMap.size(), mismatches);
+		if (mismatches > 0)
+			System.exit(1);
+	}
+}
@@ -2,35 +2,90 @@ package io.github.jmcleodfoss.msg;
 
 /** Consolidated public interface for reading MSG files (this will probably work for other CFB
 *   files but has special handling for some information found only in MSG files).
+*   <p>
+*   Once constructed, an MSG object may be read from several threads at once (for example, to extract attachments in
+*   parallel): all file contents are read by absolute offset, and the file structures are not modified after the
+*   constructor returns. {@link #close} must not be called while other threads are still reading.
+*   <p>
+*   An MSG object may also be a view of a message embedded in an attachment of another message, returned by
+*   {@link #getEmbeddedMessage}. The view shares the file and its structures with the message containing it, so
+*   nested messages can be read without copying them. The message-level methods (e.g. {@link #getDirectoryTree},
+*   {@link #attachments}, {@link #recipients}, and {@link #summary}) then apply to the embedded message, while the
+*   file-level methods (e.g. {@link #headerData}, {@link #fatData}, and {@link #getSector}) describe the containing file.
+*   <p>
+*   An MSG object opened from a file name or a FileChannel should be closed when it is no longer needed, e.g. with
+*   try-with-resources; closing it closes the file and unmaps it as soon as any reads in progress finish. Buffers
+*   returned for such a file are copies rather than views of the mapping, so they remain usable after it is closed.
+*   After it is closed, any method which reads the file throws an IllegalStateException.
 */
-public class MSG
+public class MSG implements java.io.Closeable
 {
-	/** The file stream for the msg file */
-	private java.io.FileInputStream stream;
-
-	/** The FileChannel of the data stream, used to jump around the file. */
-	private java.nio.channels.FileChannel fc;
-
-	/** The file, as a memory-mapped byte file. */
-	private java.nio.MappedByteBuffer mbb;
+	/** The source of the file contents */
+	private final DataSource dataSource;
 
 	/** The header */
-	private Header header;
+	private final Header header;
 
 	/** The DIFAT */
-	private DIFAT difat;
+	private final DIFAT difat;
 
 	/** The DAT */
-	private FAT fat;
+	private final FAT fat;
 
 	/** The directory */
-	private Directory directory;
+	private final Directory directory;
 
 	/** The Mini FAT */
-	private MiniFAT miniFAT;
+	private final MiniFAT miniFAT;
 
 	/** The named properties */
-	private NamedProperties namedProperties;
+	private final NamedProperties namedProperties;
+
+	/** The storage holding the message: the root entry, or the storage of an embedded message */
+	private final DirectoryEntry root;
+
+	/** Is this a view of an embedded message, which shares the containing message's file? */
+	private final boolean embedded;
+
+	/** The context the DIFAT, FAT, and mini FAT tables were taken from, to return them to for reuse if the file is
+	*   closed by the thread which opened it
+	*	@see OpenOptions#withTableReuse
+	*/
+	private final ParseContext tableContext;
+
+	/** The fixed-width properties of the message read for its summary, in ascending order
+	*	@see #summary
+	*/
+	private static final int[] SUMMARY_TAGS = { PropertyTags.PidTagClientSubmitTime, PropertyTags.PidTagMessageDeliveryTime };
+
+	/** The fixed-width property of the message read to find its code page
+	*	@see #codepageCharset
+	*/
+	private static final int[] CODEPAGE_TAGS = { PropertyTags.PidTagMessageCodepage };
+
+	/** The largest number of buffers passed to a single gathering write; many platforms write no more than this
+	*	@see #writeAttachment
+	*/
+	private static final int MAX_GATHERED_BUFFERS = 1024;
+
+	/** The number of bytes of buffers fetched for a single gathering write, after which the batch is written before
+	*   any more are fetched, so an attachment read through copies is not held in memory all at once
+	*	@see #writeAttachment
+	*/
+	private static final long MAX_GATHERED_BYTES = 1L << 24;
+
+	/** The Windows device names, which cannot be used as file names with or without an extension
+	*	@see #safeFileName
+	*/
+	private static final java.util.Set<String> WINDOWS_DEVICE_NAMES = new java.util.HashSet<String>(java.util.Arrays.asList(
+		"CON", "PRN", "AUX", "NUL",
+		"COM1", "COM2", "COM3", "COM4", "COM5", "COM6", "COM7", "COM8", "COM9",
+		"LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9"));
+
+	/** The character set of the message's code page, used for 8-bit string properties, once it has been found
+	*	@see #codepageCharset
+	*/
+	private volatile java.nio.charset.Charset codepageCharset;
 
 	/** Create a FileChannel for the given filename and read in the
 	*	header, DIFAT, etc.
@@ -45,50 +100,247 @@ public class MSG
 		UnknownStorageTypeException,
 		java.io.IOException
 	{
-		stream = new java.io.FileInputStream(fn);
+		this(fn, OpenOptions.DEFAULT);
+	}
+
+	/** Create a FileChannel for the given filename and read in the
+	*	header, DIFAT, etc.
+	*	@param	fn	The name of the file to read.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The input stream does not contain a PST file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The file structure is corrupt and strict checking was requested.
+	* 	@throws	java.io.IOException	There was an I/O error reading the input stream.
+	*	@see OpenOptions
+	*/
+	public MSG(String fn, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(DataSource.map(fn, options), options);
+	}
+
+	/** Read in the header, DIFAT, etc from a msg file held in memory. The file is taken to be the bytes between the
+	*   buffer's position and its limit; the buffer's position, limit, and byte order are not changed.
+	*	@param	byteBuffer	The contents of the msg file.
+	*	@throws	NotCFBFileException	The buffer does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an error reading the file structures.
+	*/
+	public MSG(java.nio.ByteBuffer byteBuffer)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(byteBuffer, OpenOptions.DEFAULT);
+	}
+
+	/** Read in the header, DIFAT, etc from a msg file held in memory. The file is taken to be the bytes between the
+	*   buffer's position and its limit; the buffer's position, limit, and byte order are not changed.
+	*	@param	byteBuffer	The contents of the msg file.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The buffer does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The file structure is corrupt and strict checking was requested.
+	* 	@throws	java.io.IOException	There was an error reading the file structures.
+	*	@see OpenOptions
+	*/
+	public MSG(java.nio.ByteBuffer byteBuffer, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(DataSource.wrap(byteBuffer), options);
+	}
+
+	/** Read in the header, DIFAT, etc from a msg file held in a byte array. The array is used directly, not copied.
+	*	@param	data	The contents of the msg file.
+	*	@throws	NotCFBFileException	The array does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an error reading the file structures.
+	*/
+	public MSG(byte[] data)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(data, OpenOptions.DEFAULT);
+	}
+
+	/** Read in the header, DIFAT, etc from a msg file held in a byte array. The array is used directly, not copied.
+	*	@param	data	The contents of the msg file.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The array does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The file structure is corrupt and strict checking was requested.
+	* 	@throws	java.io.IOException	There was an error reading the file structures.
+	*	@see OpenOptions
+	*/
+	public MSG(byte[] data, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(DataSource.wrap(data), options);
+	}
+
+	/** Read in the header, DIFAT, etc from a channel, starting at the channel's current position. A FileChannel is
+	*   memory-mapped; any other channel is read into memory. The channel is not closed by this class.
+	*	@param	channel	The channel to read the msg file from.
+	*	@throws	NotCFBFileException	The channel does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an I/O error reading the channel.
+	*/
+	public MSG(java.nio.channels.SeekableByteChannel channel)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(channel, OpenOptions.DEFAULT);
+	}
+
+	/** Read in the header, DIFAT, etc from a channel, starting at the channel's current position. A FileChannel is
+	*   memory-mapped; any other channel is read into memory. The channel is not closed by this class.
+	*	@param	channel	The channel to read the msg file from.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The channel does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The file structure is corrupt and strict checking was requested.
+	* 	@throws	java.io.IOException	There was an I/O error reading the channel.
+	*	@see OpenOptions
+	*/
+	public MSG(java.nio.channels.SeekableByteChannel channel, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(DataSource.read(channel, options), options);
+	}
+
+	/** Read in the header, DIFAT, etc from an InputStream (e.g. an upload or a network stream). The remainder of
+	*   the stream is read into memory; the stream is not closed by this class.
+	*	@param	stream	The stream to read the msg file from.
+	*	@throws	NotCFBFileException	The stream does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an I/O error reading the input stream.
+	*/
+	public MSG(java.io.InputStream stream)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(stream, OpenOptions.DEFAULT);
+	}
+
+	/** Read in the header, DIFAT, etc from an InputStream (e.g. an upload or a network stream). The remainder of
+	*   the stream is read into memory; the stream is not closed by this class.
+	*	@param	stream	The stream to read the msg file from.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The stream does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	*	@throws	CorruptFileException	The file structure is corrupt and strict checking was requested.
+	* 	@throws	java.io.IOException	There was an I/O error reading the input stream.
+	*	@see OpenOptions
+	*/
+	public MSG(java.io.InputStream stream, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this(DataSource.read(stream), options);
+	}
+
+	/** Read in the header, DIFAT, etc from the given data source. The data source is closed if the file cannot be read.
+	*	@param	dataSource	The source of the msg file contents.
+	*	@param	options	The options controlling how the file is read.
+	*	@throws	NotCFBFileException	The data source does not contain a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an I/O error reading the data source.
+	*/
+	private MSG(DataSource dataSource, OpenOptions options)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		this.dataSource = dataSource;
 		try {
-			fc = stream.getChannel();
-			try {
-				mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-				mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-				header = new Header(mbb, fc.size());
-				difat = new DIFAT(mbb, header);
-				fat = new FAT(mbb, header, difat);
-				directory = new Directory(mbb, header, fat);
-				miniFAT = new MiniFAT(mbb, header, fat, directory);
-				namedProperties = directory.namedPropertiesMappingEntry == null ? null : new NamedProperties(mbb, header, fat, directory, miniFAT);
-			} catch (Exception e) {
-				fc.close();
-				throw e;
-			}
+			header = new Header(dataSource);
+			difat = new DIFAT(dataSource, header, options);
+			fat = new FAT(dataSource, header, difat, options);
+			directory = new Directory(dataSource, header, fat, options);
+			root = directory.entries.get(0);
+			miniFAT = new MiniFAT(dataSource, header, fat, directory, options);
+			if (options.strict)
+				directory.checkStreams(header, fat, miniFAT);
+			namedProperties = directory.namedPropertiesMappingEntry == null ? null : new NamedProperties(dataSource, header, fat, directory, miniFAT);
 		} catch (Exception e) {
-			stream.close();
+			dataSource.close();
 			throw e;
 		}
+		embedded = false;
+		tableContext = ParseContext.get(options.reuseTables);
 	}
 
-	/** Get an iterator through all attachments in the msg file
+	/** Create a view of an embedded message which shares the containing message's file and file structures.
+	*	@param	container	The message containing the embedded message
+	*	@param	root	The storage holding the embedded message
+	*	@see #getEmbeddedMessage
+	*/
+	private MSG(MSG container, DirectoryEntry root)
+	{
+		dataSource = container.dataSource;
+		header = container.header;
+		difat = container.difat;
+		fat = container.fat;
+		directory = container.directory;
+		miniFAT = container.miniFAT;
+		namedProperties = container.namedProperties;
+		this.root = root;
+		embedded = true;
+		tableContext = container.tableContext;
+	}
+
+	/** Get an iterator through all attachments in the msg file, or in the embedded message for a view of one
 	*	@return	An iterator through the attachments found when reading in the directory
-	*	@see	Directory#attachmentEntries
+	*	@see	Directory#attachmentEntries()
 	*	@see	DirectoryEntryDataIterator
 	*/
 	public java.util.Iterator<DirectoryEntryData> attachments()
 	{
-		return new DirectoryEntryDataIterator(directory.attachmentEntries.iterator(), directory, namedProperties);
+		return new DirectoryEntryDataIterator(inMessage(directory.attachmentEntries()).iterator(), directory, namedProperties);
 	}
 
-	/** Close the file.
+	/** Close the file. Any later read of the file through this object, or through a channel or stream returned by it,
+	*   throws an IllegalStateException. A mapping of the file is removed as soon as any reads in progress in other
+	*   threads finish; buffers already returned are copies, so they are not affected. Closing a file which is already
+	*   closed has no effect, and closing a view of an embedded message has no effect; the file is closed with the
+	*   message containing it. If table reuse was requested and the file is closed by the thread which opened it, the
+	*   file's tables are returned to that thread for use by the next file it opens; if another thread closes it, or a
+	*   read by another thread is still using the tables, they are dropped.
 	* 	@throws	java.io.IOException	There was a problem closing the file.
+	*	@see OpenOptions#withTableReuse
 	*/
+	@Override
 	public void close()
 	throws
 		java.io.IOException
 	{
-		try {
-			fc.close();
-		} finally {
-			stream.close();
+		if (!embedded && dataSource.close()){
+			ParseContext context = ParseContext.forClose(tableContext, dataSource);
+			difat.recycle(context);
+			fat.recycle(context);
+			miniFAT.recycle(context);
 		}
 	}
 
@@ -108,13 +360,33 @@ public class MSG
 	*/
 	public KVPArray<Integer, Integer> difatData()
 	{
-		return difat.data();
+		dataSource.beginTableRead();
+		try {
+			return difat.data();
+		} finally {
+			dataSource.endTableRead();
+		}
 	}
 
 	/** Make FAT data available to client applications
 	*	@return	An array of key-value pairs consisting of the stream names and the corresponding sector chains
 	*/
 	public KVPArray<String, String> fatData()
+	{
+		dataSource.beginTableRead();
+		try {
+			return fatChains();
+		} finally {
+			dataSource.endTableRead();
+		}
+	}
+
+	/** List the FAT chains, naming the chains of the file structures; this must be called with a table read in
+	*   progress.
+	*	@return	An array of key-value pairs consisting of the stream names and the corresponding sector chains
+	*	@see #fatData
+	*/
+	private KVPArray<String, String> fatChains()
 	{
 		final String DIRECTORY_STREAM = "DirectoryStream";
 		final String MINI_FAT_STREAM = "MiniFATStream";
@@ -177,7 +449,48 @@ public class MSG
 	*/
 	public DirectoryEntryData getDirectoryTree()
 	{
-		return new DirectoryEntryData(directory.entries.get(0), directory, namedProperties);
+		return new DirectoryEntryData(root, directory, namedProperties);
+	}
+
+	/** Get a view of the message embedded in an attachment. The view shares this message's file, FAT, mini FAT, and
+	*   named properties, so nothing is copied or read again, and it may be used only until this message is closed.
+	*   Messages embedded in the embedded message's own attachments may be retrieved from the view in the same way.
+	*	@param	attachment	The attachment entry
+	*	@return	The embedded message, or null if the attachment does not hold an embedded message
+	*	@see PropertyTags#PidTagAttachDataObject
+	*/
+	public MSG getEmbeddedMessage(DirectoryEntryData attachment)
+	{
+		DirectoryEntry storage = directory.substorage(directory.childEntryLists(attachment.entry), attachment.entry, PropertyTags.PidTagAttachDataObject);
+		if (storage == null || !storage.objectType.isStorage())
+			return null;
+		return new MSG(this, storage);
+	}
+
+	/** Is this a view of a message embedded in an attachment of another message?
+	*	@return	true if this message was returned by {@link #getEmbeddedMessage}, false if it is the file's top-level message
+	*/
+	public boolean isEmbeddedMessage()
+	{
+		return embedded;
+	}
+
+	/** Restrict a list of entries to those in this message. For the top-level message this is every entry.
+	*	@param	entries	The entries to restrict, in directory order
+	*	@return	The entries which are in this message's storage, in directory order
+	*/
+	private java.util.List<DirectoryEntry> inMessage(java.util.List<DirectoryEntry> entries)
+	{
+		if (!embedded)
+			return entries;
+
+		java.util.ArrayList<DirectoryEntry> l = new java.util.ArrayList<DirectoryEntry>();
+		for (java.util.Iterator<DirectoryEntry> iter = entries.iterator(); iter.hasNext(); ){
+			DirectoryEntry de = iter.next();
+			if (directory.isDescendant(de, root))
+				l.add(de);
+		}
+		return l;
 	}
 
 	/** Get the property entry for this entry's parent as a HashMap of properties indexed by the property tag.
@@ -186,7 +499,7 @@ public class MSG
 	*/
 	public java.util.Map<Integer, Property> getParentPropertiesAsHashMap(DirectoryEntryData ded)
 	{
-		return getPropertiesAsHashMap(directory.parents.get(ded.entry));
+		return getPropertiesAsHashMap(directory.parent(ded.entry));
 	}
 
 	/** Get the header for a property entry. The interpretation of the header changes depending on the type of the entry's parent.
@@ -196,7 +509,7 @@ public class MSG
 	*/
 	public KVPArray<String, Integer> getPropertiesHeader(DirectoryEntryData ded, byte[] data)
 	{
-		return directory.parents.get(ded.entry).getChildPropertiesHeader(data);
+		return directory.parent(ded.entry).getChildPropertiesHeader(data);
 	}
 
 	/** Parse the given data for a property entry and return a HashMap of properties indexed by the property tag.
@@ -206,7 +519,7 @@ public class MSG
 	*/
 	public java.util.Map<Integer, Property> parsePropertiesAsHashMap(DirectoryEntryData ded, byte[] data)
 	{
-		return ded.entry.propertiesAsHashMap(data, directory.parents.get(ded.entry), namedProperties);
+		return ded.entry.propertiesAsHashMap(data, directory.parent(ded.entry), namedProperties);
 	}
 
 	/** Parse the given data for a property entry and return an ArrayList of properties.
@@ -216,7 +529,7 @@ public class MSG
 	*/
 	public java.util.List<Property> parsePropertiesAsList(DirectoryEntryData ded, byte[] data)
 	{
-		return ded.entry.propertiesAsList(data, directory.parents.get(ded.entry), namedProperties);
+		return ded.entry.propertiesAsList(data, directory.parent(ded.entry), namedProperties);
 	}
 
 	/** Get the properties for a given Root Storage, Attachment, or Recipient entry as a HashMap indexed by the property tag
@@ -225,16 +538,12 @@ public class MSG
 	*/
 	private java.util.Map<Integer, Property> getPropertiesAsHashMap(DirectoryEntry de)
 	{
-		java.util.Iterator<DirectoryEntry> iter = directory.propertyEntries.iterator();
-		while (iter.hasNext())
-		{
-			DirectoryEntry propertiesEntry = iter.next();
-			if (directory.parents.get(propertiesEntry).equals(de)) {
-				byte[] data = propertiesEntry.getContent(mbb, header, fat, miniFAT);
-				return propertiesEntry.propertiesAsHashMap(data, de, namedProperties);
-			}
-		}
-		return new java.util.HashMap<Integer, Property>();
+		DirectoryEntry propertiesEntry = directory.propertiesEntry(de);
+		if (propertiesEntry == null)
+			return new java.util.HashMap<Integer, Property>();
+
+		byte[] data = propertiesEntry.getContent(dataSource, header, fat, miniFAT);
+		return propertiesEntry.propertiesAsHashMap(data, de, namedProperties);
 	}
 
 	/** Get the properties for a given Root Storage, Attachment, or Recipient entry as a HashMap indexed by the property tag
@@ -246,22 +555,53 @@ public class MSG
 		return getPropertiesAsHashMap(ded.entry);
 	}
 
+	/** Get only the requested properties for a given Root Storage, Attachment, or Recipient entry. The properties entry
+	*   is read directly from the file where possible, and the records for properties which were not requested are
+	*   skipped without creating Property objects for them or looking up their names.
+	*	@param	ded	The entry to retrieve the properties for.
+	*	@param	propertyTags	The tags of the properties to retrieve
+	*	@return	An IntMap of {@link Property property values} for the requested properties which are present in the entry,
+	*		indexed by the property tag.
+	*/
+	public IntMap<Property> getProperties(DirectoryEntryData ded, int... propertyTags)
+	{
+		DirectoryEntry propertiesEntry = directory.propertiesEntry(ded.entry);
+		if (propertiesEntry == null || propertyTags.length == 0)
+			return new IntMap<Property>();
+
+		int[] sortedTags = propertyTags.clone();
+		java.util.Arrays.sort(sortedTags);
+		java.nio.ByteBuffer propertyStream = propertiesEntry.getContentBuffer(dataSource, header, fat, miniFAT);
+		return propertiesEntry.selectedProperties(propertyStream, ded.entry, namedProperties, sortedTags);
+	}
+
+	/** Get the properties for a given Root Storage, Attachment, or Recipient entry as an IntMap indexed by the property
+	*   tag, so that properties can be looked up without boxing the tags.
+	*	@param	ded	The entry to retrieve the properties for.
+	*	@return	An IntMap of {@link Property property values} read from the entry.
+	*/
+	public IntMap<Property> getPropertiesAsIntMap(DirectoryEntryData ded)
+	{
+		DirectoryEntry propertiesEntry = directory.propertiesEntry(ded.entry);
+		if (propertiesEntry == null)
+			return new IntMap<Property>();
+
+		java.nio.ByteBuffer propertyStream = propertiesEntry.getContentBuffer(dataSource, header, fat, miniFAT);
+		return propertiesEntry.propertiesAsIntMap(propertyStream, ded.entry, namedProperties);
+	}
+
 	/** Get the properties for a given Root Storage, Attachment, or Recipient entry as an ArrayList
 	*	@param	ded	The entry to retrieve the properties for.
 	*	@return	An ArrayList of {@link Property property values} read from the entry.
 	*/
 	public java.util.List<Property> getPropertiesAsList(DirectoryEntryData ded)
 	{
-		java.util.Iterator<DirectoryEntry> iter = directory.propertyEntries.iterator();
-		while (iter.hasNext())
-		{
-			DirectoryEntry propertiesEntry = iter.next();
-			if (directory.parents.get(propertiesEntry).equals(ded.entry)) {
-				byte[] data = propertiesEntry.getContent(mbb, header, fat, miniFAT);
-				return propertiesEntry.propertiesAsList(data, ded.entry, namedProperties);
-			}
-		}
-		return new java.util.ArrayList<Property>();
+		DirectoryEntry propertiesEntry = directory.propertiesEntry(ded.entry);
+		if (propertiesEntry == null)
+			return new java.util.ArrayList<Property>();
+
+		byte[] data = propertiesEntry.getContent(dataSource, header, fat, miniFAT);
+		return propertiesEntry.propertiesAsList(data, ded.entry, namedProperties);
 	}
 
 	/** Retrieve the value for a property, as a String
@@ -273,15 +613,109 @@ public class MSG
 		if (property.storedInProperty)
 			return property.value();
 
-		java.util.Iterator<DirectoryEntry> iter = directory.getChildren(property.parent).iterator();
-		while (iter.hasNext()) {
-			DirectoryEntry de = iter.next();
-			if (de.getPropertyTag() == property.propertyTag) {
-				byte[] data = de.getContent(mbb, header, fat, miniFAT);
-				return de.getDataAsText(data);
+		DirectoryEntry de = directory.substorage(property.parent, property.propertyTag);
+		if (de == null)
+			return null;
+
+		byte[] data = de.getContent(dataSource, header, fat, miniFAT);
+		return de.getDataAsText(data);
+	}
+
+	/** Retrieve the value of a variable-width property, which is stored in its own entry, as a single buffer. For a
+	*   file read from an array or a ByteBuffer, this is a view of it if the entry's sectors are contiguous; for a file
+	*   opened by name or through a FileChannel, it is always a copy.
+	*	@param	property	The property to retrieve the value of
+	*	@return	A read-only little-endian ByteBuffer holding the property's value, or null if the entry holding the value
+	*		could not be found.
+	*	@throws	UnsupportedOperationException	The property's value is stored in the properties entry rather than in its own entry
+	*/
+	public java.nio.ByteBuffer getPropertyBuffer(Property property)
+	{
+		if (property.storedInProperty)
+			throw new UnsupportedOperationException(String.format("Property 0x%08x (%s) is not a variable-width property", property.propertyTag, property.propertyName()));
+
+		DirectoryEntry de = directory.substorage(property.parent, property.propertyTag);
+		if (de == null)
+			return null;
+
+		return de.getContentBuffer(dataSource, header, fat, miniFAT);
+	}
+
+	/** Retrieve the value of a String property, which is stored in its own entry. Unicode strings (PtypString) are
+	*   decoded as UTF-16LE, and 8-bit strings (PtypString8) in the message's code page.
+	*	@param	property	The property to retrieve the value of
+	*	@return	The property's value, or null if the entry holding the value could not be found.
+	*	@throws	UnsupportedOperationException	The property is not a String property
+	*	@see PropertyTags#PidTagMessageCodepage
+	*/
+	public String getPropertyString(Property property)
+	{
+		final int propertyType = property.propertyTag & DataType.PROPERTY_TYPE_MASK;
+		if (propertyType != DataType.STRING && propertyType != DataType.STRING_8)
+			throw new UnsupportedOperationException(String.format("Property 0x%08x (%s) is %s, not String", property.propertyTag, property.propertyName(), property.propertyType));
+
+		java.nio.ByteBuffer value = getPropertyBuffer(property);
+		if (value == null)
+			return null;
+		return (propertyType == DataType.STRING ? java.nio.charset.StandardCharsets.UTF_16LE : codepageCharset()).decode(value).toString();
+	}
+
+	/** Get the character set of the message's code page, which 8-bit string properties are stored in. This is looked
+	*   up in the message's properties the first time it is needed.
+	*	@return	The character set of the message's code page, or ISO-8859-1 if the message has no code page or Java does
+	*		not support it
+	*	@see PropertyTags#PidTagMessageCodepage
+	*/
+	private java.nio.charset.Charset codepageCharset()
+	{
+		java.nio.charset.Charset charset = codepageCharset;
+		if (charset == null){
+			charset = java.nio.charset.StandardCharsets.ISO_8859_1;
+			DirectoryEntry propertiesEntry = directory.propertiesEntry(directory.childEntryLists(root), root);
+			if (propertiesEntry != null){
+				Property p = propertiesEntry.selectedProperties(propertiesEntry.getContentBuffer(dataSource, header, fat, miniFAT), root, namedProperties, CODEPAGE_TAGS).get(PropertyTags.PidTagMessageCodepage);
+				if (p != null)
+					charset = codepageCharset(p.intValue(), charset);
 			}
+			codepageCharset = charset;
 		}
-		return null;
+		return charset;
+	}
+
+	/** Get the character set for a Windows code page.
+	*	@param	codepage	The code page number
+	*	@param	fallback	The character set to use if Java does not support the code page
+	*	@return	The character set for the code page
+	*/
+	private static java.nio.charset.Charset codepageCharset(int codepage, java.nio.charset.Charset fallback)
+	{
+		switch (codepage)
+		{
+			case 1200:
+				return java.nio.charset.StandardCharsets.UTF_16LE;
+
+			case 20127:
+				return java.nio.charset.StandardCharsets.US_ASCII;
+
+			case 28591:
+				return java.nio.charset.StandardCharsets.ISO_8859_1;
+
+			case 65001:
+				return java.nio.charset.StandardCharsets.UTF_8;
+
+			default:
+				break;
+		}
+
+		final String[] names = { "windows-" + codepage, "cp" + codepage };
+		for (String name : names){
+			try {
+				return java.nio.charset.Charset.forName(name);
+			} catch (final IllegalArgumentException e) {
+				// Not a name Java knows this code page by; try the next one
+			}
+		}
+		return fallback;
 	}
 
 	/** Is the given directory entry a Root Storage Object?
@@ -339,16 +773,70 @@ public class MSG
 	/** Get the file pointed to by the given directory entry index
 	*	@param	ded	The entry to retrieve the file for
 	*	@return	An array of the bytes in the file.
+	*	@throws	UnsupportedOperationException	The file is too large to be held in an array; use {@link #getFileChannel}
+	*						or {@link #getFileBuffers} instead.
 	*/
 	public byte[] getFile(DirectoryEntryData ded)
 	{
-		return ded.entry.getContent(mbb, header, fat, miniFAT);
+		return ded.entry.getContent(dataSource, header, fat, miniFAT);
+	}
+
+	/** Get read-only buffers holding the file data for the given entry. For a file read from an array or a ByteBuffer,
+	*   these are views of it; for a file opened by name or through a FileChannel, each is a copy of a piece of the file,
+	*   made when it is retrieved from the list, so a large attachment is not held in memory all at once.
+	*   Runs of sectors which are contiguous in the file are returned as a single buffer, so an attachment can be saved
+	*   with gathering writes. A gathering write may not write every buffer (many platforms write at most 1024 buffers
+	*   per call), so write until the last buffer is empty, e.g.
+	*   {@code ByteBuffer[] b = msg.getFileBuffers(ded).toArray(new ByteBuffer[0]); for (int i = 0; i < b.length; ) {
+	*   fc.write(b, i, b.length - i); while (i < b.length && !b[i].hasRemaining()) ++i; }}, or copy the data with
+	*   {@code fc.transferFrom(msg.getFileChannel(ded), 0, Long.MAX_VALUE)}. Buffers which have not yet been retrieved from
+	*   the list cannot be retrieved after the MSG object is closed.
+	*	@param	ded	The entry to retrieve the file for
+	*	@return	A list of read-only ByteBuffers holding the bytes in the file, in order; this is empty if the entry has no data.
+	*/
+	public java.util.List<java.nio.ByteBuffer> getFileBuffers(DirectoryEntryData ded)
+	{
+		return ded.entry.getContentBuffers(dataSource, header, fat, miniFAT);
+	}
+
+	/** Get a channel to read the file data for the given entry, taken directly from the file without copying the whole
+	*   file into an array. The channel may be used only until the MSG object is closed.
+	*	@param	ded	The entry to retrieve the file for
+	*	@return	A ReadableByteChannel returning the bytes in the file.
+	*/
+	public java.nio.channels.ReadableByteChannel getFileChannel(DirectoryEntryData ded)
+	{
+		return new ByteBufferListChannel(getFileBuffers(ded), dataSource);
+	}
+
+	/** Get an InputStream to read the file data for the given entry, taken directly from the file without copying the
+	*   whole file into an array. The stream may be used only until the MSG object is closed.
+	*	@param	ded	The entry to retrieve the file for
+	*	@return	An InputStream returning the bytes in the file.
+	*/
+	public java.io.InputStream getFileInputStream(DirectoryEntryData ded)
+	{
+		return java.nio.channels.Channels.newInputStream(getFileChannel(ded));
 	}
 
 	/** Get the mini FAT data as a table consisting of the mini FAT sectors in the first column, and the data in the second.
 	*	@return	An array of the mini FAT chains and data
 	*/
 	public KVPArray<java.util.List<Integer>, byte[]> miniFATData()
+	{
+		dataSource.beginTableRead();
+		try {
+			return miniFATChains();
+		} finally {
+			dataSource.endTableRead();
+		}
+	}
+
+	/** List the mini FAT chains and their data; this must be called with a table read in progress.
+	*	@return	An array of the mini FAT chains and data
+	*	@see #miniFATData
+	*/
+	private KVPArray<java.util.List<Integer>, byte[]> miniFATChains()
 	{
 		KVPArray<java.util.List<Integer>, byte[]> l = new KVPArray<java.util.List<Integer>, byte[]>();
 
@@ -359,8 +847,7 @@ public class MSG
 			int destOffset = 0;
 			byte[] data = new byte[chain.size()*header.miniSectorSize];
 			while (iter.hasNext()){
-				mbb.position(miniFAT.fileOffset(iter.next()));
-				mbb.get(data, destOffset, header.miniSectorSize);
+				dataSource.get(miniFAT.fileOffset(iter.next()), data, destOffset, header.miniSectorSize);
 				destOffset += header.miniSectorSize;
 			}
 
@@ -376,9 +863,8 @@ public class MSG
 	*/
 	public byte[] getRawDirectoryEntry(DirectoryEntryData ded)
 	{
-		mbb.position(ded.entry.directoryEntryPosition);
 		byte[] data = new byte[DirectoryEntry.SIZE];
-		mbb.get(data);
+		dataSource.get(ded.entry.directoryEntryPosition, data, 0, data.length);
 		return data;
 	}
 
@@ -388,9 +874,8 @@ public class MSG
 	*/
 	public byte[] getSector(int i)
 	{
-		mbb.position(i*header.sectorSize);
 		byte[] data = new byte[header.sectorSize];
-		mbb.get(data);
+		dataSource.get((long)i*header.sectorSize, data, 0, data.length);
 		return data;
 	}
 
@@ -408,7 +893,7 @@ public class MSG
 	*/
 	public boolean isProperty(DirectoryEntryData ded)
 	{
-		return directory.propertyEntries.contains(ded.entry);
+		return directory.propertyEntries().contains(ded.entry);
 	}
 
 	/** Get a Named Property entry
@@ -468,13 +953,469 @@ public class MSG
 		return header.numberOfSectors();
 	}
 
-	/** Get an iterator through all recipients in the msg file
+	/** Get an iterator through all recipients in the msg file, or in the embedded message for a view of one
 	*	@return	An iterator through the recipients found when reading in the directory
-	*	@see	Directory#recipientEntries
+	*	@see	Directory#recipientEntries()
 	*	@see	DirectoryEntryDataIterator
 	*/
 	public java.util.Iterator<DirectoryEntryData> recipients()
 	{
-		return new DirectoryEntryDataIterator(directory.recipientEntries.iterator(), directory, namedProperties);
+		return new DirectoryEntryDataIterator(inMessage(directory.recipientEntries()).iterator(), directory, namedProperties);
+	}
+
+	/** Summarize the message in one pass through the streams the summary needs: the properties entries of the message
+	*   and its attachments, and the entries holding the text values. In lazy directory mode, only the children of the
+	*   root entry and of the attachments are decoded, and the directory tree is not built.
+	*	@return	The summary of the message
+	*	@see OpenOptions#withLazyDirectory
+	*/
+	public MessageSummary summary()
+	{
+		final Directory.EntryLists rootChildren = directory.childEntryLists(root);
+
+		java.time.Instant submitTime = null;
+		java.time.Instant deliveryTime = null;
+		DirectoryEntry propertiesEntry = directory.propertiesEntry(rootChildren, root);
+		if (propertiesEntry != null){
+			IntMap<Property> properties = propertiesEntry.selectedProperties(propertiesEntry.getContentBuffer(dataSource, header, fat, miniFAT), root, namedProperties, SUMMARY_TAGS);
+			Property p;
+			if ((p = properties.get(PropertyTags.PidTagClientSubmitTime)) != null)
+				submitTime = p.timeValue();
+			if ((p = properties.get(PropertyTags.PidTagMessageDeliveryTime)) != null)
+				deliveryTime = p.timeValue();
+		}
+
+		java.util.ArrayList<MessageSummary.Attachment> attachments = new java.util.ArrayList<MessageSummary.Attachment>();
+		for (java.util.Iterator<DirectoryEntry> iter = rootChildren.attachmentEntries.iterator(); iter.hasNext(); ){
+			DirectoryEntry attachment = iter.next();
+			Directory.EntryLists attachmentChildren = directory.childEntryLists(attachment);
+			String name = attachmentName(attachmentChildren, attachment);
+			DirectoryEntry data = directory.substorage(attachmentChildren, attachment, PropertyTags.PidTagAttachDataBinary);
+			attachments.add(new MessageSummary.Attachment(name, data == null ? -1 : data.streamSize));
+		}
+
+		return new MessageSummary(
+			stringProperty(rootChildren, root, PropertyTags.PidTagSubject),
+			stringProperty(rootChildren, root, PropertyTags.PidTagSenderName),
+			stringProperty(rootChildren, root, PropertyTags.PidTagSenderEmailAddress),
+			submitTime,
+			deliveryTime,
+			rootChildren.recipientEntries.size(),
+			attachments);
+	}
+
+	/** Open a file, summarize the message in it, and close it. The file is opened in lazy directory mode, so only the
+	*   directory entries the summary needs are decoded.
+	*	@param	fn	The name of the file to summarize
+	*	@return	The summary of the message
+	*	@throws	NotCFBFileException	The file is not a CFB file.
+	*	@throws	UnknownStorageTypeException	The object type is not one of UNKNOWN, STORAGE, STREAM, or ROOT_STORAGE.
+	* 	@throws	java.io.IOException	There was an I/O error reading the file.
+	*	@see #summary
+	*/
+	public static MessageSummary summarize(String fn)
+	throws
+		NotCFBFileException,
+		UnknownStorageTypeException,
+		java.io.IOException
+	{
+		MSG msg = new MSG(fn, OpenOptions.DEFAULT.withLazyDirectory(true));
+		try {
+			return msg.summary();
+		} finally {
+			msg.close();
+		}
+	}
+
+	/** Extract the binary attachments in the message, including those in embedded messages, to files in the given
+	*   directory. The file names are taken from each attachment's long file name, or its short file name if it has no
+	*   long file name; any directory part is removed. The attachments are written concurrently, each with gathering
+	*   writes of a batch of buffers at a time rather than by copying it into an array first. Attachments with no binary
+	*   data, such as embedded messages, are skipped.
+	*	@param	dir	The directory to write the attachments to; it is created if it does not exist.
+	*	@param	options	The options controlling how the attachments are written
+	*	@return	The manifest of the attachments written, in directory order
+	*	@throws	java.io.IOException	There was a problem writing an attachment. The other attachments are still written.
+	*	@throws	InterruptedException	The thread was interrupted while waiting for the attachments to be written.
+	*	@see ExtractOptions
+	*/
+	public java.util.List<ExtractedAttachment> extractAttachments(java.nio.file.Path dir, final ExtractOptions options)
+	throws
+		java.io.IOException,
+		InterruptedException
+	{
+		java.nio.file.Files.createDirectories(dir);
+
+		// Choose every file name first, so that attachments with the same name get distinct files
+		java.util.ArrayList<java.util.concurrent.Callable<ExtractedAttachment>> writers = new java.util.ArrayList<java.util.concurrent.Callable<ExtractedAttachment>>();
+		java.util.HashSet<String> usedNames = new java.util.HashSet<String>();
+		for (java.util.Iterator<DirectoryEntry> iter = inMessage(directory.attachmentEntries()).iterator(); iter.hasNext(); ){
+			final DirectoryEntry attachment = iter.next();
+			final Directory.EntryLists attachmentChildren = directory.childEntryLists(attachment);
+			final DirectoryEntry data = directory.substorage(attachmentChildren, attachment, PropertyTags.PidTagAttachDataBinary);
+			if (data == null)
+				continue;
+
+			final String name = attachmentName(attachmentChildren, attachment);
+			final java.nio.file.Path path = uniquePath(dir, safeFileName(name, writers.size()), usedNames, options.overwrite);
+			writers.add(new java.util.concurrent.Callable<ExtractedAttachment>(){
+				@Override
+				public ExtractedAttachment call()
+				throws
+					java.io.IOException
+				{
+					return new ExtractedAttachment(name, path, writeAttachment(data, path, options.overwrite));
+				}
+			});
+		}
+
+		java.util.ArrayList<ExtractedAttachment> manifest = new java.util.ArrayList<ExtractedAttachment>();
+		if (writers.isEmpty())
+			return manifest;
+
+		java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(Math.min(options.parallelism, writers.size()));
+		try {
+			java.io.IOException failure = null;
+			for (java.util.concurrent.Future<ExtractedAttachment> f : pool.invokeAll(writers)){
+				try {
+					manifest.add(f.get());
+				} catch (final java.util.concurrent.ExecutionException e) {
+					java.io.IOException ioe = e.getCause() instanceof java.io.IOException ? (java.io.IOException)e.getCause() : new java.io.IOException(e.getCause());
+					if (failure == null)
+						failure = ioe;
+					else
+						failure.addSuppressed(ioe);
+				}
+			}
+			if (failure != null)
+				throw failure;
+		} finally {
+			pool.shutdown();
+		}
+		return manifest;
+	}
+
+	/** Write an attachment's data to a file with gathering writes from views of the msg file. The views are fetched in
+	*   batches of at most {@link #MAX_GATHERED_BUFFERS} buffers or {@link #MAX_GATHERED_BYTES} bytes, and each batch is
+	*   written in full before the next is fetched, so views which are copies are not all held at once. Each call takes
+	*   its own views, so concurrent calls do not share buffer positions.
+	*	@param	data	The entry holding the attachment data
+	*	@param	path	The file to write
+	*	@param	overwrite	Whether to replace the file if it exists
+	*	@return	The number of bytes written
+	*	@throws	java.io.IOException	There was a problem writing the file.
+	*/
+	private long writeAttachment(DirectoryEntry data, java.nio.file.Path path, boolean overwrite)
+	throws
+		java.io.IOException
+	{
+		java.util.Iterator<java.nio.ByteBuffer> views = data.getContentBuffers(dataSource, header, fat, miniFAT).iterator();
+		java.nio.ByteBuffer[] batch = new java.nio.ByteBuffer[MAX_GATHERED_BUFFERS];
+		java.nio.channels.FileChannel fc = java.nio.channels.FileChannel.open(path,
+			java.nio.file.StandardOpenOption.WRITE,
+			overwrite ? java.nio.file.StandardOpenOption.CREATE : java.nio.file.StandardOpenOption.CREATE_NEW,
+			java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			long written = 0;
+			while (views.hasNext()){
+				int n = 0;
+				long batchBytes = 0;
+				while (n < batch.length && batchBytes < MAX_GATHERED_BYTES && views.hasNext()){
+					batch[n] = views.next();
+					batchBytes += batch[n++].remaining();
+				}
+
+				int first = 0;
+				while (first < n){
+					written += fc.write(batch, first, n - first);
+					while (first < n && !batch[first].hasRemaining())
+						++first;
+				}
+				java.util.Arrays.fill(batch, 0, n, null);
+			}
+			return written;
+		} finally {
+			fc.close();
+		}
+	}
+
+	/** Get the name of an attachment
+	*	@param	lists	The lists of the attachment's children
+	*	@param	attachment	The attachment
+	*	@return	The attachment's long file name if present, otherwise its short file name, or null if it has neither
+	*/
+	private String attachmentName(Directory.EntryLists lists, DirectoryEntry attachment)
+	{
+		String name = stringProperty(lists, attachment, PropertyTags.PidTagAttachLongFilename);
+		return name != null ? name : stringProperty(lists, attachment, PropertyTags.PidTagAttachFilename);
+	}
+
+	/** Make an attachment name safe to use as a file name in the output directory by removing any directory part,
+	*   replacing characters which are not allowed in Windows file names, and adding an underscore before a Windows
+	*   device name such as CON or LPT1, which Windows does not allow as a file name even with an extension.
+	*	@param	name	The attachment name, which may be null
+	*	@param	index	The index of the attachment, used to make a name if it has none
+	*	@return	A file name with no directory part
+	*/
+	private static String safeFileName(String name, int index)
+	{
+		String fileName = name == null ? "" : name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+		StringBuilder sb = new StringBuilder(fileName.length());
+		for (int i = 0; i < fileName.length(); ++i){
+			char c = fileName.charAt(i);
+			sb.append(c < ' ' || ":*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+		}
+		fileName = sb.toString().trim();
+		if (fileName.isEmpty() || ".".equals(fileName) || "..".equals(fileName))
+			fileName = String.format("attachment%d", index);
+
+		final int extensionIndex = fileName.indexOf('.');
+		final String stem = extensionIndex < 0 ? fileName : fileName.substring(0, extensionIndex);
+		if (WINDOWS_DEVICE_NAMES.contains(stem.trim().toUpperCase(java.util.Locale.ROOT)))
+			fileName = "_" + fileName;
+		return fileName;
+	}
+
+	/** Choose a file in the output directory for an attachment which does not clash with any other attachment or,
+	*   unless overwriting is requested, any existing file, by adding " (n)" before the extension as Windows does, with n
+	*   counting up from 1.
+	*	@param	dir	The output directory
+	*	@param	fileName	The file name to start from
+	*	@param	usedNames	The names already chosen for other attachments, compared without regard to case; updated
+	*				with the name chosen
+	*	@param	overwrite	Whether existing files may be replaced
+	*	@return	The path of the file to write the attachment to
+	*/
+	private static java.nio.file.Path uniquePath(java.nio.file.Path dir, String fileName, java.util.Set<String> usedNames, boolean overwrite)
+	{
+		final int extensionIndex = fileName.lastIndexOf('.');
+		final String baseName = extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName;
+		final String extension = extensionIndex > 0 ? fileName.substring(extensionIndex) : "";
+
+		String candidate = fileName;
+		java.nio.file.Path path = dir.resolve(candidate);
+		int i = 1;
+		while (usedNames.contains(candidate.toLowerCase(java.util.Locale.ROOT)) || (!overwrite && java.nio.file.Files.exists(path))){
+			candidate = String.format("%s (%d)%s", baseName, i++, extension);
+			path = dir.resolve(candidate);
+		}
+		usedNames.add(candidate.toLowerCase(java.util.Locale.ROOT));
+		return path;
+	}
+
+	/** Read a text property which is stored in its own entry. The property tags list the 8-bit string type for some
+	*   properties, but messages usually store them as Unicode, so both are looked for.
+	*	@param	lists	The lists of the storage's children
+	*	@param	parent	The storage the property belongs to
+	*	@param	propertyTag	The property tag, of either string type
+	*	@return	The property's value, without any trailing nulls, or null if it is not present
+	*	@see #summary
+	*	@see #extractAttachments
+	*/
+	private String stringProperty(Directory.EntryLists lists, DirectoryEntry parent, int propertyTag)
+	{
+		final int propertyId = propertyTag & ~DataType.PROPERTY_TYPE_MASK;
+		java.nio.charset.Charset charset = java.nio.charset.StandardCharsets.UTF_16LE;
+		DirectoryEntry de = directory.substorage(lists, parent, propertyId | DataType.STRING);
+		if (de == null){
+			de = directory.substorage(lists, parent, propertyId | DataType.STRING_8);
+			if (de == null)
+				return null;
+			charset = codepageCharset();
+		}
+
+		String s = charset.decode(de.getContentBuffer(dataSource, header, fat, miniFAT)).toString();
+		int end = s.length();
+		while (end > 0 && s.charAt(end-1) == '\0')
+			--end;
+		return s.substring(0, end);
+	}
+
+	/** Read one item for the concurrent read test in {@link #main}: the first third of the items are the contents of
+	*   the directory entries, the second third are the properties of the entries, and the last third are the raw
+	*   directory entries, followed by the file's sectors.
+	*	@param	msg	The file to read from
+	*	@param	entries	All the file's directory entries
+	*	@param	i	The item to read
+	*	@return	The bytes of the requested item
+	*/
+	private static byte[] readTestItem(MSG msg, java.util.List<DirectoryEntryData> entries, int i)
+	{
+		final int n = entries.size();
+		if (i < n)
+			return msg.getFile(entries.get(i));
+
+		if (i < 2*n){
+			StringBuilder sb = new StringBuilder();
+			java.util.Iterator<Property> iter = msg.getPropertiesAsList(entries.get(i-n)).iterator();
+			while (iter.hasNext())
+				sb.append(msg.getPropertyValue(iter.next())).append('\n');
+			return sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+		}
+
+		if (i < 3*n)
+			return msg.getRawDirectoryEntry(entries.get(i-2*n));
+
+		return msg.getSector(i-3*n);
+	}
+
+	/** Read all items for the concurrent read test in {@link #main} in a random order, comparing the results with the
+	*   expected values.
+	*/
+	private static class ConcurrentReader implements java.util.concurrent.Callable<Integer> {
+
+		/** The file to read from */
+		private final MSG msg;
+
+		/** All the file's directory entries */
+		private final java.util.List<DirectoryEntryData> entries;
+
+		/** The expected values of each item, as read by a single thread */
+		private final java.util.List<byte[]> expected;
+
+		/** The number of times to read each item */
+		private final int nPasses;
+
+		/** The seed for the order in which to read the items */
+		private final long seed;
+
+		/** Create a reader for the concurrent read test.
+		*	@param	msg	The file to read from
+		*	@param	entries	All the file's directory entries
+		*	@param	expected	The expected values of each item
+		*	@param	nPasses	The number of times to read each item
+		*	@param	seed	The seed for the order in which to read items
+		*/
+		ConcurrentReader(MSG msg, java.util.List<DirectoryEntryData> entries, java.util.List<byte[]> expected, int nPasses, long seed)
+		{
+			this.msg = msg;
+			this.entries = entries;
+			this.expected = expected;
+			this.nPasses = nPasses;
+			this.seed = seed;
+		}
+
+		/** Read each item nPasses times
+		*	@return	The number of reads which did not match the expected value
+		*/
+		@Override
+		public Integer call()
+		{
+			java.util.ArrayList<Integer> order = new java.util.ArrayList<Integer>(expected.size());
+			for (int i = 0; i < expected.size(); ++i)
+				order.add(i);
+			java.util.Random random = new java.util.Random(seed);
+
+			int nMismatches = 0;
+			for (int pass = 0; pass < nPasses; ++pass){
+				java.util.Collections.shuffle(order, random);
+				java.util.Iterator<Integer> iter = order.iterator();
+				while (iter.hasNext()){
+					int i = iter.next();
+					if (!java.util.Arrays.equals(expected.get(i), readTestItem(msg, entries, i)))
+						++nMismatches;
+				}
+			}
+			return nMismatches;
+		}
+	}
+
+	/** Add the given entry and all its descendants to the list of entries
+	*	@param	msg	The file the entries are in
+	*	@param	ded	The entry to add
+	*	@param	entries	The list to add the entries to
+	*/
+	private static void collectEntries(MSG msg, DirectoryEntryData ded, java.util.List<DirectoryEntryData> entries)
+	{
+		entries.add(ded);
+		java.util.Iterator<DirectoryEntryData> iter = msg.getChildIterator(ded);
+		while (iter.hasNext())
+			collectEntries(msg, iter.next(), entries);
+	}
+
+	/** Test concurrent reads by reading every stream, set of properties, directory entry, and sector in each file from
+	*   several threads at once, and comparing the results with those from a single thread. The files may be mapped in
+	*   windows under a given mapping budget, to test windows being released and mapped again while they are read, or read
+	*   with positional reads.
+	*	@param	args	The msg file(s) to test, optionally preceded by -positional-read, -mapping-window-size, and
+	*			-mapping-budget options
+	*/
+	@SuppressWarnings("PMD.DoNotCallSystemExit")
+	public static void main(final String[] args)
+	{
+		OpenOptions options = OpenOptions.DEFAULT;
+		int firstFile = 0;
+		try {
+			while (firstFile < args.length - 1 && args[firstFile].startsWith("-")){
+				if ("-positional-read".equals(args[firstFile])){
+					options = options.withPositionalRead(true);
+					++firstFile;
+					continue;
+				}
+				if ("-mapping-window-size".equals(args[firstFile]))
+					options = options.withMappingWindowSize(Integer.parseInt(args[firstFile + 1]));
+				else if ("-mapping-budget".equals(args[firstFile]))
+					MappingBudget.setLimit(Long.parseLong(args[firstFile + 1]));
+				else
+					break;
+				firstFile += 2;
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+
+		if (firstFile >= args.length) {
+			System.out.println("use:\n\tjava io.github.jmcleodfoss.msg.MSG [-positional-read] [-mapping-window-size bytes] [-mapping-budget bytes] msg-file [msg-file ...]");
+			System.exit(1);
+		}
+
+		final int nThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		final int nPasses = 10;
+
+		for (String a: java.util.Arrays.asList(args).subList(firstFile, args.length)) {
+			System.out.println(a);
+			try {
+				MSG msg = new MSG(a, options);
+				try {
+					java.util.ArrayList<DirectoryEntryData> entries = new java.util.ArrayList<DirectoryEntryData>();
+					collectEntries(msg, msg.getDirectoryTree(), entries);
+
+					final int nItems = 3*entries.size() + msg.numberOfSectors();
+					java.util.ArrayList<byte[]> expected = new java.util.ArrayList<byte[]>(nItems);
+					for (int i = 0; i < nItems; ++i)
+						expected.add(readTestItem(msg, entries, i));
+
+					java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(nThreads);
+					try {
+						java.util.ArrayList<java.util.concurrent.Future<Integer>> results = new java.util.ArrayList<java.util.concurrent.Future<Integer>>();
+						for (int t = 0; t < nThreads; ++t)
+							results.add(executor.submit(new ConcurrentReader(msg, entries, expected, nPasses, t)));
+
+						int nMismatches = 0;
+						java.util.Iterator<java.util.concurrent.Future<Integer>> iter = results.iterator();
+						while (iter.hasNext())
+							nMismatches += iter.next().get();
+						System.out.printf("%d threads read %d items %d times each: %d mismatches%n", nThreads, nItems, nPasses, nMismatches);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (final java.util.concurrent.ExecutionException e) {
+						e.printStackTrace(System.out);
+					} finally {
+						executor.shutdown();
+					}
+				} finally {
+					msg.close();
+				}
+			} catch (final java.io.FileNotFoundException e) {
+				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem reading file %s%n", a);
+			} catch (final NotCFBFileException e) {
+				e.printStackTrace(System.out);
+			} catch (final UnknownStorageTypeException e) {
+				e.printStackTrace(System.out);
+			}
+		}
 	}
 }
@@ -0,0 +1,144 @@
+package io.github.jmcleodfoss.msg;
+
+/** The process-wide limit on the address space used by files opened with windowed mapping. Windows are mapped when
+*   they are first read; once the total size of the mapped windows exceeds the limit, the least recently used windows of
+*   all open files are released until it no longer does. A released window is unmapped at once, or, if a read is using
+*   it, as soon as that read finishes, and it is mapped again if it is needed later. Files opened with windowed mapping
+*   never hand out buffers which refer to a window, so a released window is never in use by a caller.
+*   <p>
+*   The least recently used order is approximate: reading a window only marks it as used, without taking any lock, and
+*   windows marked as used since they were last considered are given a second chance when windows are released.
+*   <p>
+*   Windows are unmapped through sun.misc.Unsafe.invokeCleaner, from the jdk.unsupported module, which the msg module
+*   requires; only on a runtime image built without that module are released windows left to the garbage collector.
+*	@see OpenOptions#withMappingWindowSize
+*/
+public final class MappingBudget {
+
+	/** The default limit, in bytes */
+	public static final long DEFAULT_LIMIT = 1L << 30;
+
+	/** A mapped window of a file, which is unmapped once it has been released and no read is using it */
+	static final class Window extends DataSource.Mapping {
+
+		/** The data source the window belongs to */
+		final DataSource.WindowedMappedSource source;
+
+		/** The index of the window in the data source */
+		final int index;
+
+		/** The mapped bytes */
+		final java.nio.ByteBuffer buffer;
+
+		/** Whether the window has been read since the budget last considered releasing it */
+		private volatile boolean used;
+
+		/** Create a window, which counts as used, with a reference held until it is released.
+		*	@param	source	The data source the window belongs to
+		*	@param	index	The index of the window in the data source
+		*	@param	buffer	The mapped bytes
+		*/
+		Window(DataSource.WindowedMappedSource source, int index, java.nio.ByteBuffer buffer)
+		{
+			super(buffer);
+			this.source = source;
+			this.index = index;
+			this.buffer = buffer;
+			used = true;
+		}
+	}
+
+	/** The mapped windows, least recently considered for release first */
+	private static final java.util.LinkedHashSet<Window> windows = new java.util.LinkedHashSet<Window>();
+
+	/** The limit on the total size of the mapped windows */
+	private static long limit = DEFAULT_LIMIT;
+
+	/** The total size of the mapped windows */
+	private static long mappedBytes;
+
+	/** The budget is only used through its static methods. */
+	private MappingBudget()
+	{
+	}
+
+	/** Get the limit on the total size of the mapped windows.
+	*	@return	The limit, in bytes
+	*/
+	public static synchronized long getLimit()
+	{
+		return limit;
+	}
+
+	/** Set the limit on the total size of the mapped windows. If the windows already mapped exceed the new limit, the
+	*   least recently used ones are released at once. One window is always kept, so a limit smaller than the window size
+	*   allows one window to be mapped at a time.
+	*	@param	limit	The new limit, in bytes
+	*	@throws	IllegalArgumentException	The limit is negative.
+	*/
+	public static synchronized void setLimit(long limit)
+	{
+		if (limit < 0)
+			throw new IllegalArgumentException(String.format("The mapping budget must not be negative, not %d", limit));
+		MappingBudget.limit = limit;
+		evict();
+	}
+
+	/** Get the total size of the windows currently mapped.
+	*	@return	The number of bytes mapped
+	*/
+	public static synchronized long getMappedBytes()
+	{
+		return mappedBytes;
+	}
+
+	/** Record a newly mapped window, releasing the least recently used windows if this takes the total over the limit.
+	*	@param	window	The window which was mapped
+	*/
+	static synchronized void add(Window window)
+	{
+		windows.add(window);
+		mappedBytes += window.buffer.capacity();
+		evict();
+	}
+
+	/** Mark a window as used. This takes no lock, and writes to the window only if it is not already marked.
+	*	@param	window	The window which was read
+	*/
+	static void touch(Window window)
+	{
+		if (!window.used)
+			window.used = true;
+	}
+
+	/** Forget a window whose data source has been closed.
+	*	@param	window	The window to forget
+	*/
+	static synchronized void remove(Window window)
+	{
+		if (windows.remove(window))
+			mappedBytes -= window.buffer.capacity();
+	}
+
+	/** Release the least recently used windows until the total is within the limit, keeping at least one. A window
+	*   which has been used since it was last considered is moved to the end of the queue instead, unless every window
+	*   has already been given a second chance during this call.
+	*/
+	private static void evict()
+	{
+		int secondChances = 0;
+		while (mappedBytes > limit && windows.size() > 1){
+			java.util.Iterator<Window> iter = windows.iterator();
+			Window eldest = iter.next();
+			iter.remove();
+			if (eldest.used && secondChances < windows.size()){
+				eldest.used = false;
+				windows.add(eldest);
+				++secondChances;
+				continue;
+			}
+			mappedBytes -= eldest.buffer.capacity();
+			eldest.source.release(eldest);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package io.github.jmcleodfoss.msg;
+
+/** An immutable summary of a message: the subject, sender, dates, number of recipients, and the name and size of each
+*   attachment. Recipients and attachments of embedded messages are not included.
+*	@see MSG#summary
+*	@see MSG#summarize
+*/
+public final class MessageSummary {
+
+	/** The message subject, or null if it has none
+	*	@see PropertyTags#PidTagSubject
+	*/
+	public final String subject;
+
+	/** The sender's display name, or null if it is not present
+	*	@see PropertyTags#PidTagSenderName
+	*/
+	public final String senderName;
+
+	/** The sender's email address, or null if it is not present
+	*	@see PropertyTags#PidTagSenderEmailAddress
+	*/
+	public final String senderEmailAddress;
+
+	/** The time the message was submitted, or null if it is not present
+	*	@see PropertyTags#PidTagClientSubmitTime
+	*/
+	public final java.time.Instant submitTime;
+
+	/** The time the message was delivered, or null if it is not present
+	*	@see PropertyTags#PidTagMessageDeliveryTime
+	*/
+	public final java.time.Instant deliveryTime;
+
+	/** The number of recipients of the message */
+	public final int recipientCount;
+
+	/** The message's attachments, in directory order */
+	public final java.util.List<Attachment> attachments;
+
+	/** The name and size of an attachment */
+	public static final class Attachment {
+
+		/** The attachment's long file name if present, otherwise its short file name, or null if it has neither
+		*	@see PropertyTags#PidTagAttachLongFilename
+		*	@see PropertyTags#PidTagAttachFilename
+		*/
+		public final String name;
+
+		/** The size in bytes of the attachment data, or -1 if the attachment has no binary data (e.g. an embedded message)
+		*	@see PropertyTags#PidTagAttachDataBinary
+		*/
+		public final long size;
+
+		/** Create a summary of an attachment
+		*	@param	name	The attachment's file name
+		*	@param	size	The size of the attachment data
+		*/
+		Attachment(String name, long size)
+		{
+			this.name = name;
+			this.size = size;
+		}
+
+		/** Create a String representation of the attachment summary
+		*	@return	A String showing the attachment's name and size
+		*/
+		@Override
+		public String toString()
+		{
+			return String.format("%s (%d bytes)", name, size);
+		}
+	}
+
+	/** Create a message summary
+	*	@param	subject	The message subject
+	*	@param	senderName	The sender's display name
+	*	@param	senderEmailAddress	The sender's email address
+	*	@param	submitTime	The time the message was submitted
+	*	@param	deliveryTime	The time the message was delivered
+	*	@param	recipientCount	The number of recipients
+	*	@param	attachments	The attachment summaries
+	*/
+	MessageSummary(String subject, String senderName, String senderEmailAddress, java.time.Instant submitTime, java.time.Instant deliveryTime, int recipientCount, java.util.List<Attachment> attachments)
+	{
+		this.subject = subject;
+		this.senderName = senderName;
+		this.senderEmailAddress = senderEmailAddress;
+		this.submitTime = submitTime;
+		this.deliveryTime = deliveryTime;
+		this.recipientCount = recipientCount;
+		this.attachments = java.util.Collections.unmodifiableList(new java.util.ArrayList<Attachment>(attachments));
+	}
+
+	/** Create a String representation of the summary
+	*	@return	A multi-line String showing each field of the summary
+	*/
+	@Override
+	public String toString()
+	{
+		return String.format("Subject: %s%nFrom: %s (%s)%nSubmitted: %s%nDelivered: %s%nRecipients: %d%nAttachments: %s",
+			subject, senderName, senderEmailAddress, submitTime, deliveryTime, recipientCount, attachments);
+	}
+}
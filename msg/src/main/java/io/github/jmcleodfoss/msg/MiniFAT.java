@@ -26,11 +26,19 @@ class MiniFAT {
 	/** The mini FAT data */
 	private final int[] miniFATSectors;
 
+	/** The number of mini FAT entries which describe mini sectors in the mini stream; chains are guaranteed to stay below this. */
+	private final int numSectorsInStream;
+
 	/** The mini stream sectors. */
-	private java.util.ArrayList<Integer> miniSectors = new java.util.ArrayList<Integer>();
+	private final int[] miniSectors;
+
+	/** Whether the tables are reused, and so whether the scratch table used to find all the chains is taken from the
+	*   current thread's context
+	*/
+	private final boolean reuseTables;
 
 	/** Iterator for Mini FAT index entry chains. This returns the offset of the next mini sector to read. */
-	private class ChainIterator implements java.util.Iterator<Integer> {
+	private class ChainIterator implements java.util.PrimitiveIterator.OfInt {
 
 		/** The next entry to be returned. */
 		private int entry;
@@ -40,7 +48,7 @@ class MiniFAT {
 		*/
 		private ChainIterator(int firstMiniSector)
 		{
-			entry = firstMiniSector;
+			entry = isValidChainStart(firstMiniSector) ? firstMiniSector : Sector.ENDOFCHAIN;
 		}
 
 		/** Is there a new entry to return?
@@ -56,7 +64,7 @@ class MiniFAT {
 		*	@return	The next entry in the mini FAT sector chain
 		*/
 		@Override
-		public Integer next()
+		public int nextInt()
 		{
 			if (entry == Sector.ENDOFCHAIN)
 				throw new java.util.NoSuchElementException();
@@ -66,42 +74,73 @@ class MiniFAT {
 		}
 	}
 
-	/** Read the Mini FAT
-	* 	@param	mbb	The data stream
+	/** Read the Mini FAT and check its sector chains.
+	* 	@param	dataSource	The data stream
 	* 	@param	header	The CFB header structure
 	* 	@param	fat	The file allocation table structure
 	* 	@param	directory	The directory for this file
+	*	@param	options	The options controlling how strictly the mini FAT is checked
+	*	@throws	CorruptFileException	The mini FAT is corrupt and strict checking was requested.
+	*	@see ChainValidator
 	*/
-	MiniFAT(java.nio.MappedByteBuffer mbb, Header header, FAT fat, Directory directory)
+	MiniFAT(DataSource dataSource, Header header, FAT fat, Directory directory, OpenOptions options)
+	throws
+		CorruptFileException
 	{
 		sectorSize = header.sectorSize;
 		miniSectorsPerFullSector = sectorSize / MINI_SECTOR_SIZE;
 		numEntries = header.numberOfMiniFATEntries();
-		miniFATSectors = new int[numEntries];
-		java.util.Iterator<Integer> iter = fat.chainIterator(header.firstMiniFATSectorLocation);
+		reuseTables = options.reuseTables;
+		ParseContext context = ParseContext.get(reuseTables);
+		miniFATSectors = context.ints(numEntries);
+		java.util.Arrays.fill(miniFATSectors, 0, numEntries, Sector.FREESECT);
+
+		if (options.strict && !fat.isValidChainStart(header.firstMiniFATSectorLocation))
+			throw new CorruptFileException(String.format("Mini FAT starts at invalid sector %s", Sector.getDescription(header.firstMiniFATSectorLocation)));
+		java.util.PrimitiveIterator.OfInt iter = fat.chainIterator(header.firstMiniFATSectorLocation);
 		int destIndex = 0;
-		while (iter.hasNext()){
-			mbb.position(header.offset(iter.next()));
-			java.nio.IntBuffer al = mbb.asIntBuffer();
-			al.get(miniFATSectors, destIndex, header.intsPerSector());
+		while (iter.hasNext() && destIndex < numEntries){
+			final int sector = iter.nextInt();
+			java.nio.IntBuffer al = dataSource.view(header.offset(sector), header.bytesInSector(sector)).asIntBuffer();
+			al.get(miniFATSectors, destIndex, al.remaining());
 			destIndex += header.intsPerSector();
 		}
 
-		java.util.Iterator<Integer> miniSectorIterator = fat.chainIterator(directory.entries.get(0).startingSectorLocation);
-		while(miniSectorIterator.hasNext()) {
-			miniSectors.add(miniSectorIterator.next());
-		}
+		final int rootStart = directory.entries.get(0).startingSectorLocation;
+		if (options.strict && !fat.isValidChainStart(rootStart))
+			throw new CorruptFileException(String.format("Mini stream starts at invalid sector %s", Sector.getDescription(rootStart)));
+		miniSectors = fat.chainStream(rootStart).toArray();
+
+		numSectorsInStream = (int)Math.min(numEntries, (long)miniSectors.length * miniSectorsPerFullSector);
+		ChainValidator.validate(miniFATSectors, numSectorsInStream, "Mini FAT", options.strict, context);
+	}
+
+	/** Is the given mini sector the start of a valid chain (or ENDOFCHAIN, for an empty chain)?
+	*	@param	miniSector	The first mini sector of the chain
+	*	@return	true if a chain starting at the given mini sector can be read, false otherwise
+	*/
+	boolean isValidChainStart(int miniSector)
+	{
+		return ChainValidator.isValidChainStart(miniFATSectors, numSectorsInStream, miniSector);
+	}
+
+	/** Get the size of the mini stream
+	*	@return	The number of bytes in the mini sectors described by the mini FAT
+	*/
+	long miniStreamSize()
+	{
+		return (long)numSectorsInStream * MINI_SECTOR_SIZE;
 	}
 
 	/** Get the physical file offset for the given mini sector entry
 	*	@param	miniSectorEntry	The mini sector entry to retrieve the file offset of
 	*	@return	A file offset suitable for use in ByteBuffer.position
 	*/
-	int fileOffset(int miniSectorEntry)
+	long fileOffset(int miniSectorEntry)
 	{
 		int fullSectorIndex = miniSectorEntry / miniSectorsPerFullSector;
-		int fullSector = miniSectors.get(fullSectorIndex);
-		int sectorFileOffset = (fullSector+1) * sectorSize;
+		int fullSector = miniSectors[fullSectorIndex];
+		long sectorFileOffset = (long)(fullSector+1) * sectorSize;
 		int miniSectorIndexThisSector = miniSectorEntry % miniSectorsPerFullSector;
 		int miniSectorOffsetIntoThisSector = miniSectorIndexThisSector * MINI_SECTOR_SIZE;
 		return sectorFileOffset + miniSectorOffsetIntoThisSector;
@@ -114,12 +153,14 @@ class MiniFAT {
 	{
 		java.util.List<java.util.List<Integer>> chains = new java.util.ArrayList<java.util.List<Integer>>();
 
-		boolean[] shown = new boolean[numEntries];
-		for (int i = 0; i < numEntries; ++i){
+		ParseContext context = ParseContext.get(reuseTables);
+		boolean[] shown = context.booleans(numSectorsInStream);
+		java.util.Arrays.fill(shown, 0, numSectorsInStream, false);
+		for (int i = 0; i < numSectorsInStream; ++i){
 			if (shown[i])
 				continue;
 
-			if (miniFATSectors[i] == Sector.FREESECT){
+			if (!ChainValidator.isChained(miniFATSectors[i])){
 				shown[i] = true;
 				continue;
 			}
@@ -132,24 +173,42 @@ class MiniFAT {
 				thisChain.add(sector);
 				shown[sector] = true;
 				sector = miniFATSectors[sector];
-			} while (sector != Sector.ENDOFCHAIN);
+			} while (sector != Sector.ENDOFCHAIN && !shown[sector]);
 
 			chains.add(thisChain);
 		}
+		context.recycle(shown);
 
 		return chains;
 	}
 
+	/** Return the table to a context for reuse, once the file is closed.
+	*	@param	context	The context to return the table to
+	*/
+	void recycle(ParseContext context)
+	{
+		context.recycle(miniFATSectors);
+	}
+
 	/** Create an iterator through a mini sector chain given the first sector
 	*	@param	firstSector	The first sector of the chain to return
 	*	@return	An iterator which will return all the mini FAT sector indices in
 	*		the chain
 	*/
-	java.util.Iterator<Integer> getChainIterator(int firstSector)
+	java.util.PrimitiveIterator.OfInt getChainIterator(int firstSector)
 	{
 		return new ChainIterator(firstSector);
 	}
 
+	/** Get a stream of the mini sectors in a mini sector chain given the first sector
+	*	@param	firstSector	The first sector of the chain to return
+	*	@return	An IntStream of the mini FAT sector indices in the chain, in order
+	*/
+	java.util.stream.IntStream chainStream(int firstSector)
+	{
+		return java.util.stream.StreamSupport.intStream(java.util.Spliterators.spliteratorUnknownSize(getChainIterator(firstSector), java.util.Spliterator.ORDERED | java.util.Spliterator.NONNULL), false);
+	}
+
 	/** Get a description of the chains of mini sectors defined in the mini FAT.
 	*   @return	A String containing all the chains in the mini FAT, one per line.
 	*/
@@ -177,27 +236,49 @@ class MiniFAT {
 	/** Read the contents of a mini FAT sector chain in the mini stream
 	*	@param	startingSector	The starting sector in the mini stream
 	*	@param	size	The number of bytes in the mini FAT sector chain
-	*	@param	mbb	The file to read
+	*	@param	dataSource	The file to read
 	*	@return	An array of bytes consisting of the contents of the
-	*		requested mini FAT sector chain
+	*		requested mini FAT sector chain; if the chain is invalid, this is all zeros.
 	*/
-	byte[] read(int startingSector, long size, java.nio.MappedByteBuffer mbb)
+	byte[] read(int startingSector, long size, DataSource dataSource)
 	{
-		int nRemaining = (int)size;
+		int nRemaining = (int)Math.max(0, Math.min(size, miniStreamSize()));
 		byte[] data = new byte[nRemaining];
-		java.util.Iterator<Integer> iter = getChainIterator(startingSector);
+		java.util.PrimitiveIterator.OfInt iter = getChainIterator(startingSector);
 		int destOffset = 0;
-		while (iter.hasNext()){
-			int miniFATSector = iter.next();
-			mbb.position(fileOffset(miniFATSector));
+		while (iter.hasNext() && nRemaining > 0){
+			int miniFATSector = iter.nextInt();
 			int nToRead = Math.min(nRemaining, MINI_SECTOR_SIZE);
-			mbb.get(data, destOffset, nToRead);
+			final long offset = fileOffset(miniFATSector);
+			dataSource.get(offset, data, destOffset, (int)Math.max(0, Math.min(nToRead, dataSource.size() - offset)));
 			destOffset += nToRead;
 			nRemaining -= nToRead;
 		}
 		return data;
 	}
 
+	/** Get read-only views of the contents of a mini FAT sector chain in the mini stream, copied only if the data
+	*   source's views are copies. Mini sectors which are contiguous in the file are returned as a single view.
+	*	@param	startingSector	The starting sector in the mini stream
+	*	@param	size	The number of bytes in the mini FAT sector chain
+	*	@param	dataSource	The file to read
+	*	@return	A list of read-only ByteBuffers holding the contents of the mini FAT sector chain, in order; if the chain
+	*		is invalid, the list is empty.
+	*/
+	java.util.List<java.nio.ByteBuffer> buffers(int startingSector, long size, DataSource dataSource)
+	{
+		BufferRunList runs = new BufferRunList(dataSource);
+		long nRemaining = Math.min(size, miniStreamSize());
+		java.util.PrimitiveIterator.OfInt iter = getChainIterator(startingSector);
+		while (iter.hasNext() && nRemaining > 0){
+			long nToRead = Math.min(nRemaining, MINI_SECTOR_SIZE);
+			final long offset = fileOffset(iter.nextInt());
+			runs.add(offset, Math.max(0, Math.min(nToRead, dataSource.size() - offset)));
+			nRemaining -= nToRead;
+		}
+		return runs.buffers();
+	}
+
 	/** Test this class by reading in the mini FAT index table and printing it out.
 	*	@param	args	The msg file(s) to display the mini FAT index table for.
 	*/
@@ -212,21 +293,16 @@ class MiniFAT {
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					FAT fat = new FAT(mbb, header, difat);
-					Directory directory = new Directory(mbb, header, fat);
-					MiniFAT minifat = new MiniFAT(mbb, header, fat, directory);
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
+					Directory directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+					MiniFAT minifat = new MiniFAT(dataSource, header, fat, directory, OpenOptions.DEFAULT);
 
 					System.out.println("Mini FAT contents");
-					for (int i = 0; i < minifat.miniFATSectors.length; ++i)
+					for (int i = 0; i < minifat.numEntries; ++i)
 						System.out.printf("%d: 0x%08x%n", i, minifat.miniFATSectors[i]);
 					System.out.println("\nMini FAT sector chains");
 					System.out.printf(minifat.getChains());
@@ -238,7 +314,7 @@ class MiniFAT {
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 						System.out.println();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
@@ -246,6 +322,8 @@ class MiniFAT {
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
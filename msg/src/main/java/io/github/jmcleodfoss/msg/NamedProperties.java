@@ -39,15 +39,15 @@ class NamedProperties
 	private EntryStreamEntry[] propertyNameMappings;
 
 	/** Read in the named properties information
-	*	@param	mbb	The CFB file to read from
+	*	@param	dataSource	The CFB file to read from
 	*	@param	header	The CFB header information
 	*	@param	fat	The file allocation table
 	*	@param	directory	The directory
 	*	@param	miniFAT	The mini sector file allocation table.
 	*/
-	NamedProperties(java.nio.MappedByteBuffer mbb, Header header, FAT fat, Directory directory, MiniFAT miniFAT)
+	NamedProperties(DataSource dataSource, Header header, FAT fat, Directory directory, MiniFAT miniFAT)
 	{
-		java.util.List<DirectoryEntry> children = directory.getChildren(directory.namedPropertiesMappingEntry);
+		java.util.List<DirectoryEntry> children = directory.directChildren(directory.namedPropertiesMappingEntry);
 		java.util.Iterator<DirectoryEntry> iter = children.iterator();
 
 		// After accounting for the GUID, Entry, and String streams, the
@@ -63,13 +63,13 @@ class NamedProperties
 			// case where all the data fits into one mini sector, but makes
 			// it much easier to deal with an Entry stream which spans multiple
 			// mini and non-mini sectors.
-			byte[] data = de.getContent(mbb, header, fat, miniFAT);
+			byte[] data = de.getContent(dataSource, header, fat, miniFAT);
 
-			if (GUID_STREAM_NAME.equals(de.directoryEntryName)){
+			if (GUID_STREAM_NAME.equals(de.directoryEntryName())){
 				setGUIDS(de, data);
-			} else if (ENTRY_STREAM_NAME.equals(de.directoryEntryName)){
+			} else if (ENTRY_STREAM_NAME.equals(de.directoryEntryName())){
 				setEntries(de, data);
-			} else if (STRING_STREAM_NAME.equals(de.directoryEntryName)){
+			} else if (STRING_STREAM_NAME.equals(de.directoryEntryName())){
 				setStrings(de, data);
 			} else {
 				propertyNameMappings[pnmIndex] = new EntryStreamEntry(data);
@@ -108,13 +108,14 @@ class NamedProperties
 		if (entries[propertyIndex].propertyType == EntryStreamEntry.PropertyType.STRING_NAMED_PROPERTY)
 			return stringsByOffset.get(entries[propertyIndex].nameIdentifierOrStringOffset);
 
-		if (PropertyLIDs.lids.keySet().contains(entries[propertyIndex].nameIdentifierOrStringOffset)) {
+		String name = PropertyLIDs.lids.get(entries[propertyIndex].nameIdentifierOrStringOffset);
+		if (name != null) {
 			if (propertyIndex >= guids.length)
 				return String.format("Out of bounds error [guids] (%d >= %d)", propertyIndex, guids.length);
 
 			GUID guid = PropertyLIDs.guids.get(entries[propertyIndex].nameIdentifierOrStringOffset);
 			if (guid != null && guid.equals(guids[propertyIndex])) {
-				return PropertyLIDs.lids.get(entries[propertyIndex].nameIdentifierOrStringOffset);
+				return name;
 			}
 		}
 
@@ -227,23 +228,18 @@ class NamedProperties
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					FAT fat = new FAT(mbb, header, difat);
-					Directory directory = new Directory(mbb, header, fat);
-					MiniFAT miniFAT = new MiniFAT(mbb, header, fat, directory);
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
+					Directory directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+					MiniFAT miniFAT = new MiniFAT(dataSource, header, fat, directory, OpenOptions.DEFAULT);
 					if (directory.namedPropertiesMappingEntry == null) {
 						System.out.printf("%s does not containe a Named Properties Mapping Entry%n", a);
 						continue;
 					}
-					NamedProperties namedPropertiesMapping = new NamedProperties(mbb, header, fat, directory, miniFAT);
+					NamedProperties namedPropertiesMapping = new NamedProperties(dataSource, header, fat, directory, miniFAT);
 
 					System.out.println("GUID stream");
 					for (int i = 0; i < namedPropertiesMapping.guids.length; ++i)
@@ -281,13 +277,15 @@ class NamedProperties
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
@@ -1,6 +1,7 @@
 package io.github.jmcleodfoss.msg;
 
-/** The NotCFBFileException is thrown when the first eight bytes of the file are not the CFB file signature bytes.
+/** The NotCFBFileException is thrown when the first eight bytes of the file are not the CFB file signature bytes. Its
+*   subclass {@link CorruptFileException} is thrown when the signature is present but the file structure is not valid.
 *	@see HeaderSignature
 *	@see <a href="https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-cfb/05060311-bfce-4b12-874d-71fd4ce63aea">MS-CFB Section 2.2: Compound File Header</a>
 */
@@ -14,5 +15,13 @@ public class NotCFBFileException extends Exception {
 	{
 		super();
 	}
+
+	/**	Create a NotCFBFileException with a description of the problem.
+	*	@param	message	A description of the problem found
+	*/
+	NotCFBFileException(String message)
+	{
+		super(message);
+	}
 }
 
@@ -0,0 +1,191 @@
+package io.github.jmcleodfoss.msg;
+
+/** Options controlling how an MSG file is read. OpenOptions objects are immutable; each "with" method returns a copy with
+*   the one option changed, e.g. {@code new MSG(fn, OpenOptions.DEFAULT.withStrict(true))}.
+*	@see MSG#MSG(String, OpenOptions)
+*/
+public final class OpenOptions {
+
+	/** The default options: lenient validation, the whole directory read when the file is opened, the whole file mapped
+	*   when it is opened and unmapped when it is closed, and new tables allocated for each file.
+	*/
+	public static final OpenOptions DEFAULT = new OpenOptions(false, false, 0, false, false);
+
+	/** Whether to reject files with any structural problem, rather than repairing the problem when possible.
+	*	@see #withStrict
+	*/
+	final boolean strict;
+
+	/** Whether to decode directory entries only when they are first used, rather than when the file is opened.
+	*	@see #withLazyDirectory
+	*/
+	final boolean lazyDirectory;
+
+	/** The size of the windows a file is mapped in as it is read, or 0 to map the whole file when it is opened.
+	*	@see #withMappingWindowSize
+	*/
+	final int mappingWindowSize;
+
+	/** Whether to read the file with positional reads rather than mapping it.
+	*	@see #withPositionalRead
+	*/
+	final boolean positionalRead;
+
+	/** Whether to reuse the current thread's tables from files which have been closed.
+	*	@see #withTableReuse
+	*/
+	final boolean reuseTables;
+
+	/** Create an OpenOptions object.
+	*	@param	strict	Whether to reject files with any structural problem
+	*	@param	lazyDirectory	Whether to decode directory entries only when they are first used
+	*	@param	mappingWindowSize	The size of the windows to map the file in, or 0 to map the whole file
+	*	@param	positionalRead	Whether to read the file with positional reads rather than mapping it
+	*	@param	reuseTables	Whether to reuse the current thread's tables from files which have been closed
+	*/
+	private OpenOptions(boolean strict, boolean lazyDirectory, int mappingWindowSize, boolean positionalRead, boolean reuseTables)
+	{
+		this.strict = strict;
+		this.lazyDirectory = lazyDirectory;
+		this.mappingWindowSize = mappingWindowSize;
+		this.positionalRead = positionalRead;
+		this.reuseTables = reuseTables;
+	}
+
+	/** Get the size of the windows a file is mapped in.
+	*	@return	The window size in bytes, or 0 if the whole file is mapped when it is opened.
+	*	@see #withMappingWindowSize
+	*/
+	public int getMappingWindowSize()
+	{
+		return mappingWindowSize;
+	}
+
+	/** Are directory entries decoded only when they are first used?
+	*	@return	true if directory entries are decoded on first use, false if they are all decoded when the file is opened.
+	*	@see #withLazyDirectory
+	*/
+	public boolean isLazyDirectory()
+	{
+		return lazyDirectory;
+	}
+
+	/** Is the file read with positional reads rather than being mapped?
+	*	@return	true if the file is read with positional reads, false if it is memory-mapped.
+	*	@see #withPositionalRead
+	*/
+	public boolean isPositionalRead()
+	{
+		return positionalRead;
+	}
+
+	/** Are the current thread's tables from files which have been closed reused?
+	*	@return	true if tables are reused, false if new tables are allocated for each file.
+	*	@see #withTableReuse
+	*/
+	public boolean isTableReuse()
+	{
+		return reuseTables;
+	}
+
+	/** Is strict validation enabled?
+	*	@return	true if files with any structural problem are rejected, false if problems are repaired when possible.
+	*	@see #withStrict
+	*/
+	public boolean isStrict()
+	{
+		return strict;
+	}
+
+	/** Get a copy of these options with strict validation enabled or disabled.
+	*   <p>
+	*   The sector chains and directory tree are always checked when a file is opened, in time proportional to the number
+	*   of sectors, so a corrupt file cannot make a read loop forever or run off the end of the file. In strict mode, any
+	*   problem (a chain which loops, links outside the file or to an unallocated sector, or shares sectors with another
+	*   chain; a directory tree link which is out of range or revisits an entry; a stream which is larger than the file)
+	*   causes a {@link CorruptFileException}. In lenient mode, the offending link is treated as the end of its chain and
+	*   the file is opened anyway; chains which share sectors are left as they are. Problems which leave nothing to read,
+	*   such as an impossible header, always cause a CorruptFileException.
+	*	@param	strict	true to reject files with any structural problem, false to repair problems when possible
+	*	@return	A copy of these options with the given validation mode.
+	*/
+	public OpenOptions withStrict(boolean strict)
+	{
+		return new OpenOptions(strict, lazyDirectory, mappingWindowSize, positionalRead, reuseTables);
+	}
+
+	/** Get a copy of these options with lazy directory loading enabled or disabled.
+	*   <p>
+	*   By default, every directory entry is decoded and the whole directory tree is built when the file is opened. In
+	*   lazy mode, only the tree links and object types are read then; each entry is decoded the first time it is used,
+	*   and the tree, and the lists of attachments, recipients, and property streams, are built the first time they are
+	*   needed. This makes opening a file much cheaper for callers which only read a few properties. Lazy mode is
+	*   ignored for validation in strict mode: the tree is always checked when the file is opened.
+	*	@param	lazyDirectory	true to decode directory entries when they are first used, false to decode them all
+	*				when the file is opened
+	*	@return	A copy of these options with the given directory loading mode.
+	*/
+	public OpenOptions withLazyDirectory(boolean lazyDirectory)
+	{
+		return new OpenOptions(strict, lazyDirectory, mappingWindowSize, positionalRead, reuseTables);
+	}
+
+	/** Get a copy of these options with windowed mapping enabled or disabled.
+	*   <p>
+	*   By default, a file opened by name or through a FileChannel is memory-mapped in its entirety when it is opened. With
+	*   windowed mapping, windows of the given size are mapped only when they are first read, and the windows of all
+	*   files opened this way share the process-wide {@link MappingBudget}, which releases the least recently used
+	*   windows when the total mapped exceeds its limit. This bounds the address space used by a process which holds many
+	*   files open at once, at the cost of mapping windows again if they are released and read later. As when the whole
+	*   file is mapped, buffers returned by {@link MSG#getFileBuffers} are copies rather than views of the mapping, so a
+	*   released window can be unmapped at once, through the jdk.unsupported module, which this library requires. Files
+	*   read from a stream, an array, or a ByteBuffer are not affected.
+	*	@param	mappingWindowSize	The window size in bytes, which must be a multiple of 4096, or 0 to map the whole
+	*				file when it is opened
+	*	@return	A copy of these options with the given mapping window size.
+	*	@throws	IllegalArgumentException	The window size is negative or not a multiple of 4096.
+	*/
+	public OpenOptions withMappingWindowSize(int mappingWindowSize)
+	{
+		if (mappingWindowSize < 0 || mappingWindowSize % 4096 != 0)
+			throw new IllegalArgumentException(String.format("The mapping window size must be a non-negative multiple of 4096, not %d", mappingWindowSize));
+		return new OpenOptions(strict, lazyDirectory, mappingWindowSize, positionalRead, reuseTables);
+	}
+
+	/** Get a copy of these options with positional reads enabled or disabled.
+	*   <p>
+	*   By default, a file opened by name or through a FileChannel is memory-mapped. With positional reads, the file is
+	*   instead read with {@link java.nio.channels.FileChannel#read(java.nio.ByteBuffer, long)} through a pool of direct
+	*   buffers as each structure and stream is used, so it takes up no address space. Streams returned by
+	*   {@link MSG#getFileChannel}, and buffers returned by {@link MSG#getFileBuffers}, are read from the file a piece at
+	*   a time rather than copied from a mapping. When positional reads are enabled, the mapping window size is ignored.
+	*   Files read from a stream, an array, or a ByteBuffer are not affected.
+	*	@param	positionalRead	true to read the file with positional reads, false to memory-map it
+	*	@return	A copy of these options with the given read mode.
+	*/
+	public OpenOptions withPositionalRead(boolean positionalRead)
+	{
+		return new OpenOptions(strict, lazyDirectory, mappingWindowSize, positionalRead, reuseTables);
+	}
+
+	/** Get a copy of these options with table reuse enabled or disabled.
+	*   <p>
+	*   Opening a file allocates tables proportional to its size: the DIFAT, the FAT, and the mini FAT, and scratch tables
+	*   used to check the sector chains. With table reuse, these are taken from a cache belonging to the thread which
+	*   opens the file, and are returned to that cache when the file is closed, so a thread which opens and closes many
+	*   files in turn allocates them only once. Tables are returned only when the file is closed with {@link MSG#close}
+	*   by the thread which opened it; the caches are not locked, so a file closed by another thread drops its tables
+	*   rather than moving them between caches, and files which are not closed simply do not give their tables back. A
+	*   file which is closed while another thread is still reading it also drops its tables, so the read finishes with
+	*   the tables it started with rather than ones reused for the next file.
+	*   This helps long-lived threads, such as those in a pool, which open and close one file after another; it does not
+	*   help threads which open only one file, such as a virtual thread per file, or pipelines which hand files to other
+	*   threads to close.
+	*	@param	reuseTables	true to reuse the current thread's tables, false to allocate new tables for each file
+	*	@return	A copy of these options with the given table reuse mode.
+	*/
+	public OpenOptions withTableReuse(boolean reuseTables)
+	{
+		return new OpenOptions(strict, lazyDirectory, mappingWindowSize, positionalRead, reuseTables);
+	}
+}
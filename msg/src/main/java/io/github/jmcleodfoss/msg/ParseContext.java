@@ -0,0 +1,143 @@
+package io.github.jmcleodfoss.msg;
+
+/** A per-thread cache of the tables allocated when a file is opened (the DIFAT, FAT, and mini FAT, and the scratch
+*   arrays used to check sector chains), so a thread which opens many files in turn reuses them rather than allocating
+*   new ones for each file. Each cache is used only by its own thread, so it needs no locking; the tables belonging to
+*   an open file are returned to the cache they were taken from only if the file is closed by the thread which opened
+*   it, and are otherwise dropped.
+*   <p>
+*   A table taken from the cache may be longer than requested, and its contents are left over from its last use; the
+*   caller must initialize the entries it reads.
+*	@see OpenOptions#withTableReuse
+*/
+final class ParseContext {
+
+	/** The largest number of idle tables of each type kept by each thread */
+	private static final int MAX_IDLE_TABLES = 8;
+
+	/** The context used when tables are not reused: each table is newly allocated, and returned tables are dropped. */
+	private static final ParseContext NONE = new ParseContext(0, null);
+
+	/** The context for each thread which reuses tables */
+	private static final ThreadLocal<ParseContext> PER_THREAD = new ThreadLocal<ParseContext>(){
+		@Override
+		protected ParseContext initialValue()
+		{
+			return new ParseContext(MAX_IDLE_TABLES, Thread.currentThread());
+		}
+	};
+
+	/** The largest number of idle tables of each type kept */
+	private final int maxIdleTables;
+
+	/** The thread the context belongs to, or null for the context used when tables are not reused */
+	private final Thread owner;
+
+	/** The idle int tables */
+	private final java.util.ArrayList<int[]> idleInts;
+
+	/** The idle boolean tables */
+	private final java.util.ArrayList<boolean[]> idleBooleans;
+
+	/** Create a context
+	*	@param	maxIdleTables	The largest number of idle tables of each type to keep
+	*	@param	owner	The thread the context belongs to, or null if tables are not reused
+	*/
+	private ParseContext(int maxIdleTables, Thread owner)
+	{
+		this.maxIdleTables = maxIdleTables;
+		this.owner = owner;
+		idleInts = new java.util.ArrayList<int[]>(maxIdleTables);
+		idleBooleans = new java.util.ArrayList<boolean[]>(maxIdleTables);
+	}
+
+	/** Get the context to take tables from and return them to.
+	*	@param	reuseTables	Whether tables are reused
+	*	@return	The current thread's context if tables are reused, otherwise a context which always allocates new tables
+	*/
+	static ParseContext get(boolean reuseTables)
+	{
+		return reuseTables ? PER_THREAD.get() : NONE;
+	}
+
+	/** Get the context to return a closed file's tables to.
+	*	@param	opening	The context the tables were taken from when the file was opened
+	*	@param	dataSource	The closed file, whose tables must not be returned while a read is still using them
+	*	@return	The opening context if it belongs to the current thread and no read is using the tables, otherwise a
+	*		context which drops the tables
+	*/
+	static ParseContext forClose(ParseContext opening, DataSource dataSource)
+	{
+		return opening.owner == Thread.currentThread() && !dataSource.isTableReadInProgress() ? opening : NONE;
+	}
+
+	/** Get an int table of at least the given length, reusing the shortest idle table which is long enough.
+	*	@param	length	The number of entries needed
+	*	@return	A table with at least length entries, whose contents are undefined
+	*/
+	int[] ints(int length)
+	{
+		int best = -1;
+		for (int i = 0; i < idleInts.size(); ++i){
+			if (idleInts.get(i).length >= length && (best < 0 || idleInts.get(i).length < idleInts.get(best).length))
+				best = i;
+		}
+		return best < 0 ? new int[length] : idleInts.remove(best);
+	}
+
+	/** Get a boolean table of at least the given length, reusing the shortest idle table which is long enough.
+	*	@param	length	The number of entries needed
+	*	@return	A table with at least length entries, whose contents are undefined
+	*/
+	boolean[] booleans(int length)
+	{
+		int best = -1;
+		for (int i = 0; i < idleBooleans.size(); ++i){
+			if (idleBooleans.get(i).length >= length && (best < 0 || idleBooleans.get(i).length < idleBooleans.get(best).length))
+				best = i;
+		}
+		return best < 0 ? new boolean[length] : idleBooleans.remove(best);
+	}
+
+	/** Return an int table which is no longer in use, replacing the shortest idle table if there are already as many as
+	*   are kept.
+	*	@param	table	The table to return
+	*/
+	void recycle(int[] table)
+	{
+		if (maxIdleTables == 0)
+			return;
+		if (idleInts.size() < maxIdleTables){
+			idleInts.add(table);
+			return;
+		}
+		int shortest = 0;
+		for (int i = 1; i < idleInts.size(); ++i){
+			if (idleInts.get(i).length < idleInts.get(shortest).length)
+				shortest = i;
+		}
+		if (idleInts.get(shortest).length < table.length)
+			idleInts.set(shortest, table);
+	}
+
+	/** Return a boolean table which is no longer in use, replacing the shortest idle table if there are already as many
+	*   as are kept.
+	*	@param	table	The table to return
+	*/
+	void recycle(boolean[] table)
+	{
+		if (maxIdleTables == 0)
+			return;
+		if (idleBooleans.size() < maxIdleTables){
+			idleBooleans.add(table);
+			return;
+		}
+		int shortest = 0;
+		for (int i = 1; i < idleBooleans.size(); ++i){
+			if (idleBooleans.get(i).length < idleBooleans.get(shortest).length)
+				shortest = i;
+		}
+		if (idleBooleans.get(shortest).length < table.length)
+			idleBooleans.set(shortest, table);
+	}
+}
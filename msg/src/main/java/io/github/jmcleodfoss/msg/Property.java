@@ -1,12 +1,20 @@
 package io.github.jmcleodfoss.msg;
 
-/** Class for passing fixed-width property data to client applications
+/** Class for passing fixed-width property data to client applications. The value of a fixed-width property is
+*   available both as a String, via {@link #value}, and in its own type, via the typed accessor for that type; the typed
+*   accessors for other types throw UnsupportedOperationException. The values of variable-width properties are stored in
+*   separate entries, and can be retrieved using {@link MSG#getPropertyBuffer} or {@link MSG#getPropertyString}.
 *	@see DirectoryEntry#propertiesAsHashMap
 *	@see DirectoryEntry#propertiesAsList
 *	@see io.github.jmcleodfoss.msg.DirectoryEntry.Properties
 */
 public abstract class Property
 {
+	/** The size of each property record in a properties entry
+	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxmsg/3be0f1c8-6dec-46ea-ad81-1ad30b0ac816">MS-OXMSG Section 2.4.2.1: Fixed Length Property Entry</a>
+	*/
+	static final int SIZE = 16;
+
 	/** The property tag, consisting of a 2-byte property ID and a 2-byte data type as (Property ID) &lt;&lt; 16 | (Data Type)
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxprops/6f258f9a-5727-4a8e-b9d8-9bb729487ff8">MS-OXPROPS Section 2: Structures</a>
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxcdata/0c77892e-288e-435a-9c49-be1c20c7afdb">MS-OXCDATA Section 2.11.1: Property Data Types</a>
@@ -19,13 +27,14 @@ public abstract class Property
 	*/
 	public final int flags;
 
-	/** The property's name. This is either looked up in the file's Named Property list; if it's not found there, it's
-	*   looked up in the canonical list of PropertyTags, and if it's not found there, it will be the text
-	*   "Not found: 0x####" where #### is the property tag value in hex.
-	*   @see <a href="https://github.com/Jmcleodfoss/pstreader/blob/master/extras/properties.csv">pstreader/extras/properties.csv</a>
-	*   @see <a href="https://github.com/Jmcleodfoss/msgreader/blob/master/extras/getpropertytags.sh">msgreader/extras.getpropertytags.sh</a>
+	/** The property's name, once it has been looked up. Since Strings are immutable, a race between threads can at worst
+	*   look it up twice.
+	*	@see #propertyName()
 	*/
-	public final String propertyName;
+	private String propertyName;
+
+	/** The file's named properties object, used to look up the property's name if it is a named property */
+	private final NamedProperties namedProperties;
 
 	/** A description of the property type.
 	*	@see <a href="https://docs.microsoft.com/en-us/openspecs/exchange_server_protocols/ms-oxcdata/0c77892e-288e-435a-9c49-be1c20c7afdb">MS-OXCDATA Section 2.11.1: Property Data Types</a>
@@ -40,29 +49,57 @@ public abstract class Property
 
 	/** Construct a Property object.
 	*	@param	propertyTag	The property tag. @see propertyTag
-	*	@param	propertyName	The property's name. @see propertyName
+	*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 	*	@param	propertyType	The property's type. @see propertyType
 	*	@param	storedInProperty	Is the property stored in the object, or in separate entry?
 	*	@param	flags	The property flags. @see flags
 	*	@param	parent	The Property directory entry's parent entry
 	*/
-	private Property(int propertyTag, String propertyName, String propertyType, boolean storedInProperty, int flags, DirectoryEntry parent)
+	private Property(int propertyTag, NamedProperties namedProperties, String propertyType, boolean storedInProperty, int flags, DirectoryEntry parent)
 	{
 		this.propertyTag = propertyTag;
-		this.propertyName = propertyName;
+		this.namedProperties = namedProperties;
 		this.propertyType = propertyType;
 		this.storedInProperty = storedInProperty;
 		this.flags = flags;
 		this.parent = parent;
 	}
 
+	/** Get the property's name. This is looked up in the canonical list of PropertyTags; if it's not found there and
+	*   it is a named property, it's looked up in the file's Named Property list, and otherwise it will be the text
+	*   "Not found: 0x####" where #### is the property ID in hex. The name is looked up the first time it is
+	*   requested, so that reading property values does not require it. Before version 2.0.0, this was the public field
+	*   propertyName.
+	*	@return	The property's name
+	*   @see <a href="https://github.com/Jmcleodfoss/pstreader/blob/master/extras/properties.csv">pstreader/extras/properties.csv</a>
+	*   @see <a href="https://github.com/Jmcleodfoss/msgreader/blob/master/extras/getpropertytags.sh">msgreader/extras.getpropertytags.sh</a>
+	*/
+	public String propertyName()
+	{
+		String name = propertyName;
+		if (name == null){
+			final int propertyId = propertyTag >>> 16;
+			name = PropertyTags.tags.get(propertyTag);
+			if (name == null) {
+				if ((propertyId & 0x8000) != 0) {
+					int propertyIndex = propertyId & 0x7fff;
+					name = namedProperties.getPropertyName(propertyIndex);
+				} else {
+					name = String.format("Not found: 0x%04x", propertyId);
+				}
+			}
+			propertyName = name;
+		}
+		return name;
+	}
+
 	/** Create a String representation of the property.
 	*	@return	A String with the format "roperty tag (property name): value"
 	*/
 	@Override
 	public String toString()
 	{
-		return String.format("0x%08x (%s): %s", propertyTag, propertyName, value());
+		return String.format("0x%08x (%s): %s", propertyTag, propertyName(), value());
 	}
 
 	/** Return a String representation of the property's value.
@@ -70,6 +107,51 @@ public abstract class Property
 	*/
 	public abstract String value();
 
+	/** Return the value of a Boolean property.
+	*	@return	The property's value
+	*	@throws	UnsupportedOperationException	The property is not a Boolean property
+	*/
+	public boolean booleanValue()
+	{
+		throw notA("Boolean");
+	}
+
+	/** Return the value of a 32-bit integer property.
+	*	@return	The property's value
+	*	@throws	UnsupportedOperationException	The property is not a 32-bit integer property
+	*/
+	public int intValue()
+	{
+		throw notA("32-bit Integer");
+	}
+
+	/** Return the value of a 32-bit or 64-bit integer property, or of a fixed-width property of unrecognized type.
+	*	@return	The property's value
+	*	@throws	UnsupportedOperationException	The property is not an integer property
+	*/
+	public long longValue()
+	{
+		throw notA("64-bit Integer");
+	}
+
+	/** Return the value of a time-date property.
+	*	@return	The property's value
+	*	@throws	UnsupportedOperationException	The property is not a time-date property
+	*/
+	public java.time.Instant timeValue()
+	{
+		throw notA("Time");
+	}
+
+	/** Create the exception thrown when the value of a property is requested as a type it does not have.
+	*	@param	requestedType	The type requested
+	*	@return	An exception describing the property and the requested type
+	*/
+	private UnsupportedOperationException notA(String requestedType)
+	{
+		return new UnsupportedOperationException(String.format("Property 0x%08x (%s) is %s, not %s", propertyTag, propertyName(), propertyType, requestedType));
+	}
+
 	/** Encapsulate a Boolean property. */
 	@SuppressWarnings({"PMD.UnnecessaryFullyQualifiedName", "JavaLangClash"}) // since this is a private class, we have full control over how it is used.
 	private static class Boolean extends Property
@@ -79,14 +161,14 @@ public abstract class Property
 
 		/** Create a representation of a Boolean property.
 		*	@param	propertyTag	The property tag. @see propertyTag
-		*	@param	propertyName	The property's name. @see propertyName
+		*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 		*	@param	flags	The property flags. @see flags
 		*	@param	parent	The Property directory entry's parent entry
 		*	@param	bb		The ByteBuffer from which to read the property value.
 		**/
-		private Boolean(int propertyTag, String propertyName, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
+		private Boolean(int propertyTag, NamedProperties namedProperties, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
 		{
-			super(propertyTag, propertyName, "Boolean", true, flags, parent);
+			super(propertyTag, namedProperties, "Boolean", true, flags, parent);
 			this.property = bb.get() != 0;
 
 			// Skip remaining bytes for this entry
@@ -101,6 +183,15 @@ public abstract class Property
 		{
 			return java.lang.Boolean.toString(property);
 		}
+
+		/** Return the value of the Boolean property.
+		*	@return	{@inheritDoc}
+		*/
+		@Override
+		public boolean booleanValue()
+		{
+			return property;
+		}
 	}
 
 	/** Encapsulate a 32-bit integer property. */
@@ -111,14 +202,14 @@ public abstract class Property
 
 		/** Create a representation of a 32-bit integer property.
 		*	@param	propertyTag	The property tag. @see propertyTag
-		*	@param	propertyName	The property's name. @see propertyName
+		*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 		*	@param	flags	The property flags. @see flags
 		*	@param	parent	The Property directory entry's parent entry
 		*	@param	bb		The ByteBuffer from which to read the property value.
 		**/
-		private Integer32(int propertyTag, String propertyName, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
+		private Integer32(int propertyTag, NamedProperties namedProperties, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
 		{
-			super(propertyTag, propertyName, "32-bit Integer", true, flags, parent);
+			super(propertyTag, namedProperties, "32-bit Integer", true, flags, parent);
 			this.property = bb.getInt();
 
 			// Skip remaining bytes for this entry
@@ -133,6 +224,24 @@ public abstract class Property
 		{
 			return String.format("0x%08x", property);
 		}
+
+		/** Return the value of the 32-bit integer property.
+		*	@return	{@inheritDoc}
+		*/
+		@Override
+		public int intValue()
+		{
+			return property;
+		}
+
+		/** Return the value of the 32-bit integer property as a long.
+		*	@return	{@inheritDoc}
+		*/
+		@Override
+		public long longValue()
+		{
+			return property;
+		}
 	}
 
 	/** Encapsulate a 64-bit integer property. */
@@ -143,15 +252,15 @@ public abstract class Property
 
 		/** Create a representation of a 64-bit integer property.
 		*	@param	propertyTag	The property tag. @see propertyTag
-		*	@param	propertyName	The property's name. @see propertyName
+		*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 		*	@param	propertyType	The property's type. @see propertyType
 		*	@param	flags	The property flags. @see flags
 		*	@param	parent	The Property directory entry's parent entry
 		*	@param	bb		The ByteBuffer from which to read the property value.
 		**/
-		private Integer64(int propertyTag, String propertyName, String propertyType, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
+		private Integer64(int propertyTag, NamedProperties namedProperties, String propertyType, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
 		{
-			super(propertyTag, propertyName, propertyType, true, flags, parent);
+			super(propertyTag, namedProperties, propertyType, true, flags, parent);
 			this.property = bb.getLong();
 		}
 
@@ -163,26 +272,35 @@ public abstract class Property
 		{
 			return String.format("0x%016x", property);
 		}
+
+		/** Return the value of the 64-bit integer property.
+		*	@return	{@inheritDoc}
+		*/
+		@Override
+		public long longValue()
+		{
+			return property;
+		}
 	}
 
 	/** Encapsulate a time-date property. */
 	@SuppressWarnings("JavaUtilDate") // Relatively save use of java.util.Date
 	private static class Time extends Property
 	{
-		/** The value of the time-date property */
-		private java.util.Date time;
+		/** The value of the time-date property, in hundreds of nanoseconds since January 1, 1601 */
+		private long time;
 
 		/** Create a representation of a time-and-date property.
 		*	@param	propertyTag	The property tag. @see propertyTag
-		*	@param	propertyName	The property's name. @see propertyName
+		*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 		*	@param	flags	The property flags. @see flags
 		*	@param	parent	The Property directory entry's parent entry
 		*	@param	bb		The ByteBuffer from which to read the property value.
 		**/
-		private Time(int propertyTag, String propertyName, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
+		private Time(int propertyTag, NamedProperties namedProperties, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
 		{
-			super(propertyTag, propertyName, "Time", true, flags, parent);
-			time = (java.util.Date)DataType.timeReader.read(bb);
+			super(propertyTag, namedProperties, "Time", true, flags, parent);
+			time = bb.getLong();
 		}
 
 		/** Return a String representation of the property's value.
@@ -191,7 +309,16 @@ public abstract class Property
 		@Override
 		public String value()
 		{
-			return time.toString();
+			return DataType.Time.toDate(time).toString();
+		}
+
+		/** Return the value of the time-date property.
+		*	@return	{@inheritDoc}
+		*/
+		@Override
+		public java.time.Instant timeValue()
+		{
+			return DataType.Time.toInstant(time);
 		}
 	}
 
@@ -211,15 +338,15 @@ public abstract class Property
 
 		/** Create a representation of a variable-width, or fixed width with more than 4 bytes, property.
 		*	@param	propertyTag	The property tag. @see propertyTag
-		*	@param	propertyName	The property's name. @see propertyName
+		*	@param	namedProperties	The file's NamedProperties object to look up non-standard property names
 		*	@param	propertyType	The property's type. @see propertyType
 		*	@param	flags	The property flags. @see flags
 		*	@param	parent	The Property directory entry's parent entry
 		*	@param	bb		The ByteBuffer from which to read the property value.
 		**/
-		private VariableWidth(int propertyTag, String propertyName, String propertyType, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
+		private VariableWidth(int propertyTag, NamedProperties namedProperties, String propertyType, int flags, DirectoryEntry parent, java.nio.ByteBuffer bb)
 		{
-			super(propertyTag, propertyName, propertyType, false, flags, parent);
+			super(propertyTag, namedProperties, propertyType, false, flags, parent);
 			length = bb.getInt();
 			attachmentTypeFlag = bb.getInt();
 		}
@@ -244,41 +371,33 @@ public abstract class Property
 	static Property factory(java.nio.ByteBuffer bb, NamedProperties namedProperties, DirectoryEntry parent)
 	{
 		int propertyTag = bb.getInt();
-		int propertyId = propertyTag >>> 16;
-
-		String propertyName;
-		if (PropertyTags.tags.keySet().contains(propertyTag)) {
-			propertyName = PropertyTags.tags.get(propertyTag);
-		} else if ((propertyId & 0x8000) != 0) {
-			int propertyIndex = propertyId & 0x7fff;
-			propertyName = namedProperties.getPropertyName(propertyIndex);
-		} else {
-			propertyName = String.format("Not found: 0x%04x", propertyId);
-		}
 		int flags = bb.getInt();
 
 		switch (propertyTag & 0x0000ffff)
 		{
 			case DataType.BINARY:
-				return new VariableWidth(propertyTag, propertyName, "Binary", flags, parent, bb);
+				return new VariableWidth(propertyTag, namedProperties, "Binary", flags, parent, bb);
 
 			case DataType.BOOLEAN:
-				return new io.github.jmcleodfoss.msg.Property.Boolean(propertyTag, propertyName, flags, parent, bb);
+				return new io.github.jmcleodfoss.msg.Property.Boolean(propertyTag, namedProperties, flags, parent, bb);
 
 			case DataType.INTEGER_32:
-				return new Integer32(propertyTag, propertyName, flags, parent, bb);
+				return new Integer32(propertyTag, namedProperties, flags, parent, bb);
 
 			case DataType.INTEGER_64:
-				return new Integer64(propertyTag, propertyName, "64-bit Integer", flags, parent, bb);
+				return new Integer64(propertyTag, namedProperties, "64-bit Integer", flags, parent, bb);
 
 			case DataType.STRING:
-				return new VariableWidth(propertyTag, propertyName, "String", flags, parent, bb);
+				return new VariableWidth(propertyTag, namedProperties, "String", flags, parent, bb);
+
+			case DataType.STRING_8:
+				return new VariableWidth(propertyTag, namedProperties, "String8", flags, parent, bb);
 
 			case DataType.TIME:
-				return new Time(propertyTag, propertyName, flags, parent, bb);
+				return new Time(propertyTag, namedProperties, flags, parent, bb);
 
 			default:
-				return new Integer64(propertyTag, propertyName, "Unrecognized", flags, parent, bb);
+				return new Integer64(propertyTag, namedProperties, "Unrecognized", flags, parent, bb);
 		}
 	}
 
@@ -296,29 +415,24 @@ public abstract class Property
 		for (String a: args) {
 			System.out.println(a);
 			try {
-				java.io.File file = new java.io.File(a);
-				java.io.FileInputStream stream = new java.io.FileInputStream(file);
+				DataSource dataSource = DataSource.map(a);
 				try {
-					java.nio.channels.FileChannel fc = stream.getChannel();
-					java.nio.MappedByteBuffer mbb = fc.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, fc.size());
-					mbb.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-
-					Header header = new Header(mbb, fc.size());
-					DIFAT difat = new DIFAT(mbb, header);
-					FAT fat = new FAT(mbb, header, difat);
-					Directory directory = new Directory(mbb, header, fat);
-					MiniFAT miniFAT = new MiniFAT(mbb, header, fat, directory);
-					NamedProperties namedProperties = directory.namedPropertiesMappingEntry == null ? null : new NamedProperties(mbb, header, fat, directory, miniFAT);
-
-					java.util.Iterator<DirectoryEntry> iter = directory.propertyEntries.iterator();
+					Header header = new Header(dataSource);
+					DIFAT difat = new DIFAT(dataSource, header, OpenOptions.DEFAULT);
+					FAT fat = new FAT(dataSource, header, difat, OpenOptions.DEFAULT);
+					Directory directory = new Directory(dataSource, header, fat, OpenOptions.DEFAULT);
+					MiniFAT miniFAT = new MiniFAT(dataSource, header, fat, directory, OpenOptions.DEFAULT);
+					NamedProperties namedProperties = directory.namedPropertiesMappingEntry == null ? null : new NamedProperties(dataSource, header, fat, directory, miniFAT);
+
+					java.util.Iterator<DirectoryEntry> iter = directory.propertyEntries().iterator();
 					while (iter.hasNext()) {
 						DirectoryEntry propertiesEntry = iter.next();
-						if (directory.parents.get(propertiesEntry).equals(directory.entries.get(0))) {
-							byte[] data = propertiesEntry.getContent(mbb, header, fat, miniFAT);
+						if (directory.parent(propertiesEntry).equals(directory.entries.get(0))) {
+							byte[] data = propertiesEntry.getContent(dataSource, header, fat, miniFAT);
 							java.util.Iterator<Property> properties = propertiesEntry.propertiesAsList(data, propertiesEntry, namedProperties).iterator();
 							while (properties.hasNext()) {
 								Property property = properties.next();
-								System.out.printf("0x%08x %s: %s%n",  property.propertyTag, property.propertyName, property.value());
+								System.out.printf("0x%08x %s: %s%n",  property.propertyTag, property.propertyName(), property.value());
 							}
 							break;
 						}
@@ -331,13 +445,15 @@ public abstract class Property
 					e.printStackTrace(System.out);
 				} finally {
 					try {
-						stream.close();
+						dataSource.close();
 					} catch (final java.io.IOException e) {
 						System.out.printf("There was a problem closing file %s%n", a);
 					}
 				}
 			} catch (final java.io.FileNotFoundException e) {
 				System.out.printf("File %s not found%n", a);
+			} catch (final java.io.IOException e) {
+				System.out.printf("There was a problem opening file %s%n", a);
 			}
 		}
 	}
@@ -819,7 +819,7 @@ final public class PropertyTags
 	static final public int PidTagAddressBookParentEntryId = 0xfffc0102;
 	static final public int PidTagAddressBookContainerId = 0xfffd0003;
 
-	static final java.util.HashMap<Integer, String> tags = new java.util.HashMap<Integer, String>();
+	static final IntMap<String> tags = new IntMap<String>();
 	static {
 
 		tags.put(PidTagTemplateData, "PidTagTemplateData");
@@ -1627,10 +1627,8 @@ final public class PropertyTags
 
 	public static void main(String[] args)
 	{
-		java.util.Iterator<java.util.Map.Entry<Integer, String>> iter = PropertyTags.tags.entrySet().iterator();
-		while (iter.hasNext()) {
-			java.util.Map.Entry<Integer, String> e = iter.next();
-			System.out.printf("0x%08x: %s%n", e.getKey(), e.getValue());
-		}
+		int[] keys = PropertyTags.tags.keys();
+		for (int i = 0; i < keys.length; ++i)
+			System.out.printf("0x%08x: %s%n", keys[i], PropertyTags.tags.get(keys[i]));
 	}
 }
@@ -1,3 +1,4 @@
 module io.github.jmcleodfoss.msg {
+	requires jdk.unsupported;
 	exports io.github.jmcleodfoss.msg;
 }
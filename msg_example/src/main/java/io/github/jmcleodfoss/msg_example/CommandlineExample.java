@@ -11,7 +11,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.Iterator;
@@ -121,7 +120,7 @@ public class CommandlineExample
 						try {
 							FileChannel fc = fos.getChannel();
 							try {
-								fc.write(ByteBuffer.wrap(msg.getFile(c)));
+								fc.transferFrom(msg.getFileChannel(c), 0, Long.MAX_VALUE);
 								System.out.printf("Saved attachment %s as %s%n", name, attachment.getAbsolutePath());
 							} finally {
 								fc.close();
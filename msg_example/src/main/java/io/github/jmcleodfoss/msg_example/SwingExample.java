@@ -15,7 +15,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -151,7 +150,7 @@ public class SwingExample extends JFrame
 
 						try {
 							FileChannel fCh = new FileOutputStream(attachment).getChannel();
-							fCh.write(ByteBuffer.wrap(msg.getFile(c)));
+							fCh.transferFrom(msg.getFileChannel(c), 0, Long.MAX_VALUE);
 							fCh.close();
 						} catch (final FileNotFoundException ex) {
 							filesWithErrors.add(attachmentName);
@@ -11,7 +11,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -172,7 +171,7 @@ class Directory extends Tab
 			}
 
 			final DirectoryEntryData de = newVal.getValue();
-			tabDescription.update(de.kvps, localizer);
+			tabDescription.update(de.kvps(), localizer);
 			data.update(msg.getRawDirectoryEntry(de));
 
 			// Header points to the mini stream, so skip it.
@@ -492,7 +491,7 @@ class Directory extends Tab
 	{
 		try {
 			FileChannel fc = new FileOutputStream(file).getChannel();
-			fc.write(ByteBuffer.wrap(msg.getFile(de)));
+			fc.transferFrom(msg.getFileChannel(de), 0, Long.MAX_VALUE);
 			fc.close();
 		} catch (final FileNotFoundException ex){
 			Alert alert = new Alert(AlertType.WARNING);
@@ -84,7 +84,7 @@ class PropertyTableTab extends Tab
 				return new TableCell<PropertyRow, Property>(){
 					@Override protected void updateItem(Property item, boolean empty){
 						super.updateItem(item, empty);
-						setText(item == null ? "" : item.propertyName);
+						setText(item == null ? "" : item.propertyName());
 					};
 				};
 			}